@@ -32,6 +32,7 @@ import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.log4j.Logger;
 
@@ -483,6 +484,7 @@ implements AuctionClient
     */
    public void setTargetOrganizations(Collection<Organization> orgs)
    {
+       auctionInputChanged();
        myDestinationMSOs.clear();
        myDestinationMSOs.addAll(orgs);
        for (Organization o : orgs)
@@ -508,6 +510,7 @@ implements AuctionClient
     */
    public void addOrgChannels(int orgID, List<NationalChannel> chanList)
    {
+       auctionInputChanged();
        myChannelsByOrgMap.put(orgID, chanList);   
    }
    
@@ -520,6 +523,7 @@ implements AuctionClient
     */
    private void recalculateGeography()
    {
+      auctionInputChanged();
       recalculateTargetMSOs();
       recalculateTargetOrganizationIDs();
       recalculateAttributeData(); // depends on recalculateTargetOrganizationIDs
@@ -1053,6 +1057,7 @@ implements AuctionClient
     */
    public void setTargetMultiplierTo100()
    {
+      auctionInputChanged();
       mySoup.setAllSpotTargetViewsToTotal();
    }
    
@@ -1064,6 +1069,7 @@ implements AuctionClient
     */
    public synchronized void setTargetMultiplierToZero(int orgID)
    {
+      auctionInputChanged();
       mySoup.clearSpotTargetViews(orgID);
    }
    
@@ -1073,6 +1079,7 @@ implements AuctionClient
     */
    public void includeAllPrograms()
    {
+      auctionInputChanged();
       mySoup.setInProgramAll(true);
       myInProgramViewIDs = mySoup.getInProgramViewIDs();
    }
@@ -1196,6 +1203,7 @@ implements AuctionClient
     */
    private void createSoup(AuctionViewToggles toggles)
    {  
+      auctionInputChanged();
       myAuctionToggles = toggles;
       myProgressTracker.clearLastError();
       myLastMultipliers.clear();
@@ -1428,6 +1436,7 @@ implements AuctionClient
       int segment;
       int multiplier;
       
+      auctionInputChanged();
       myLastMultipliers.clear();
       for (int i = 0; i < num_chunks; i++)
       {
@@ -1682,6 +1691,7 @@ implements AuctionClient
     */
    public void calculateDemographics(DemographicCalculator dc)
    {
+       auctionInputChanged();
        if (!dc.supportsDemographics())
        {
            // If no demographics are defined, clear demo data.
@@ -1739,6 +1749,7 @@ implements AuctionClient
       // First - clear the list of program views that are part of
       // the criteria.  This list will be refilled through the
       // calculateSpotsInProgram method.
+      auctionInputChanged();
       myInProgramViewIDs.clear();
       
       // This method will determine which spots/breaks meet the criteria.
@@ -1853,6 +1864,7 @@ implements AuctionClient
     */
    public void setIsInProgram (int progViewID)
    {
+      auctionInputChanged();
       myInProgramViewIDs.add(progViewID);
    }
    
@@ -2367,6 +2379,16 @@ implements AuctionClient
       }
    }
    
+   /**
+    * Note a change to anything our auctions bid on: the avails of the soup,
+    * their creatives, or the buy's geography.  Data the Auctioneer kept from
+    * a GREENFIELD auction that began before the change can't be reused.
+    */
+   private void auctionInputChanged()
+   {
+      myAuctionInputChanges.incrementAndGet();
+   }
+   
    /********************************************************************
     *             A U C T I O N   S U P P O R T 
     ********************************************************************/
@@ -2643,6 +2665,7 @@ implements AuctionClient
            myOperationNotifier.checkProgressBeforeAuction();
            
            // Run auction #1 to establish a baseline efficiency for the buy.
+           int inputChanges = myAuctionInputChanges.get();
            setUseAuctionWinsForBaselineEff(false);
            myAuctioneer.runAuction(AuctionType.GREENFIELD);
            fireGridChanged();
@@ -2660,6 +2683,12 @@ implements AuctionClient
            theLogger.debug("==> Starting BASELINE Auction for Buy #" + adBuyId());
            
            // Now run auction #2 that uses that resulting baseline efficiency.
+           // It may reuse the data of auction #1, unless the grid has changed
+           // since.
+           if (myAuctionInputChanges.get() != inputChanges)
+           {
+               myAuctioneer.discardGreenfieldData();
+           }
            setUseAuctionWinsForBaselineEff(true);
            myAuctioneer.runAuction(AuctionType.BASELINE);
            fireGridChanged();
@@ -3606,6 +3635,8 @@ implements AuctionClient
    private float myLastAuctionBaselineEff = 0f;
    private final Object myAuctionLock = new Object();
    private AtomicBoolean myIsAuctioningOK = new AtomicBoolean(true);
+   // Count of changes to what our auctions bid on.
+   private final AtomicInteger myAuctionInputChanges = new AtomicInteger(0);
 
    // grid date range
    private DateRange myDateRange = null;
@@ -10,6 +10,7 @@ import java.util.EnumMap;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.NavigableMap;
 import java.util.TreeMap;
 
 import util.TimeUtils;
@@ -50,6 +51,8 @@ class AuctionBudget
    public AuctionBudget(int buyId)
    {
       myCampaignBuyId = buyId;
+      myDenseTallies = new DenseBudgetTallies(mySlots);
+      myDenseTallies.init();
    }
    
    /**
@@ -58,9 +61,51 @@ class AuctionBudget
     */
    public CampaignBuyAuctionTally clientTally()
    {
+       syncDenseTallies();
        return myClientBuyTally;
    }
 
+   /**
+    * Turn dense tallies on/off. When on, the campaign, buy, weekly and daily
+    * spending and impression totals checked for every candidate winner are
+    * kept in flat arrays indexed by dense campaign/buy/week slots, rather
+    * than looked up in the tally maps. The tally objects are brought up to
+    * date from the arrays whenever they are reported. Adding or unrolling a
+    * win then allocates no Money objects; with dense tallies off, each win
+    * updates the tally objects' Money totals.
+    * 
+    * @param isDense If true, use dense tallies. Default is true.
+    */
+   public void setDenseTallies(boolean isDense)
+   {
+      if (isDense == (myDenseTallies != null))
+      {
+         return;
+      }
+      if (isDense)
+      {
+         myDenseTallies = new DenseBudgetTallies(mySlots);
+         myDenseTallies.init();
+         myDenseTallies.load(myAuctionTalliesByCampaignID);
+      }
+      else
+      {
+         myDenseTallies.store(myAuctionTalliesByCampaignID);
+         myDenseTallies = null;
+      }
+   }
+
+   /**
+    * If dense tallies are on, write their totals to the tally objects.
+    */
+   private void syncDenseTallies()
+   {
+      if (myDenseTallies != null)
+      {
+         myDenseTallies.store(myAuctionTalliesByCampaignID);
+      }
+   }
+
    /**
     * Initialize auction budget data from an array of bids. Should be called
     * before first use.
@@ -69,6 +114,9 @@ class AuctionBudget
    public void initBudget(AuctionObjectShadow[] bids)
    {
       myAuctionTalliesByCampaignID.clear();
+      myPlacementAttrsByBreakID.clear();
+      myJournal.clear();
+      myAttrOrdinals.clear();
 
       HashMap<Integer, CampaignBuyAuctionInfo> cbaiMap =
          new HashMap<Integer, CampaignBuyAuctionInfo>();
@@ -138,6 +186,48 @@ class AuctionBudget
              week.setWeeklyLimits(cbai);
          }
       }
+      mySlots.init(bids);
+      initTalliesBySlot();
+      myExhaustion.init();
+      myHeadroom.init(bids);
+      if (myDenseTallies != null)
+      {
+         myDenseTallies.init();
+         myDenseTallies.load(myAuctionTalliesByCampaignID);
+      }
+   }
+
+   /**
+    * Index the tally objects of the auction's campaigns, buys and buy weeks
+    * by slot, so that checking or adding a win looks them up in no map. Must
+    * be called after the slots are initialized.
+    */
+   private void initTalliesBySlot()
+   {
+      myCampaignTallies = new CampaignAuctionTally[mySlots.campaignCount()];
+      myBuyTallies = new CampaignBuyAuctionTally[mySlots.buyCount()];
+      myWeekTallies = new WeeklyAuctionTally[mySlots.weekCount()];
+      for (CampaignAuctionTally cas : myAuctionTalliesByCampaignID.values())
+      {
+         for (Map.Entry<Integer, CampaignBuyAuctionTally> e : cas.talliesByCampaignBuyID.entrySet())
+         {
+            int buy = mySlots.buySlot(e.getKey());
+            if (buy < 0)
+            {
+               continue;
+            }
+            CampaignBuyAuctionTally cbt = e.getValue();
+            myCampaignTallies[mySlots.campaignSlot(buy)] = cas;
+            myBuyTallies[buy] = cbt;
+            for (Map.Entry<Integer, WeeklyAuctionTally> we : cbt.weeklyTally.entrySet())
+            {
+               if (mySlots.hasWeek(buy, we.getKey()))
+               {
+                  myWeekTallies[mySlots.weekSlot(buy, we.getKey())] = we.getValue();
+               }
+            }
+         }
+      }
    }
 
    /**
@@ -159,6 +249,69 @@ class AuctionBudget
          return impressionLimitsPass(bidder, curToggles);
 
    }
+   /**
+    * Check whether a Campaign Buy can no longer win any of its remaining bids
+    * on overall campaign or buy limits: its remaining budget (spending or
+    * impressions, according to its media buy type) cannot fit even the
+    * smallest of them. Since totals only grow as winners are added, such a
+    * buy stays exhausted until budget values are reset.
+    * 
+    * @param cbai Campaign Buy to check.
+    * @param minCost Lowest auction cost of the buy's remaining bids.
+    * @param minImpressions Fewest impressions of the buy's remaining bids.
+    * @param curToggles Current toggles of auction client (grid).
+    * @return The status that budgetLimitsPass() would set on every remaining
+    *         bid of the buy, or null if the buy is not exhausted.
+    */
+   public AuctionStatus buyExhaustedStatus(
+      CampaignBuyAuctionInfo cbai,
+      Money minCost,
+      long minImpressions,
+      AuctionViewToggles curToggles)
+   {
+      if (!curToggles.useBudget && myCampaignBuyId == cbai.campaignBuyID)
+      {
+         return null;
+      }
+      long campaignSpent;
+      long campaignImpr;
+      long buySpent;
+      long buyImpr;
+      int buy = mySlots.buySlot(cbai);
+      if (myDenseTallies != null)
+      {
+         campaignSpent = myDenseTallies.campaignSpending(buy);
+         campaignImpr = myDenseTallies.campaignImpressions(buy);
+         buySpent = myDenseTallies.buySpending(buy);
+         buyImpr = myDenseTallies.buyImpressions(buy);
+      }
+      else
+      {
+         CampaignAuctionTally campaignTally = myCampaignTallies[mySlots.campaignSlot(buy)];
+         CampaignBuyAuctionTally mediaBuyTally = myBuyTallies[buy];
+         campaignSpent = campaignTally.spending.valueInCents();
+         campaignImpr = campaignTally.impressions;
+         buySpent = mediaBuyTally.spending.valueInCents();
+         buyImpr = mediaBuyTally.impressions;
+      }
+      long minCents = minCost.valueInCents();
+      if (cbai.mediaBuyType == MediaBuyType.SPENDING_LIMITED)
+      {
+         if (campaignSpent + minCents > cbai.effectiveCampaignSpendingLimit.valueInCents())
+            return AuctionStatus.EXCEED_CAMPAIGN_BUDGET;
+         if (buySpent + minCents > cbai.effectiveSpendingLimit.valueInCents())
+            return AuctionStatus.EXCEED_BUY_BUDGET;
+      }
+      else if (cbai.mediaBuyType == MediaBuyType.IMPRESSION_LIMITED)
+      {
+         if ((campaignImpr + minImpressions) > cbai.effectiveCampaignImpressionLimit)
+            return AuctionStatus.EXCEED_CAMPAIGN_IMPRESSION_LIMIT;
+         if ((buyImpr + minImpressions) > cbai.impressionLimit)
+            return AuctionStatus.EXCEED_BUY_IMPRESSION_LIMIT;
+      }
+      return null;
+   }
+
    /**
     * Add to budget and impression numbers for a winning bidder.
     * 
@@ -166,7 +319,8 @@ class AuctionBudget
     */
    public void addToWinnerBudgetTotals(AuctionObjectShadow bid)
    {
-      updateWinnerBudgetTotals(bid, false);
+      updateWinnerBudgetTotals(bid, bid.auctionCost().valueInCents(),
+         bid.auctionObj.spot.totalADViews, false);
    }
 
    /**
@@ -177,7 +331,103 @@ class AuctionBudget
     */
    public void unrollWinnerBudgetTotals(AuctionObjectShadow bid)
    {
-      updateWinnerBudgetTotals(bid, true);
+      updateWinnerBudgetTotals(bid, -bid.auctionCost().valueInCents(),
+         -bid.auctionObj.spot.totalADViews, true);
+   }
+
+   /**
+    * Conditionally add a win to the budget and content totals, recording it
+    * in the conditional journal so it can be unrolled with
+    * unrollConditionalTotals(), or rolled back to a savepoint.
+    * This method is NOT thread safe.
+    * 
+    * @param bid Bid to conditionally add.
+    * @param returnDebugString if true return a string that dumps the output of
+    *        the winning attributes and breaks.
+    * @return a debug string if returnDebugString is true, otherwise null.
+    */
+   public String addToConditionalTotals(AuctionObjectShadow bid,
+                                        boolean returnDebugString)
+   {
+      long cents = bid.auctionCost().valueInCents();
+      long impressions = bid.auctionObj.spot.totalADViews;
+      int buy = mySlots.buySlot(bid);
+      CampaignAuctionTally campaignTally = myCampaignTallies[mySlots.campaignSlot(buy)];
+      CampaignBuyAuctionTally mediaBuyTally = myBuyTallies[buy];
+      myJournal.push(bid, cents, impressions, campaignTally, mediaBuyTally, buy);
+      applyWinnerBudgetTotals(bid, campaignTally, mediaBuyTally, buy, cents,
+         impressions, false);
+      return updateWinnerContentTotals(bid, campaignTally, mediaBuyTally, false,
+         returnDebugString);
+   }
+
+   /**
+    * Unroll a conditional win added via addToConditionalTotals(), subtracting
+    * the amounts recorded when it was added from the tallies they were added
+    * to.
+    * This method is NOT thread safe.
+    * 
+    * @param bid Bid to unroll.
+    * @param returnDebugString if true return a string that dumps the output of
+    *        the winning attributes and breaks.
+    * @return a debug string if returnDebugString is true, otherwise null.
+    */
+   public String unrollConditionalTotals(AuctionObjectShadow bid,
+                                         boolean returnDebugString)
+   {
+      int k = myJournal.size() - 1;
+      if (k < 0 || myJournal.bid(k) != bid)
+      {
+         // Not the newest conditional win (rare).
+         k = myJournal.find(bid);
+      }
+      if (k < 0)
+      {
+         updateWinnerBudgetTotals(bid, -bid.auctionCost().valueInCents(),
+            -bid.auctionObj.spot.totalADViews, true);
+         return updateWinnerContentTotals(bid, true, returnDebugString);
+      }
+      CampaignAuctionTally campaignTally = myJournal.campaignTally(k);
+      CampaignBuyAuctionTally mediaBuyTally = myJournal.buyTally(k);
+      applyWinnerBudgetTotals(bid, campaignTally, mediaBuyTally,
+         myJournal.buySlot(k), -myJournal.cents(k), -myJournal.impressions(k), true);
+      myJournal.remove(k);
+      return updateWinnerContentTotals(bid, campaignTally, mediaBuyTally, true,
+         returnDebugString);
+   }
+
+   /**
+    * @param bid Bid with a conditional win applied.
+    * @return Cost recorded for the bid's newest conditional win, in cents;
+    *         its current cost if it has none.
+    */
+   public long conditionalCents(AuctionObjectShadow bid)
+   {
+      int k = myJournal.size() - 1;
+      if (k < 0 || myJournal.bid(k) != bid)
+      {
+         k = myJournal.find(bid);
+      }
+      return (k < 0 ? bid.auctionCost().valueInCents() : myJournal.cents(k));
+   }
+
+   /**
+    * @return Savepoint for the current conditional wins: the number of wins
+    *         applied with addToConditionalTotals() and not yet unrolled.
+    */
+   public int conditionalSavepoint()
+   {
+      return myJournal.size();
+   }
+
+   /**
+    * @return Most recently applied conditional win that has not been
+    *         unrolled, or null if there is none.
+    */
+   public AuctionObjectShadow lastConditionalWin()
+   {
+      int size = myJournal.size();
+      return (size == 0 ? null : myJournal.bid(size - 1));
    }
 
    /**
@@ -186,47 +436,88 @@ class AuctionBudget
     * and Mirroring processing to be able to unroll potential winnings.
     * 
     * @param bid AuctionObjectShadow containing update info.
+    * @param spotCents Cost to add, in cents; negative if unrolling.
+    * @param spotImpressions Impressions to add; negative if unrolling.
     * @param isUnroll If true, we are removing a winner from our totals.
     */
-   private void updateWinnerBudgetTotals(AuctionObjectShadow bid, 
+   private void updateWinnerBudgetTotals(AuctionObjectShadow bid,
+                                         long spotCents,
+                                         long spotImpressions,
                                          boolean isUnroll)
-                                        
+   {
+      int buy = mySlots.buySlot(bid);
+      applyWinnerBudgetTotals(bid, myCampaignTallies[mySlots.campaignSlot(buy)],
+         myBuyTallies[buy], buy, spotCents, spotImpressions, isUnroll);
+   }
+
+   /**
+    * Apply budget and impression numbers for a winning bidder to its tallies.
+    * 
+    * @param bid AuctionObjectShadow containing update info.
+    * @param campaignTally Tally of the bid's campaign.
+    * @param mediaBuyTally Tally of the bid's buy.
+    * @param buy Budget slot of the bid's buy.
+    * @param spotCents Cost to add, in cents; negative if unrolling.
+    * @param spotImpressions Impressions to add; negative if unrolling.
+    * @param isUnroll If true, we are removing a winner from our totals.
+    */
+   private void applyWinnerBudgetTotals(AuctionObjectShadow bid,
+                                        CampaignAuctionTally campaignTally,
+                                        CampaignBuyAuctionTally mediaBuyTally,
+                                        int buy,
+                                        long spotCents,
+                                        long spotImpressions,
+                                        boolean isUnroll)
    {
       AuctionObject ao = bid.auctionObj;
       Spot spot = ao.spot;
       BreakView breakView = spot.breakView;
       CampaignBuyAuctionInfo cbai = ao.campaignBuy;
-      int cId = cbai.campaignID;
-      int buyId = cbai.campaignBuyID;
       int bwi = spot.budgetWeekIndex;
       int dow = spot.budgetDayOfWeek;
-      Money spotCost = (isUnroll ? bid.auctionCost().negate() : bid.auctionCost());
-      long spotImpressions = (isUnroll ? -(spot.totalADViews) : spot.totalADViews);
-
-      // Update per-campaign info
-      CampaignAuctionTally campaignTally = myAuctionTalliesByCampaignID.get(cId);
-      campaignTally.spending = campaignTally.spending.plus(spotCost);
-      campaignTally.impressions += spotImpressions;
-      // Update per-buy info
-      CampaignBuyAuctionTally mediaBuyTally = campaignTally.talliesByCampaignBuyID.get(buyId);
-      mediaBuyTally.spending = mediaBuyTally.spending.plus(spotCost);
-      mediaBuyTally.impressions += spotImpressions;
-      if (spot.isFuture)
-      {
-          mediaBuyTally.futureAvailSpending = mediaBuyTally.futureAvailSpending.plus(spotCost);
-          mediaBuyTally.futureAvailImpressions += spotImpressions;
+      if (isUnroll)
+      {
+         // The campaign's and buy's totals are going down: their exhausted
+         // scopes and headroom bounds may have room again.
+         myExhaustion.clear(buy);
+         myHeadroom.clear(buy);
+      }
+
+      Money spotCost = null;
+      if (myDenseTallies != null)
+      {
+         // Campaign, buy, week and day totals, avail totals, and the
+         // daypart/channel/demographic breakdowns are all kept in cents.
+         myDenseTallies.add(buy, bwi, dow, spotCents, spotImpressions);
+         myDenseTallies.addAvail(buy, spot.isFuture, spotCents, spotImpressions);
+         myDenseTallies.addBreakdowns(buy, bwi, spot.daypartID, breakView.channelId,
+            spot.qualityType(), spotCents, spotImpressions);
       }
       else
       {
-          mediaBuyTally.curAvailSpending = mediaBuyTally.curAvailSpending.plus(spotCost);
-          mediaBuyTally.curAvailImpressions += spotImpressions;
+         spotCost = Money.newFromPennies(spotCents);
+         campaignTally.spending = campaignTally.spending.plus(spotCost);
+         campaignTally.impressions += spotImpressions;
+         // Update per-buy info
+         mediaBuyTally.spending = mediaBuyTally.spending.plus(spotCost);
+         mediaBuyTally.impressions += spotImpressions;
+         if (spot.isFuture)
+         {
+             mediaBuyTally.futureAvailSpending = mediaBuyTally.futureAvailSpending.plus(spotCost);
+             mediaBuyTally.futureAvailImpressions += spotImpressions;
+         }
+         else
+         {
+             mediaBuyTally.curAvailSpending = mediaBuyTally.curAvailSpending.plus(spotCost);
+             mediaBuyTally.curAvailImpressions += spotImpressions;
+         }
+         
+         // Update daypart/channel/demographic budget limit tallies
+         mediaBuyTally.daypartTally.updateTally(spot.daypartID, spotCost, spotImpressions);
+         mediaBuyTally.channelTally.updateTally(breakView.channelId, spotCost, spotImpressions);
+         mediaBuyTally.demographicTally.updateTally(spot.qualityType(), spotCost, spotImpressions);
       }
       
-      // Update daypart/channel/demographic budget limit tallies
-      mediaBuyTally.daypartTally.updateTally(spot.daypartID, spotCost, spotImpressions);
-      mediaBuyTally.channelTally.updateTally(breakView.channelId, spotCost, spotImpressions);
-      mediaBuyTally.demographicTally.updateTally(spot.qualityType(), spotCost, spotImpressions);
-      
       // We'll only track win times if we care about proximity restrictions
       if (cbai.proximityRestrictionSeconds > 0)
       {
@@ -239,7 +530,9 @@ class AuctionBudget
 
       // Update daily/weekly budget & impression totals.
       // Note that we add to the buy, the week and the day within the week totals.
-      WeeklyAuctionTally wk = mediaBuyTally.weeklyTally.get(bwi);
+      // (Dense tallies have already been updated above.)
+      WeeklyAuctionTally wk =
+         (myDenseTallies == null ? myWeekTallies[mySlots.weekSlot(buy, bwi)] : null);
       if (wk != null)
       {
          AuctionTally day = wk.dailyTallies[dow];
@@ -295,21 +588,33 @@ class AuctionBudget
    private String updateWinnerContentTotals(AuctionObjectShadow aos,
                                             boolean isUnroll,
                                             boolean returnDebugString)
+   {
+      int buy = mySlots.buySlot(aos);
+      return updateWinnerContentTotals(aos, myCampaignTallies[mySlots.campaignSlot(buy)],
+         myBuyTallies[buy], isUnroll, returnDebugString);
+   }
+
+   /**
+    * Update the given campaign and buy tallies with data from a winning bidder.
+    * This method is NOT thread safe.
+    * @param ao Winning AuctionObject bidder.
+    * @param campaignTally Tally of the bidder's campaign.
+    * @param mediaBuyTally Tally of the bidder's buy.
+    * @param isUnroll If true, we are removing a winner from our totals.
+    */
+   private String updateWinnerContentTotals(AuctionObjectShadow aos,
+                                            CampaignAuctionTally campaignTally,
+                                            CampaignBuyAuctionTally mediaBuyTally,
+                                            boolean isUnroll,
+                                            boolean returnDebugString)
    {
       AuctionObject ao = aos.auctionObj;
       Spot spot = ao.spot;
       BreakView bk = spot.breakView;
       CampaignBuyAuctionInfo cb = ao.campaignBuy;
-      int cId = cb.campaignID;
       int buyId = cb.campaignBuyID;
       int creativeId = aos.getSelectedCreativeId();
 
-      // Update per-campaign info
-      CampaignAuctionTally campaignTally = myAuctionTalliesByCampaignID.get(cId);
-
-      // Update per-buy info
-      CampaignBuyAuctionTally mediaBuyTally = campaignTally.talliesByCampaignBuyID.get(buyId);
-
       if (isUnroll)
       {
          campaignTally.removeBreak(bk.id);
@@ -343,6 +648,8 @@ class AuctionBudget
 
       if (returnDebugString)
       {
+         // The tally's totals are only current once dense tallies are synced.
+         syncDenseTallies();
          return "Buy=" + buyId + " Cr=" + creativeId + " Av=" + spot.id + " " +
             mediaBuyTally.toString() + " " + dbgMsg;
       }
@@ -371,30 +678,57 @@ class AuctionBudget
          // if this bidder is our client AdBuy, we always succeed this check.
          return true;
       }
-      Money bidCost = bidder.auctionCost();
+      long costCents = bidder.auctionCost().valueInCents();
+      Spot spot = ao.spot;
+      int bwi = spot.budgetWeekIndex;
+      int dow = spot.budgetDayOfWeek;
+      int col = mySlots.bidColumn(bidder);
+      int buy = (col >= 0 ? mySlots.buyOfBid(col) : mySlots.buySlot(cbai));
+      DenseBudgetTallies dense = myDenseTallies;
+      long campaignSpent = (dense != null ? dense.campaignSpending(buy)
+         : myCampaignTallies[mySlots.campaignSlot(buy)].spending.valueInCents());
+      
+      // Accept at once if the cost is known to fit within all limits.
+      int headroomDay = (col >= 0 ? myHeadroom.daySlot(col) : -1);
+      if (headroomDay >= 0 && myHeadroom.fits(headroomDay, campaignSpent, costCents))
+      {
+         return true;
+      }
       
       // Check that we haven't gone over our campaign spending limit
-      CampaignAuctionTally campaignTally = myAuctionTalliesByCampaignID.get(cbai.campaignID);
-      if (campaignTally.spending.plus(bidCost).isGreaterThan(cbai.effectiveCampaignSpendingLimit))
+      if (myExhaustion.isExhausted(BudgetExhaustion.CAMPAIGN_SPENDING, buy, bwi, dow, costCents))
+      {
+         bidder.auctionState = AuctionStatus.EXCEED_CAMPAIGN_BUDGET;
+         return false;
+      }
+      if (campaignSpent + costCents > cbai.effectiveCampaignSpendingLimit.valueInCents())
       {
+         myExhaustion.setExhausted(BudgetExhaustion.CAMPAIGN_SPENDING, buy, bwi, dow, costCents);
          bidder.auctionState = AuctionStatus.EXCEED_CAMPAIGN_BUDGET;
          return false;
       }
       // Check that we haven't gone over our media buy spending limit
-      CampaignBuyAuctionTally mediaBuyTally =
-         campaignTally.talliesByCampaignBuyID.get(cbai.campaignBuyID);
-      if (mediaBuyTally.spending.plus(bidCost).isGreaterThan(cbai.effectiveSpendingLimit))
+      if (myExhaustion.isExhausted(BudgetExhaustion.BUY, buy, bwi, dow, costCents))
       {
           bidder.auctionState = AuctionStatus.EXCEED_BUY_BUDGET;
           return false;
       }
+      CampaignBuyAuctionTally mediaBuyTally = myBuyTallies[buy];
+      long buySpent = (dense != null ? dense.buySpending(buy)
+         : mediaBuyTally.spending.valueInCents());
+      if (buySpent + costCents > cbai.effectiveSpendingLimit.valueInCents())
+      {
+          myExhaustion.setExhausted(BudgetExhaustion.BUY, buy, bwi, dow, costCents);
+          bidder.auctionState = AuctionStatus.EXCEED_BUY_BUDGET;
+          return false;
+      }
       // Check spending limit against the daypart
-      Spot spot = ao.spot;
       int dpID = spot.daypartID;
       if (cbai.hasDaypartSpendLimit(dpID))
       {
-         Money dpSp = mediaBuyTally.daypartTally.currentSpending(dpID);
-         if (cbai.exceedsDaypartSpendingLimit(dpID, dpSp.plus(bidCost)))
+         long dpSp = mediaBuyTally.daypartTally.currentSpending(dpID).valueInCents()
+            + (dense != null ? dense.buyDaypartSpendingChange(buy, dpID) : 0L);
+         if (cbai.exceedsDaypartSpendingLimit(dpID, Money.newFromPennies(dpSp + costCents)))
          {
             bidder.auctionState = AuctionStatus.EXCEED_DAYPART_SPEND_LIMIT;
             return false;
@@ -404,8 +738,9 @@ class AuctionBudget
       int chanID = spot.breakView.channelId;
       if (cbai.hasChannelSpendLimit(chanID))
       {
-         Money chanSp = mediaBuyTally.channelTally.currentSpending(chanID);
-         if (cbai.exceedsChannelSpendingLimit(chanID, chanSp.plus(bidCost)))
+         long chanSp = mediaBuyTally.channelTally.currentSpending(chanID).valueInCents()
+            + (dense != null ? dense.buyChannelSpendingChange(buy, chanID) : 0L);
+         if (cbai.exceedsChannelSpendingLimit(chanID, Money.newFromPennies(chanSp + costCents)))
          {
             bidder.auctionState = AuctionStatus.EXCEED_CHANNEL_SPEND_LIMIT;
             return false;
@@ -415,10 +750,11 @@ class AuctionBudget
       DemographicQualityType demographicQuality = spot.qualityType();
       if (cbai.hasDemographicSpendLimit(demographicQuality))
       {
-         Money demographicSpend =
-            mediaBuyTally.demographicTally.currentSpending(demographicQuality);
+         long demographicSpend =
+            mediaBuyTally.demographicTally.currentSpending(demographicQuality).valueInCents()
+            + (dense != null ? dense.buyDemographicSpendingChange(buy, demographicQuality) : 0L);
          if (cbai.exceedsDemographicSpendingLimit(demographicQuality,
-            demographicSpend.plus(bidCost)))
+            Money.newFromPennies(demographicSpend + costCents)))
          {
             // NOTE: Technically, demographicQualityId can take on three values:
             // UNRATED_NETWORK, MISSING_DATA, and RATED.
@@ -441,20 +777,31 @@ class AuctionBudget
          }
       }
       // Check weekly spending limit
-      int bwi = ao.spot.budgetWeekIndex;
-      WeeklyAuctionTally wkSpend = mediaBuyTally.weeklyTally.get(bwi);
+      if (myExhaustion.isExhausted(BudgetExhaustion.WEEK, buy, bwi, dow, costCents))
+      {
+         bidder.auctionState = AuctionStatus.EXCEED_WEEKLY_BUDGET;
+         return false;
+      }
+      WeeklyAuctionTally wkSpend = myWeekTallies[mySlots.weekSlot(buy, bwi)];
       Money effectiveWeeklySpendingLimit = cbai.effectiveWeeklyRemainingSpendingLimits.get(bwi);
-      if (effectiveWeeklySpendingLimit != null &&
-          wkSpend.spending.plus(bidCost).isGreaterThan(effectiveWeeklySpendingLimit))
+      long weekHeadroom = Long.MAX_VALUE;
+      if (effectiveWeeklySpendingLimit != null)
       {
+         weekHeadroom = effectiveWeeklySpendingLimit.valueInCents()
+            - (dense != null ? dense.weekSpending(buy, bwi) : wkSpend.spending.valueInCents());
+      }
+      if (costCents > weekHeadroom)
+      {
+         myExhaustion.setExhausted(BudgetExhaustion.WEEK, buy, bwi, dow, costCents);
          bidder.auctionState = AuctionStatus.EXCEED_WEEKLY_BUDGET;
          return false;
       }
       // Check weekly spending limit against the daypart
       if (wkSpend != null && cbai.hasWeeklyDaypartSpendingLimit(bwi, dpID))
       {
-         Money dpSpend = wkSpend.spendingForDaypart(dpID);
-         if (cbai.exceedsWeeklyDaypartSpendingLimit(bwi, dpID, dpSpend.plus(bidCost)))
+         long dpSpend = wkSpend.spendingForDaypart(dpID).valueInCents()
+            + (dense != null ? dense.weekDaypartSpendingChange(buy, bwi, dpID) : 0L);
+         if (cbai.exceedsWeeklyDaypartSpendingLimit(bwi, dpID, Money.newFromPennies(dpSpend + costCents)))
          {
             bidder.auctionState = AuctionStatus.EXCEED_WEEKLY_DAYPART_SPEND_LIMIT;
             return false;
@@ -463,8 +810,9 @@ class AuctionBudget
       // Check weekly spending limit against the channel
       if (wkSpend != null && cbai.hasWeeklyChannelSpendingLimit(bwi, chanID))
       {
-         Money chanSpend = wkSpend.spendingForChannel(chanID);
-         if (cbai.exceedsWeeklyChannelSpendingLimit(bwi, chanID, chanSpend.plus(bidCost)))
+         long chanSpend = wkSpend.spendingForChannel(chanID).valueInCents()
+            + (dense != null ? dense.weekChannelSpendingChange(buy, bwi, chanID) : 0L);
+         if (cbai.exceedsWeeklyChannelSpendingLimit(bwi, chanID, Money.newFromPennies(chanSpend + costCents)))
          {
             bidder.auctionState = AuctionStatus.EXCEED_WEEKLY_CHANNEL_SPEND_LIMIT;
             return false;
@@ -473,8 +821,10 @@ class AuctionBudget
       // Check weekly spending limit againsst the demographics
       if (wkSpend != null && cbai.hasWeeklyDemographicSpendingLimit(bwi, demographicQuality))
       {
-         Money demographicSpend = wkSpend.spendingForDemographic(demographicQuality);
-         if (cbai.exceedsWeeklyDemographicSpendingLimit(bwi, demographicQuality, demographicSpend.plus(bidCost)))
+         long demographicSpend = wkSpend.spendingForDemographic(demographicQuality).valueInCents()
+            + (dense != null ? dense.weekDemographicSpendingChange(buy, bwi, demographicQuality) : 0L);
+         if (cbai.exceedsWeeklyDemographicSpendingLimit(bwi, demographicQuality,
+            Money.newFromPennies(demographicSpend + costCents)))
          {
             // NOTE: Technically, demographicQualityId can take on three values:
             // UNRATED_NETWORK, MISSING_DATA, and RATED.
@@ -497,14 +847,29 @@ class AuctionBudget
          }
       }
       // Check daily spending limit
-      int dow = ao.spot.budgetDayOfWeek;
-      AuctionTally day = wkSpend.dailyTallies[dow];
-      if (day.spending.plus(bidCost).isGreaterThan(cbai.effectiveDailyRemainingSpendingLimit))
+      if (myExhaustion.isExhausted(BudgetExhaustion.DAY, buy, bwi, dow, costCents))
       {
          bidder.auctionState = AuctionStatus.EXCEED_DAILY_BUDGET;
          return false;
       }
-      // We're within spending limits
+      long daySpent = (dense != null ? dense.daySpending(buy, bwi, dow)
+         : wkSpend.dailyTallies[dow].spending.valueInCents());
+      if (daySpent + costCents > cbai.effectiveDailyRemainingSpendingLimit.valueInCents())
+      {
+         myExhaustion.setExhausted(BudgetExhaustion.DAY, buy, bwi, dow, costCents);
+         bidder.auctionState = AuctionStatus.EXCEED_DAILY_BUDGET;
+         return false;
+      }
+      // We're within spending limits; remember how far within.
+      if (headroomDay >= 0)
+      {
+         long headroom = Math.min(
+            Math.min(cbai.effectiveCampaignSpendingLimit.valueInCents() - campaignSpent,
+                     cbai.effectiveSpendingLimit.valueInCents() - buySpent),
+            Math.min(weekHeadroom,
+                     cbai.effectiveDailyRemainingSpendingLimit.valueInCents() - daySpent));
+         myHeadroom.setHeadroom(headroomDay, campaignSpent, headroom);
+      }
       return true;
    }
    
@@ -535,17 +900,36 @@ class AuctionBudget
          return true;
       
       Spot spot = ao.spot;
+      long impr = spot.totalADViews;
+      int bwi = spot.budgetWeekIndex;
+      int dow = spot.budgetDayOfWeek;
+      int buy = mySlots.buySlot(bidder);
+      DenseBudgetTallies dense = myDenseTallies;
       // Check overall Campaign impression limit
-      CampaignAuctionTally campaignTally = myAuctionTalliesByCampaignID.get(cbai.campaignID);
-      if ((campaignTally.impressions + spot.totalADViews) > cbai.effectiveCampaignImpressionLimit)
+      if (myExhaustion.isExhausted(BudgetExhaustion.CAMPAIGN_IMPRESSIONS, buy, bwi, dow, impr))
       {
          bidder.auctionState = AuctionStatus.EXCEED_CAMPAIGN_IMPRESSION_LIMIT;
          return false;
       }
+      long campaignImpr = (dense != null ? dense.campaignImpressions(buy)
+         : myCampaignTallies[mySlots.campaignSlot(buy)].impressions);
+      if ((campaignImpr + spot.totalADViews) > cbai.effectiveCampaignImpressionLimit)
+      {
+         myExhaustion.setExhausted(BudgetExhaustion.CAMPAIGN_IMPRESSIONS, buy, bwi, dow, impr);
+         bidder.auctionState = AuctionStatus.EXCEED_CAMPAIGN_IMPRESSION_LIMIT;
+         return false;
+      }
       // Check that we haven't gone over our media buy impression limit
-      CampaignBuyAuctionTally mediaBuyTally = campaignTally.talliesByCampaignBuyID.get(cbai.campaignBuyID);
-      if ((mediaBuyTally.impressions + spot.totalADViews) > cbai.impressionLimit)
+      if (myExhaustion.isExhausted(BudgetExhaustion.BUY, buy, bwi, dow, impr))
+      {
+         bidder.auctionState = AuctionStatus.EXCEED_BUY_IMPRESSION_LIMIT;
+         return false;
+      }
+      CampaignBuyAuctionTally mediaBuyTally = myBuyTallies[buy];
+      long buyImpr = (dense != null ? dense.buyImpressions(buy) : mediaBuyTally.impressions);
+      if ((buyImpr + spot.totalADViews) > cbai.impressionLimit)
       {
+         myExhaustion.setExhausted(BudgetExhaustion.BUY, buy, bwi, dow, impr);
          bidder.auctionState = AuctionStatus.EXCEED_BUY_IMPRESSION_LIMIT;
          return false;
       }
@@ -553,7 +937,8 @@ class AuctionBudget
       int dpID = spot.daypartID;
       if (cbai.hasDaypartImpressionLimit(dpID))
       {
-         long dpImp = mediaBuyTally.daypartTally.currentImpressions(dpID);
+         long dpImp = mediaBuyTally.daypartTally.currentImpressions(dpID)
+            + (dense != null ? dense.buyDaypartImpressionsChange(buy, dpID) : 0L);
          if (cbai.exceedsDaypartImpressionLimit(dpID, dpImp + spot.totalADViews))
          {
             bidder.auctionState = AuctionStatus.EXCEED_DAYPART_IMPRESSION_LIMIT;
@@ -564,7 +949,8 @@ class AuctionBudget
       int chanID = spot.breakView.channelId;
       if (cbai.hasChannelImpressionLimit(chanID))
       {
-         long chanImp = mediaBuyTally.channelTally.currentImpressions(chanID);
+         long chanImp = mediaBuyTally.channelTally.currentImpressions(chanID)
+            + (dense != null ? dense.buyChannelImpressionsChange(buy, chanID) : 0L);
          if (cbai.exceedsChannelImpressionLimit(chanID, chanImp + spot.totalADViews))
          {
             bidder.auctionState = AuctionStatus.EXCEED_CHANNEL_IMPRESSION_LIMIT;
@@ -575,7 +961,8 @@ class AuctionBudget
       DemographicQualityType demographicQuality = spot.qualityType();
       if (cbai.hasDemographicImpressionLimit(demographicQuality))
       {
-         long demographicImpressions = mediaBuyTally.demographicTally.currentImpressions(demographicQuality);
+         long demographicImpressions = mediaBuyTally.demographicTally.currentImpressions(demographicQuality)
+            + (dense != null ? dense.buyDemographicImpressionsChange(buy, demographicQuality) : 0L);
          if (cbai.exceedsDemographicImpressionLimit(demographicQuality, demographicImpressions + spot.totalADViews))
          {            
             // NOTE: Technically, demographicQuality can take on three values:
@@ -598,20 +985,27 @@ class AuctionBudget
          }
       }
       // Check weekly impression limit
-      int bwi = ao.spot.budgetWeekIndex;
-      WeeklyAuctionTally wkSpend = mediaBuyTally.weeklyTally.get(bwi);
+      if (myExhaustion.isExhausted(BudgetExhaustion.WEEK, buy, bwi, dow, impr))
+      {
+         bidder.auctionState = AuctionStatus.EXCEED_WEEKLY_IMPRESSION_LIMIT;
+         return false;
+      }
+      WeeklyAuctionTally wkSpend = myWeekTallies[mySlots.weekSlot(buy, bwi)];
       Long effectiveWeeklyImpressionLimit = cbai.effectiveWeeklyRemainingImpressionLimits.get(bwi);
       if (effectiveWeeklyImpressionLimit != null && 
-          wkSpend != null &&
-          (wkSpend.impressions + spot.totalADViews) > effectiveWeeklyImpressionLimit)
+          (dense != null || wkSpend != null) &&
+          ((dense != null ? dense.weekImpressions(buy, bwi) : wkSpend.impressions)
+             + spot.totalADViews) > effectiveWeeklyImpressionLimit)
       {
+         myExhaustion.setExhausted(BudgetExhaustion.WEEK, buy, bwi, dow, impr);
          bidder.auctionState = AuctionStatus.EXCEED_WEEKLY_IMPRESSION_LIMIT;
          return false;
       }
       // Check weekly impression limit against the daypart
       if (wkSpend != null && cbai.hasWeeklyDaypartImpressionLimit(bwi, dpID))
       {
-         long dpImp = wkSpend.impressionsForDaypart(dpID);
+         long dpImp = wkSpend.impressionsForDaypart(dpID)
+            + (dense != null ? dense.weekDaypartImpressionsChange(buy, bwi, dpID) : 0L);
          if (cbai.exceedsWeeklyDaypartImpressionLimit(bwi, dpID, dpImp + spot.totalADViews))
          {
             bidder.auctionState = AuctionStatus.EXCEED_WEEKLY_DAYPART_IMPRESSION_LIMIT;
@@ -621,7 +1015,8 @@ class AuctionBudget
       // Check weekly impression limit against the channel
       if (wkSpend != null && cbai.hasWeeklyChannelImpressionLimit(bwi, chanID))
       {
-         long chanImp = wkSpend.impressionsForChannel(chanID);
+         long chanImp = wkSpend.impressionsForChannel(chanID)
+            + (dense != null ? dense.weekChannelImpressionsChange(buy, bwi, chanID) : 0L);
          if (cbai.exceedsWeeklyChannelImpressionLimit(bwi, chanID, chanImp + spot.totalADViews))
          {
             bidder.auctionState = AuctionStatus.EXCEED_WEEKLY_CHANNEL_IMPRESSION_LIMIT;
@@ -631,7 +1026,8 @@ class AuctionBudget
       // Check weekly impression limit against the avail demographic quality type.
       if (wkSpend != null && cbai.hasWeeklyDemographicImpressionLimit(bwi, demographicQuality))
       {
-         long demographicImpressions = wkSpend.impressionsForDemographic(demographicQuality);
+         long demographicImpressions = wkSpend.impressionsForDemographic(demographicQuality)
+            + (dense != null ? dense.weekDemographicImpressionsChange(buy, bwi, demographicQuality) : 0L);
          if (cbai.exceedsWeeklyDemographicImpressionLimit(bwi, demographicQuality, demographicImpressions + spot.totalADViews))
          {            
             // NOTE: Technically, demographicQualityId can take on three values:
@@ -655,13 +1051,19 @@ class AuctionBudget
          }
       }
       // Check daily impression limit
-      int dow = ao.spot.budgetDayOfWeek;
-      AuctionTally day = wkSpend.dailyTallies[dow];
-      if ((day.impressions + spot.totalADViews) > cbai.effectiveDailyRemainingImpressionLimit)
+      if (myExhaustion.isExhausted(BudgetExhaustion.DAY, buy, bwi, dow, impr))
       {
          bidder.auctionState = AuctionStatus.EXCEED_DAILY_IMPRESSION_LIMIT;
          return false;
       }
+      long dayImpr = (dense != null ? dense.dayImpressions(buy, bwi, dow)
+         : wkSpend.dailyTallies[dow].impressions);
+      if ((dayImpr + spot.totalADViews) > cbai.effectiveDailyRemainingImpressionLimit)
+      {
+         myExhaustion.setExhausted(BudgetExhaustion.DAY, buy, bwi, dow, impr);
+         bidder.auctionState = AuctionStatus.EXCEED_DAILY_IMPRESSION_LIMIT;
+         return false;
+      }
       // We're within impression limits
       return true;
    }
@@ -792,29 +1194,19 @@ class AuctionBudget
       TreeMap<Long, SpotProximityData> channelWins = buyTally.getChannelWinTimes().get(bk.channelId);
       if (channelWins == null)
          return true;
-      // Walk our list of previous wins and see if current bidder is in conflict
-      for (Map.Entry<Long,SpotProximityData> entry : channelWins.entrySet())
+      // Previous wins are sorted by time, so only look at those whose
+      // difference in time from the current bidder is too small.
+      NavigableMap<Long, SpotProximityData> nearbyWins = channelWins.subMap(
+         spotTime - proximityTime, false, spotTime + proximityTime, false);
+      for (SpotProximityData prevBreak : nearbyWins.values())
       {
-         long prevWinTime = entry.getKey();
-         SpotProximityData prevBreak = entry.getValue();
-         // Check if difference in time is too small
-         if (Math.abs(spotTime - prevWinTime) < proximityTime)
+         // Special case. Don't disqualify if bid is second 15-second spot in same break
+         if (!ao.allow2WinsPerBreak || 
+            !(spot.duration == 15) || !(prevBreak.duration() == 15) ||
+            (bk.id != prevBreak.breakID()))
          {
-            // Special case. Don't disqualify if bid is second 15-second spot in same break
-            if (!ao.allow2WinsPerBreak || 
-               !(spot.duration == 15) || !(prevBreak.duration() == 15) ||
-               (bk.id != prevBreak.breakID()))
-            {
-               bidder.auctionState = AuctionStatus.FAILED_CHANNEL_PROXIMITY;
-               return false;
-            }
-         }
-         else 
-         {
-            // Minor performance. Our table of previous win times is sorted by time ascending. All entries
-            // after this one will also be greater than the proximity delta.
-            if (prevWinTime > spotTime)
-               return true;
+            bidder.auctionState = AuctionStatus.FAILED_CHANNEL_PROXIMITY;
+            return false;
          }
       }      
       return true;
@@ -866,18 +1258,37 @@ class AuctionBudget
          return true;
       }
 
-      Map<PlacementAttribute, Integer> winnerAttrMap = myPlacementAttrsByBreakID.get(bkID);
-      if (winnerAttrMap == null || winnerAttrMap.isEmpty())
+      BreakPlacementAttrs winnerAttrs = myPlacementAttrsByBreakID.get(bkID);
+      if (winnerAttrs == null || winnerAttrs.isEmpty())
       {
          // No winners here with attributes yet. OK.
          return true;
       }
 
+      // If no creative for this bid shares a boolean attribute with
+      // the current winners, nothing can be pruned. OK.
+      long winnerMask = winnerAttrs.mask();
+      boolean mayConflict = false;
+      int orgID = bk.orgId;
+      for (Integer crID : creativeIDs)
+      {
+         PlacementAttribute attrs = ao.campaignBuy.getPlacementAttrsForOrg(crID, orgID);
+         if ((attrMask(attrs) & winnerMask) != 0)
+         {
+            mayConflict = true;
+            break;
+         }
+      }
+      if (!mayConflict)
+      {
+         return true;
+      }
+
       // Evaluate each creative for this bid against the placement
       // attributes of current winners.  If there are 0
       // creatives remaining after pruning, then this bid doesn't
       // pass product attribute constraints.
-      creativeIDs = aos.pruneCreatives(winnerAttrMap.keySet());
+      creativeIDs = aos.pruneCreatives(winnerAttrs.attributes());
 
       // If we pruned all creatives due to product attribute adjacency,
       // then this bid does not pass.
@@ -914,11 +1325,21 @@ class AuctionBudget
          cas.resetValues();
       }
 
-      // Clear all placement info
-      // Help garbage collection by nulling and recreating the map.
-      myPlacementAttrsByBreakID = null;
+      myJournal.clear();
+      initTalliesBySlot();
+
+      // Clear all placement info, keeping the per-break objects for reuse.
+      for (BreakPlacementAttrs attrs : myPlacementAttrsByBreakID.values())
+      {
+         attrs.clear();
+      }
 
-      myPlacementAttrsByBreakID = new HashMap<Integer, Map<PlacementAttribute, Integer>>();
+      if (myDenseTallies != null)
+      {
+         myDenseTallies.load(myAuctionTalliesByCampaignID);
+      }
+      myExhaustion.clear();
+      myHeadroom.clear();
    }
 
    /**
@@ -927,6 +1348,7 @@ class AuctionBudget
     */
    public void clearWeeklyValues()
    {
+      syncDenseTallies();
       for (CampaignAuctionTally cas : myAuctionTalliesByCampaignID.values())
       {
          for (CampaignBuyAuctionTally cbs : cas.talliesByCampaignBuyID.values())
@@ -937,6 +1359,12 @@ class AuctionBudget
             }
          }
       }
+      if (myDenseTallies != null)
+      {
+         myDenseTallies.load(myAuctionTalliesByCampaignID);
+      }
+      myExhaustion.clear();
+      myHeadroom.clear();
    }
 
    /**
@@ -959,46 +1387,24 @@ class AuctionBudget
                                                                   orgID);
       if (winnerAttrs != null)
       {
-         Integer count = 0;
-
-         Map<PlacementAttribute, Integer> attrMap = myPlacementAttrsByBreakID.get(bkID);
+         BreakPlacementAttrs attrs = myPlacementAttrsByBreakID.get(bkID);
 
          if (isUnroll)
          {
-            if (attrMap != null)
+            if (attrs != null)
             {
-               // Remove these attributes
-               count = attrMap.remove(winnerAttrs);
-
-               // If we found them and there is more than 1 instance, then 
-               // replace them with the new count.
-               if (count != null)
-               {
-                  if (--count > 0)
-                  {
-                     attrMap.put(winnerAttrs, count);
-                  }
-               }
-                     
+               // Remove one instance of these attributes, if we have them.
+               attrs.remove(myAttrOrdinals.ordinalOf(winnerAttrs));
             }
          }
          else // ! isUnroll - add these attributes to our map
          {
-            if (attrMap == null)
+            if (attrs == null)
             {
-               attrMap = new HashMap<PlacementAttribute, Integer>();
-               myPlacementAttrsByBreakID.put(bkID, attrMap);
+               attrs = new BreakPlacementAttrs(myAttrOrdinals);
+               myPlacementAttrsByBreakID.put(bkID, attrs);
             }
-            else
-            {
-               // If we already have this set, get the # of instances stored.
-               count = attrMap.get(winnerAttrs);
-
-               // If we don't have this set, it'll get a count of 1
-               if (count == null)
-                  count = 0;
-            }
-            attrMap.put(winnerAttrs, ++count);
+            attrs.add(myAttrOrdinals.ordinalOf(winnerAttrs));
          }
       }
 
@@ -1008,20 +1414,33 @@ class AuctionBudget
       return null;
    }
 
+   /**
+    * @return Boolean attribute mask of placement attributes (see
+    *         BreakPlacementAttrs.maskOf()); 0 if attrs is null.
+    */
+   private long attrMask(PlacementAttribute attrs)
+   {
+      if (attrs == null)
+      {
+         return 0L;
+      }
+      return myAttrOrdinals.mask(myAttrOrdinals.ordinalOf(attrs));
+   }
+
    private String attrsForBreak(int bkID)
    {
       StringBuilder sb = new StringBuilder();
       sb.append("(Brk=").append(bkID).append(" Attrs:");
 
-      Map<PlacementAttribute, Integer> mapOfAttrs = myPlacementAttrsByBreakID.get(bkID);
-      if (mapOfAttrs == null || mapOfAttrs.isEmpty())
+      BreakPlacementAttrs breakAttrs = myPlacementAttrsByBreakID.get(bkID);
+      if (breakAttrs == null || breakAttrs.isEmpty())
       {
          sb.append("None");
       }
       else
       {
          int num = 0;
-         for (PlacementAttribute attrs : mapOfAttrs.keySet())
+         for (PlacementAttribute attrs : breakAttrs.attributes())
          {
             List<Integer> bools = attrs.getBooleanAttrs();
             for (int attr : bools)
@@ -1057,6 +1476,7 @@ class AuctionBudget
       {
          rtnMap.put(day, new AuctionTally());
       }
+      syncDenseTallies();
       // Get spending data for campaign
       CampaignAuctionTally campaignSpending = myAuctionTalliesByCampaignID.get(campaignID);
       if (campaignSpending == null)
@@ -1094,6 +1514,7 @@ class AuctionBudget
     */
    public String dumpSpending()
    {
+      syncDenseTallies();
       StringBuilder sb = new StringBuilder();
       for (Integer cid : myAuctionTalliesByCampaignID.keySet())
       {
@@ -1310,6 +1731,7 @@ class AuctionBudget
     */
    public String dumpBudgetChart()
    {
+       syncDenseTallies();
        StringBuilder sb = new StringBuilder(BUDGET_CHART_HDR);
        for (CampaignAuctionTally campTally : myAuctionTalliesByCampaignID.values())
        {
@@ -1382,6 +1804,7 @@ class AuctionBudget
     */
    public Map<Integer, CampaignAuctionTally> getCampaignTallyResultsMap()
    {
+      syncDenseTallies();
       return myAuctionTalliesByCampaignID;
    }
    
@@ -1397,8 +1820,25 @@ class AuctionBudget
    private final int myCampaignBuyId;
    private final Map<Integer, CampaignAuctionTally> myAuctionTalliesByCampaignID = 
       new HashMap<Integer, CampaignAuctionTally>();
-   private Map<Integer, Map<PlacementAttribute, Integer>> myPlacementAttrsByBreakID =
-      new HashMap<Integer, Map<PlacementAttribute, Integer>>();
+   private final Map<Integer, BreakPlacementAttrs> myPlacementAttrsByBreakID =
+      new HashMap<Integer, BreakPlacementAttrs>();
+   // Ordinals and boolean attribute masks of the placement attributes seen
+   // in this auction.
+   private final BreakPlacementAttrs.Ordinals myAttrOrdinals =
+      new BreakPlacementAttrs.Ordinals();
    private CampaignBuyAuctionTally myClientBuyTally;
+   // Dense indexes of budget scopes, budget scopes known to be exhausted,
+   // and (if on) dense campaign/buy/week/day totals.
+   private final BudgetSlots mySlots = new BudgetSlots();
+   private final BudgetExhaustion myExhaustion = new BudgetExhaustion(mySlots);
+   // Conditional wins currently applied to the totals.
+   private final ConditionalJournal myJournal = new ConditionalJournal();
+   // Known spending headroom of each buy day, for accepting bids quickly.
+   private final BudgetHeadroom myHeadroom = new BudgetHeadroom(mySlots);
+   private DenseBudgetTallies myDenseTallies;
+   // Tally objects of the auction, by campaign, buy and week slot.
+   private CampaignAuctionTally[] myCampaignTallies = new CampaignAuctionTally[0];
+   private CampaignBuyAuctionTally[] myBuyTallies = new CampaignBuyAuctionTally[0];
+   private WeeklyAuctionTally[] myWeekTallies = new WeeklyAuctionTally[0];
 
 }
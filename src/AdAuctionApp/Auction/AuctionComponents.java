@@ -0,0 +1,137 @@
+/**
+ * Part of a source code package originally written for the AdAuctionApp project.
+ * Intended for use as a programming work sample file only.  Not for distribution.
+ **/
+package AdAuctionApp.Auction;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import AdAuctionApp.Cache.Central.AuctionObject;
+import AdAuctionApp.Cache.Central.Spot;
+
+/**
+ * Partitions the bids of an auction into independent components: sets of bids
+ * that can never affect each other's outcome, and so may be auctioned
+ * separately (and concurrently).
+ *
+ * Two bids are in the same component if they share anything the auction
+ * keeps state for across bids:
+ * <ul>
+ * <li>an avail (one winner per avail), including a mirrored partner avail
+ * and the root avail of a segmented group (SegmentSets);</li>
+ * <li>a campaign (campaign budgets and break adjacency; this also covers
+ * everything kept per buy: buy budgets, proximity, bundling, rotation);</li>
+ * <li>a break (product attribute adjacency between different buys).</li>
+ * </ul>
+ * Connected components are found with a union-find over bid indexes.
+ */
+final class AuctionComponents
+{
+   /**
+    * Partition bids into independent components.
+    *
+    * @param bids All bids in the auction.
+    * @return List of components, each a list of bids in their original
+    *         relative order. Components are ordered by their first bid.
+    */
+   static List<List<AuctionObjectShadow>> partition(AuctionObjectShadow[] bids)
+   {
+      int n = bids.length;
+      int[] parent = new int[n];
+      for (int i = 0; i < n; i++)
+      {
+         parent[i] = i;
+      }
+
+      // First bid seen for each shared key.
+      Map<Long, Integer> firstByKey = new HashMap<Long, Integer>();
+      for (int i = 0; i < n; i++)
+      {
+         AuctionObject ao = bids[i].auctionObj;
+         Spot spot = ao.spot;
+         join(parent, firstByKey, i, SPOT_KEY, spot.id);
+         join(parent, firstByKey, i, CAMPAIGN_KEY, ao.campaignBuy.campaignID);
+         join(parent, firstByKey, i, BREAK_KEY, spot.breakView.id);
+         if (spot.isMirrored())
+         {
+            join(parent, firstByKey, i, SPOT_KEY, spot.mirroredAvailID);
+         }
+         if (spot.isSegmented())
+         {
+            join(parent, firstByKey, i, SPOT_KEY, spot.segmentRootID);
+         }
+      }
+
+      // Gather members of each component, in bid order.
+      List<List<AuctionObjectShadow>> rtnList =
+         new ArrayList<List<AuctionObjectShadow>>();
+      int[] componentOfRoot = new int[n];
+      for (int i = 0; i < n; i++)
+      {
+         componentOfRoot[i] = -1;
+      }
+      for (int i = 0; i < n; i++)
+      {
+         int root = find(parent, i);
+         int c = componentOfRoot[root];
+         if (c < 0)
+         {
+            c = rtnList.size();
+            componentOfRoot[root] = c;
+            rtnList.add(new ArrayList<AuctionObjectShadow>());
+         }
+         rtnList.get(c).add(bids[i]);
+      }
+      return rtnList;
+   }
+
+   /**
+    * Union bid 'i' with the first bid that had the same key.
+    */
+   private static void join(
+      int[] parent,
+      Map<Long, Integer> firstByKey,
+      int i,
+      long keyType,
+      int id)
+   {
+      Long key = (keyType << 32) | (id & 0xFFFFFFFFL);
+      Integer first = firstByKey.get(key);
+      if (first == null)
+      {
+         firstByKey.put(key, i);
+         return;
+      }
+      int r1 = find(parent, first);
+      int r2 = find(parent, i);
+      if (r1 != r2)
+      {
+         // Keep the lower index as root so component order is stable.
+         if (r1 < r2)
+            parent[r2] = r1;
+         else
+            parent[r1] = r2;
+      }
+   }
+
+   /**
+    * Find the root of a bid's set, halving the path as we go.
+    */
+   private static int find(int[] parent, int i)
+   {
+      while (parent[i] != i)
+      {
+         parent[i] = parent[parent[i]];
+         i = parent[i];
+      }
+      return i;
+   }
+
+   /******************** Class members **************************/
+   private static final long SPOT_KEY = 1;
+   private static final long CAMPAIGN_KEY = 2;
+   private static final long BREAK_KEY = 3;
+}
@@ -0,0 +1,187 @@
+/**
+ * Part of a source code package originally written for the AdAuctionApp project.
+ * Intended for use as a programming work sample file only.  Not for distribution.
+ **/
+package AdAuctionApp.Auction;
+
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import AdAuctionApp.Cache.Central.AuctionObject;
+
+/**
+ * Keeps the competing bids (AuctionObjectShadows of pool AuctionObjects) and
+ * the per-avail bidder lists built for one auction, so the next auction of
+ * the same Auctioneer over the same date range can reuse them instead of
+ * allocating them again. A what-if session typically reruns the auction
+ * with only its toggles changed, and the pool's bidders then make up nearly
+ * all of the bids.
+ *
+ * A shadow is reused only for the very same pool AuctionObject, and is reset
+ * to its freshly created state first; shadows of AuctionObjects no longer in
+ * the pool are released at the end of each build, so only what differs is
+ * created. Changing the date range releases everything.
+ *
+ * The bids of the previous build are the Auctioneer's last auction results
+ * until the new auction completes, and callers may still be reading them.
+ * Each AuctionObject therefore has two shadows, used by alternate builds: a
+ * build only resets shadows last used two builds ago, never those of the
+ * previous build.
+ *
+ * The client's own bids, AuctionSpots and SegmentSets hold state tied to the
+ * client's current auction info, and are always created anew.
+ *
+ * This class is NOT thread safe.
+ */
+final class AuctionObjectArena
+{
+   /**
+    * Begin building the bids of an auction. Forgets everything held if the
+    * date range differs from that of the previous build.
+    *
+    * @param start Start date of the auction.
+    * @param end End date of the auction.
+    */
+   void begin(Calendar start, Calendar end)
+   {
+      long startMillis = start.getTimeInMillis();
+      long endMillis = end.getTimeInMillis();
+      if (startMillis != myStartMillis || endMillis != myEndMillis)
+      {
+         clear();
+         myStartMillis = startMillis;
+         myEndMillis = endMillis;
+      }
+      for (List<AuctionObjectShadow> bidders : myBiddersBySpotID.values())
+      {
+         bidders.clear();
+      }
+      myGeneration++;
+   }
+
+   /**
+    * Get the shadow of a pool AuctionObject for this build: the one from the
+    * build before the previous one, reset, if there is one; otherwise a new
+    * one.
+    *
+    * @param ao Pool AuctionObject.
+    * @param cpmThreshold CPM threshold of the Auctioneer.
+    * @return Shadow of the AuctionObject.
+    */
+   AuctionObjectShadow shadow(AuctionObject ao, int cpmThreshold)
+   {
+      Entry entry = myShadows.get(ao);
+      if (entry != null && entry.generation == myGeneration)
+      {
+         // Already handed out this build; bids are never shared.
+         return new AuctionObjectShadow(ao, cpmThreshold);
+      }
+      if (entry == null)
+      {
+         entry = new Entry(new AuctionObjectShadow(ao, cpmThreshold));
+         myShadows.put(ao, entry);
+      }
+      else
+      {
+         // The current shadow belongs to the previous build's results; hand
+         // out the spare one, and keep the current one as the spare.
+         AuctionObjectShadow previous = entry.shadow;
+         if (entry.spare == null)
+         {
+            entry.shadow = new AuctionObjectShadow(ao, cpmThreshold);
+         }
+         else
+         {
+            entry.shadow = entry.spare;
+            recycle(entry.shadow);
+         }
+         entry.spare = previous;
+      }
+      entry.generation = myGeneration;
+      myUsed++;
+      return entry.shadow;
+   }
+
+   /**
+    * @return Bidder lists by avail ID; lists of avails with no bid this build
+    *         are empty.
+    */
+   Map<Integer, List<AuctionObjectShadow>> biddersBySpotID()
+   {
+      return myBiddersBySpotID;
+   }
+
+   /**
+    * End a build: release the shadows not used by it.
+    */
+   void end()
+   {
+      if (myShadows.size() > myUsed)
+      {
+         for (Iterator<Entry> it = myShadows.values().iterator(); it.hasNext();)
+         {
+            if (it.next().generation != myGeneration)
+            {
+               it.remove();
+            }
+         }
+      }
+      myUsed = 0;
+   }
+
+   /**
+    * Release everything held.
+    */
+   void clear()
+   {
+      myShadows.clear();
+      myBiddersBySpotID.clear();
+      myStartMillis = Long.MIN_VALUE;
+      myEndMillis = Long.MIN_VALUE;
+   }
+
+   /**
+    * Put a shadow back into the state of a newly created one. It is given
+    * its avail, mirror partner and any disqualification again as the
+    * auction's bids are built.
+    */
+   private static void recycle(AuctionObjectShadow aos)
+   {
+      aos.resetValues();
+      aos.restoreCreativeIds();
+      aos.setMirroredPartnerBid(null);
+      aos.setIsPermanentlyDisqualified(false, AuctionStatus.IN_PLAY);
+      aos.auctionSpot = null;
+   }
+
+   /**
+    * The shadow handed out by the last build that used it, that build, and
+    * the shadow of an earlier build, if any.
+    */
+   private static final class Entry
+   {
+      Entry(AuctionObjectShadow shadow)
+      {
+         this.shadow = shadow;
+      }
+
+      AuctionObjectShadow shadow;
+      AuctionObjectShadow spare;
+      int generation;
+   }
+
+   /******************** Instance members **************************/
+   private final Map<AuctionObject, Entry> myShadows =
+      new IdentityHashMap<AuctionObject, Entry>();
+   private final Map<Integer, List<AuctionObjectShadow>> myBiddersBySpotID =
+      new HashMap<Integer, List<AuctionObjectShadow>>();
+   private long myStartMillis = Long.MIN_VALUE;
+   private long myEndMillis = Long.MIN_VALUE;
+   private int myGeneration = 0;
+   // AuctionObjects given shadows by the current build.
+   private int myUsed = 0;
+}
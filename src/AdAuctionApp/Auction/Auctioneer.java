@@ -7,18 +7,25 @@ package AdAuctionApp.Auction;
 import java.io.PrintWriter;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveTask;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.log4j.Logger;
@@ -117,6 +124,62 @@ public class Auctioneer implements AuctionResults
       myCurAuctionType = AuctionType.SINGLE;
    }
 
+   /**
+    * Constructor for a component auction: an auction over an independent
+    * subset of a parent auction's bids (see AuctionComponents). Shares the
+    * parent's configuration and bid objects, but keeps its own budget, spots,
+    * ranking and results, so that components may be auctioned concurrently.
+    * 
+    * @param parent Auctioneer whose auction data has been created.
+    * @param bids Bids of this component, in the parent's order.
+    */
+   private Auctioneer(Auctioneer parent, List<AuctionObjectShadow> bids)
+   {
+      myClient = parent.myClient;
+      myAuctionPool = parent.myAuctionPool;
+      myCampaignBuyId = parent.myCampaignBuyId;
+      myBudget = new AuctionBudget(myCampaignBuyId);
+      myAuctionSettings = parent.myAuctionSettings;
+      myAuctionWinMargin = parent.myAuctionWinMargin;
+      myEfficiencyThrPct = parent.myEfficiencyThrPct;
+      myCpmThreshold = parent.myCpmThreshold;
+      myRateCardDiscountsByOrg = parent.myRateCardDiscountsByOrg;
+      myRemainImprLowerThreshPct = parent.myRemainImprLowerThreshPct;
+      myForcePreviousWinCbCreative = parent.myForcePreviousWinCbCreative;
+      myPassList = parent.myPassList;
+      myCampaignBuyAuctionInfo = parent.myCampaignBuyAuctionInfo;
+      myCurToggles = parent.myCurToggles;
+      myUsedPriorities.addAll(parent.myUsedPriorities);
+      myStats = new AuctionStats(parent.myStatsID, myClient);
+      myCurAuctionType = parent.myCurAuctionType;
+      myLazyWinnerSelection = parent.myLazyWinnerSelection;
+      myDenseBudgetTallies = parent.myDenseBudgetTallies;
+      myBudget.setDenseTallies(myDenseBudgetTallies);
+
+      myAllAuctionObjects = bids.toArray(new AuctionObjectShadow[0]);
+      Map<SegmentSet, Boolean> ourSegments =
+         new IdentityHashMap<SegmentSet, Boolean>();
+      for (AuctionObjectShadow bid : myAllAuctionObjects)
+      {
+         AuctionSpot aSpot = bid.auctionSpot;
+         myAuctionSpots.put(aSpot.spot.id, aSpot);
+         if (aSpot.segmentSet != null)
+         {
+            ourSegments.put(aSpot.segmentSet, Boolean.TRUE);
+         }
+      }
+      // Keep the parent's SegmentSet order (used for tie-breaks when
+      // ordering segments in the last-resort pass).
+      mySegments = new ArrayList<SegmentSet>(ourSegments.size());
+      for (SegmentSet ss : parent.mySegments)
+      {
+         if (ourSegments.containsKey(ss))
+         {
+            mySegments.add(ss);
+         }
+      }
+   }
+
    /**
     * Identifying string for this auction. ID changes each time an auction is
     * run.
@@ -214,6 +277,42 @@ public class Auctioneer implements AuctionResults
       myDoSegmentDebug = doSegmentDebug;
    }
 
+   /**
+    * Set whether or not to print SegmentSet actions as they happen, rather
+    * than storing them. Takes effect with the next auction.
+    * 
+    * @param doOnTheFly if true, print SegmentSet actions on-the-fly; this
+    *        overrides the default (SegmentSet.setDebugOnTheFly()).
+    */
+   public void setSegmentDebugOnTheFly(boolean doOnTheFly)
+   {
+      mySegmentDebugOnTheFly = doOnTheFly;
+   }
+
+   /**
+    * Set which algorithm this Auctioneer uses to determine SegmentSet
+    * winners. Takes effect with the next auction.
+    * 
+    * @param algorithm Algorithm to use, or null to use the default
+    *        (SegmentSet.setWinAlgorithm()).
+    */
+   public void setSegmentWinAlgorithm(SegmentSet.WinMethod algorithm)
+   {
+      mySegmentWinAlgorithm = algorithm;
+   }
+
+   /**
+    * Set whether the COMPLEX SegmentSet algorithm reuses the winnable leading
+    * bids of a Combo from one trial to the next (see
+    * SegmentSet.setReuseComboTrials()). Takes effect with the next auction.
+    * 
+    * @param doReuse if true, reuse trials; this overrides the default.
+    */
+   public void setReuseSegmentComboTrials(boolean doReuse)
+   {
+      myReuseSegmentComboTrials = doReuse;
+   }
+
    /**
     * Set whether or not to debug the Segmentation of avails. This will turn
     * on/off the storing/dumping of SegmentSet actions.
@@ -233,6 +332,89 @@ public class Auctioneer implements AuctionResults
       }
    }
 
+   /**
+    * Set the number of threads used to assign CPMs to avails at the start
+    * of each auction pass. Each avail's CPM assignment only reads and writes
+    * the bids on that avail, so avails are split across a fork-join pool;
+    * results are identical to the sequential run.
+    * 
+    * @param parallelism Number of threads; 1 (the default) or less runs
+    *        CPM assignment sequentially on the auction thread.
+    */
+   public void setCpmParallelism(int parallelism)
+   {
+      myCpmParallelism = Math.max(1, parallelism);
+   }
+
+   /**
+    * Turn lazy winner selection on/off. When on, each auction pass pulls its
+    * candidates in rank order from a per-week heap instead of fully ranking
+    * them, and drops the remaining bids of buys whose campaign or buy budget
+    * is exhausted without checking them. Winners are unchanged, but the
+    * losing reason of a dropped bid is its exhausted budget, even if an
+    * earlier winner check would also have failed. Not used while segment
+    * debugging is on.
+    * 
+    * @param isLazy If true, use lazy winner selection. Default is false.
+    */
+   public void setLazyWinnerSelection(boolean isLazy)
+   {
+      myLazyWinnerSelection = isLazy;
+   }
+
+   /**
+    * Turn reuse of auction objects on/off. When on, the competing bids built
+    * for an auction, and the lists used to group them by avail, are kept and
+    * reset for the next auction over the same date range, rather than
+    * created again; only bids on AuctionObjects new to the pool are created.
+    * Saves garbage when the same grid is auctioned repeatedly (e.g., with
+    * different toggles). The client's own bids, avails and segments are
+    * always rebuilt.
+    * 
+    * Reused bids are the same objects an earlier auction returned through
+    * lastAuctionBids() and lastAuctionWinners(). The bids of the last
+    * auction are not reset while the next one runs, but those of the
+    * auction before it are reset and reused; copy any result that must
+    * outlive the next auction.
+    * 
+    * @param isReused If true, reuse auction objects. Default is false.
+    */
+   public synchronized void setReuseAuctionObjects(boolean isReused)
+   {
+      myAuctionObjectArena = (isReused ? new AuctionObjectArena() : null);
+   }
+
+   /**
+    * Turn dense budget tallies on/off. When on, the campaign, buy, weekly and
+    * daily totals checked for each candidate winner are kept in flat arrays
+    * instead of the per-campaign tally maps, and the tally objects are only
+    * brought up to date when budget results are reported.
+    * 
+    * @param isDense If true, use dense budget tallies. Default is true.
+    */
+   public void setDenseBudgetTallies(boolean isDense)
+   {
+      myDenseBudgetTallies = isDense;
+      myBudget.setDenseTallies(isDense);
+   }
+
+   /**
+    * Set the number of threads used to auction independent components of the
+    * bid pool. When greater than 1, each auction partitions its bids into
+    * components that share no avails, campaigns, breaks, mirrors or
+    * SegmentSets, runs the auction passes for the components concurrently,
+    * and merges their winners into this Auctioneer's results. Component
+    * auctions are not used while segment debugging, segment stats or pass
+    * snapshots are on, since those are gathered in shared structures.
+    * 
+    * @param parallelism Number of threads; 1 (the default) or less auctions
+    *        all bids together on the auction thread.
+    */
+   public void setComponentParallelism(int parallelism)
+   {
+      myComponentParallelism = Math.max(1, parallelism);
+   }
+
    /**
     * Get a copy of the list of SegmentSet built during the last auction.
     * Synchronized to prevent doing this in the middle of an auction.
@@ -439,6 +621,162 @@ public class Auctioneer implements AuctionResults
       createAuctioningData(myClient.auctionDateRange());
    }
 
+   /**
+    * Forget the data built for the GREENFIELD auction just run, so that a
+    * following BASELINE auction rebuilds it from the client. A client must
+    * call this when anything auctioned, other than its baseline efficiency,
+    * may have changed since the GREENFIELD auction began: its avails, their
+    * creatives, or anything else copied into its auction info.
+    */
+   public synchronized void discardGreenfieldData()
+   {
+      myGreenfieldRange = null;
+   }
+
+   /**
+    * Prepare the data built for the GREENFIELD auction just run to be
+    * auctioned again: pick up the client's new baseline efficiency,
+    * recalculate the competing bids' CPM values, and reset the winners of the
+    * previous auction. The bidders, avails, segment sets and mirror pairs are
+    * kept; the budget and bid columns are built again over them. Only done
+    * if the client has not discarded the data (see discardGreenfieldData()),
+    * the date range and toggles are unchanged, the pool still holds the same
+    * competing bids and active buys, the client's buy terms are unchanged
+    * (see hasSameBuyTerms()), and segment debugging and stats (which record
+    * the data's construction) are off.
+    * 
+    * The client's auction info is fetched again, as setDateRange() would.
+    * Since nothing but the baseline efficiency can differ from the info the
+    * data was built with, that value is copied into the attached info,
+    * rather than attaching the new info to every grid bid.
+    * 
+    * @return true if the data was reused; false if it must be rebuilt.
+    */
+   private boolean reuseGreenfieldData()
+   {
+      DateRange dr = myClient.auctionDateRange();
+      if (myGreenfieldRange == null || myDoSegmentDebug
+         || mySegmentStats != null
+         || dr.startDate().getTimeInMillis() != myGreenfieldRange.startDate()
+            .getTimeInMillis()
+         || dr.endDate().getTimeInMillis() != myGreenfieldRange.endDate()
+            .getTimeInMillis())
+      {
+         return false;
+      }
+      AuctionViewToggles toggles = myClient.auctionConstraints();
+      CampaignBuyAuctionInfo info = myClient.auctionInfo();
+      if (toggles == null || !toggles.equals(myCurToggles) || info == null
+         || !hasSameBuyTerms(info, myCampaignBuyAuctionInfo)
+         || !sameElements(myAuctionPool.getAuctionBidders(dr.startDate(),
+            dr.endDate()), myPoolBidders)
+         || !sameElements(myAuctionPool.getAllActiveCampaignBuys(), myPoolBuys))
+      {
+         return false;
+      }
+      // Our bids, and the budget, refer to the buy info the data was built
+      // with; give it the new baseline efficiency, the only value of the new
+      // info that can differ.
+      myCampaignBuyAuctionInfo.baselineEfficiency = info.baselineEfficiency;
+      myStats.setToggles(myCurToggles);
+
+      // Pull the most up-to-date CPM values, as a rebuild would.
+      for (CampaignBuyAuctionInfo cb : myPoolBuys)
+      {
+         cb.recalculateDerivedCpm(myRemainImprLowerThreshPct);
+      }
+      for (AuctionObject ao : myPoolBidders)
+      {
+         if (ao.campaignBuy.campaignBuyID != myCampaignBuyId)
+         {
+            ao.calculate();
+         }
+      }
+
+      // The results of the last auction held our bids.
+      myAllAuctionObjects = myLastAuctionBids;
+      createAuctionSpendingData();
+      createBidColumns();
+
+      clearSnapshots();
+      myNumWinners = 0;
+      for (AuctionSpot aSpot : myAuctionSpotArray)
+      {
+         aSpot.winner = null;
+      }
+      for (SegmentSet segSet : mySegments)
+      {
+         segSet.resetWinners();
+      }
+      myStats.timestamp("REUSED-AUCTION-DATA");
+      return true;
+   }
+
+   /**
+    * Compare the terms of a buy that the auction reads: identity, limits,
+    * to-date totals, CPMs and priority. The client's avails, creatives and
+    * placement data are not compared (see discardGreenfieldData()), nor is
+    * the baseline efficiency.
+    * 
+    * @param info1 Buy info.
+    * @param info2 Buy info.
+    * @return true if the terms are the same.
+    */
+   private static boolean hasSameBuyTerms(
+      CampaignBuyAuctionInfo info1,
+      CampaignBuyAuctionInfo info2)
+   {
+      return (info1.campaignBuyID == info2.campaignBuyID
+         && info1.campaignID == info2.campaignID
+         && info1.mediaBuyType == info2.mediaBuyType
+         && info1.auctionPriority == info2.auctionPriority
+         && info1.isPriorityExclusive == info2.isPriorityExclusive
+         && sameValue(info1.effectiveDailyRemainingSpendingLimit,
+            info2.effectiveDailyRemainingSpendingLimit)
+         && sameValue(info1.effectiveSpendingLimit, info2.effectiveSpendingLimit)
+         && sameValue(info1.effectiveCampaignSpendingLimit,
+            info2.effectiveCampaignSpendingLimit)
+         && sameValue(info1.effectiveDailyRemainingImpressionLimit,
+            info2.effectiveDailyRemainingImpressionLimit)
+         && sameValue(info1.effectiveImpressionLimit,
+            info2.effectiveImpressionLimit)
+         && sameValue(info1.effectiveCampaignImpressionLimit,
+            info2.effectiveCampaignImpressionLimit)
+         && sameValue(info1.currentSpending, info2.currentSpending)
+         && sameValue(info1.currentImpressions, info2.currentImpressions)
+         && sameValue(info1.currentCampaignSpending,
+            info2.currentCampaignSpending)
+         && sameValue(info1.currentCampaignImpressions,
+            info2.currentCampaignImpressions)
+         && sameValue(info1.derivedCpm, info2.derivedCpm)
+         && sameValue(info1.targetCPM, info2.targetCPM));
+   }
+
+   private static boolean sameValue(Object v1, Object v2)
+   {
+      return (v1 == null ? v2 == null : v1.equals(v2));
+   }
+
+   /**
+    * @return true if both lists hold the very same objects, in the same
+    *         order.
+    */
+   private static boolean sameElements(List<?> list1, List<?> list2)
+   {
+      if (list1.size() != list2.size())
+      {
+         return false;
+      }
+      for (int i = 0; i < list1.size(); i++)
+      {
+         if (list1.get(i) != list2.get(i))
+         {
+            return false;
+         }
+      }
+      return true;
+   }
+
    /********************************************************
     * INITIALIZATION SECTION
     ********************************************************/
@@ -505,19 +843,35 @@ public class Auctioneer implements AuctionResults
       // that have passed creative rotation, creative language & placement
       // validation.
       Map<Integer, SpotShadow> ourGridSpots = myClient.getSpotMap();
-      Map<Integer, List<AuctionObjectShadow>> bidderListBySpotID =
-         new HashMap<Integer, List<AuctionObjectShadow>>();
-      List<AuctionObjectShadow> auctionObjs =
-         new LinkedList<AuctionObjectShadow>();
-      List<GridAuctionObject> gridAuctionObjs =
-         new LinkedList<GridAuctionObject>();
-
       List<AuctionObject> allBiddersList =
          myAuctionPool.getAuctionBidders(start, end);
+      myPoolBidders = allBiddersList;
+
+      // Competing bids, and the bidder lists, may be kept from the last
+      // auction (see setReuseAuctionObjects()).
+      AuctionObjectArena arena = myAuctionObjectArena;
+      Map<Integer, List<AuctionObjectShadow>> bidderListBySpotID;
+      if (arena != null)
+      {
+         arena.begin(start, end);
+         bidderListBySpotID = arena.biddersBySpotID();
+      }
+      else
+      {
+         bidderListBySpotID = new HashMap<Integer, List<AuctionObjectShadow>>();
+      }
+      List<AuctionObjectShadow> auctionObjs =
+         new ArrayList<AuctionObjectShadow>(allBiddersList.size()
+            + ourGridSpots.size());
+      List<GridAuctionObject> gridAuctionObjs =
+         new ArrayList<GridAuctionObject>(ourGridSpots.size());
       myCompetitorsByBuyId.clear();
       myUsedPriorities.clear();
       clearSnapshots();
       mySegments.clear();
+      mySegmentContext =
+         SegmentSet.newContext(mySegmentWinAlgorithm,
+            myReuseSegmentComboTrials, mySegmentDebugOnTheFly);
       myAuctionSpots.clear();
       myNumWinners = 0;
 
@@ -529,25 +883,13 @@ public class Auctioneer implements AuctionResults
       // First, recalculate all buys' derived CPM values using the current
       // system impression lower threshold parameter. Also, record used
       // priorities.
-      for (CampaignBuyAuctionInfo cb : myAuctionPool.getAllActiveCampaignBuys())
+      List<CampaignBuyAuctionInfo> activeBuys =
+         myAuctionPool.getAllActiveCampaignBuys();
+      myPoolBuys = activeBuys;
+      for (CampaignBuyAuctionInfo cb : activeBuys)
       {
          cb.recalculateDerivedCpm(myRemainImprLowerThreshPct);
-         // Add our priority to the set of used priorities.
-         myUsedPriorities.add(cb.auctionPriority);
-         // If the buy is non-exclusive, bids can "fall through" from
-         // higher priorities to lower. In this case, all the subsequent
-         // priorities are potentially also used.
-         if (!cb.isPriorityExclusive)
-         {
-            for (AuctionPass pass : myPassList)
-            {
-               int pri = pass.priority();
-               if (pri > cb.auctionPriority)
-               {
-                  myUsedPriorities.add(pri);
-               }
-            }
-         }
+         addUsedPriorities(cb);
       }
 
       // Add client priority to our priority map.
@@ -577,7 +919,8 @@ public class Auctioneer implements AuctionResults
          // Add it to lists of all bids for the spot and of all auction
          // participants.
          AuctionObjectShadow AO_shadow =
-            new AuctionObjectShadow(ao, myCpmThreshold);
+            (arena != null ? arena.shadow(ao, myCpmThreshold)
+               : new AuctionObjectShadow(ao, myCpmThreshold));
 
          addAOShadow(bidderListBySpotID, auctionObjs, AO_shadow);
 
@@ -608,6 +951,10 @@ public class Auctioneer implements AuctionResults
          // aren't any creatives remaining for the bid.
          pruneCreatives(AO_shadow);
       }
+      if (arena != null)
+      {
+         arena.end();
+      }
       // 
       // Now create bidders from our grid's own spot shadows.
       //
@@ -639,6 +986,11 @@ public class Auctioneer implements AuctionResults
       Map<Integer, SegmentSet> segmentSetMap = new HashMap<Integer, SegmentSet>();
       for (Map.Entry<Integer, List<AuctionObjectShadow>> entry : bidderListBySpotID.entrySet())
       {
+         if (entry.getValue().isEmpty())
+         {
+            // Kept from an earlier auction, but has no bidders now.
+            continue;
+         }
          int spotID = entry.getKey();
          Spot s = myAuctionPool.getSpotEntryById(spotID);
          AuctionSpot auctionSpot = new AuctionSpot(s);
@@ -674,6 +1026,56 @@ public class Auctioneer implements AuctionResults
       {
          segSet.optimizeArrays();
       }
+
+      // Build the columnar copy of the bids used by the auction passes.
+      createBidColumns();
+   }
+
+   /**
+    * Record the auction priorities a buy's bids may be auctioned in as used.
+    * 
+    * @param cb Active buy.
+    */
+   private void addUsedPriorities(CampaignBuyAuctionInfo cb)
+   {
+      // Add our priority to the set of used priorities.
+      myUsedPriorities.add(cb.auctionPriority);
+      // If the buy is non-exclusive, bids can "fall through" from
+      // higher priorities to lower. In this case, all the subsequent
+      // priorities are potentially also used.
+      if (!cb.isPriorityExclusive)
+      {
+         for (AuctionPass pass : myPassList)
+         {
+            int pri = pass.priority();
+            if (pri > cb.auctionPriority)
+            {
+               myUsedPriorities.add(pri);
+            }
+         }
+      }
+   }
+
+   /**
+    * Create the columnar (struct-of-arrays) copy of all bids, plus the
+    * per-avail column indexes used when assigning CPMs. Assumes
+    * myAllAuctionObjects and myAuctionSpots have been built.
+    */
+   private void createBidColumns()
+   {
+      myAuctionSpotArray =
+         myAuctionSpots.values().toArray(new AuctionSpot[0]);
+      myBidColumns = new BidColumns(myAllAuctionObjects);
+      myInPlayBids = new InPlayBids(myBidColumns);
+      myLazyWinnerQueue = new LazyWinnerQueue(myBidColumns, myBudget);
+      mySpotBidColumns.clear();
+      Map<AuctionObjectShadow, Integer> indexMap =
+         myBidColumns.createColumnIndexMap();
+      for (AuctionSpot aSpot : myAuctionSpots.values())
+      {
+         mySpotBidColumns.put(aSpot.spot.id,
+            BidColumns.toColumnIndexes(aSpot.bidders, indexMap));
+      }
    }
 
    /**
@@ -692,7 +1094,7 @@ public class Auctioneer implements AuctionResults
       List<AuctionObjectShadow> spotBidderList = bySpotMap.get(spotID);
       if (spotBidderList == null)
       {
-         spotBidderList = new LinkedList<AuctionObjectShadow>();
+         spotBidderList = new ArrayList<AuctionObjectShadow>();
          bySpotMap.put(spotID, spotBidderList);
       }
       spotBidderList.add(aos);
@@ -725,7 +1127,24 @@ public class Auctioneer implements AuctionResults
          }
          return;
       }
-      // We have a partner avail. For each bidder on this avail...
+      // We have a partner avail. Index its bidders by buy: each key holds
+      // the buy ID in its high half and the bidder's position in its low
+      // half, so once sorted, each buy's bidders are together and in order.
+      AuctionObjectShadow[] partnerBids = partnerAvail.bidders;
+      int partnerCount = partnerBids.length;
+      if (myMirrorKeys.length < partnerCount)
+      {
+         myMirrorKeys = new long[partnerCount];
+      }
+      long[] keys = myMirrorKeys;
+      for (int i = 0; i < partnerCount; i++)
+      {
+         int buyID = partnerBids[i].auctionObj.campaignBuy.campaignBuyID;
+         keys[i] = mirrorKey(buyID, i);
+      }
+      Arrays.sort(keys, 0, partnerCount);
+
+      // For each bidder on this avail...
       for (AuctionObjectShadow argBid : availArg.bidders)
       {
          if (argBid.mirroredPartnerBid() != null)
@@ -734,29 +1153,29 @@ public class Auctioneer implements AuctionResults
             continue;
          }
          int priBuyID = argBid.auctionObj.campaignBuy.campaignBuyID;
-         // Find the matching bid by the same buy on the mirrored spot.
+         // Find the first bid by the same buy on the mirrored spot.
          boolean foundPartner = false;
          AuctionStatus losingReason = AuctionStatus.MIRRORED_SIBLING_BID_ORPHAN;
-         for (AuctionObjectShadow partnerBid : partnerAvail.bidders)
+         int k = firstMirrorKey(keys, partnerCount, priBuyID);
+         if (k < partnerCount && (int) (keys[k] >> 32) == priBuyID)
          {
-            if (priBuyID == partnerBid.auctionObj.campaignBuy.campaignBuyID)
+            // Found the mirror partner bid for same buy!
+            AuctionObjectShadow partnerBid = partnerBids[(int) keys[k]];
+            // Make sure mirrored bid pair have creatives in common.
+            if (!bidsHaveCommonCreatives(partnerBid, argBid))
+            {
+               // Set partner status here. The argument's bid status will be
+               // set below.
+               losingReason = AuctionStatus.MIRRORED_BID_CREATIVES_PRUNED;
+               partnerBid.setIsPermanentlyDisqualified(true,
+                  AuctionStatus.MIRRORED_BID_CREATIVES_PRUNED);
+            }
+            else
             {
-               // Found the mirror partner bid for same buy!
-               // Make sure mirrored bid pair have creatives in common.
-               if (!bidsHaveCommonCreatives(partnerBid, argBid))
-               {
-                  // Set partner status here. The argument's bid status will be
-                  // set below.
-                  losingReason = AuctionStatus.MIRRORED_BID_CREATIVES_PRUNED;
-                  partnerBid.setIsPermanentlyDisqualified(true,
-                     AuctionStatus.MIRRORED_BID_CREATIVES_PRUNED);
-                  break;
-               }
                // Happy path! Set each bid to be the other's mirrored partner.
                argBid.setMirroredPartnerBid(partnerBid);
                partnerBid.setMirroredPartnerBid(argBid);
                foundPartner = true;
-               break;
             }
          }
          // if didn't find valid partner (with creatives), mark bid as lost.
@@ -767,6 +1186,41 @@ public class Auctioneer implements AuctionResults
       }
    }
 
+   /**
+    * @return Key of a bidder of a mirrored avail, for matchMirroredBids().
+    */
+   private static long mirrorKey(int buyID, int position)
+   {
+      return (((long) buyID) << 32) | position;
+   }
+
+   /**
+    * @param keys Sorted keys (see mirrorKey()).
+    * @param count Number of keys.
+    * @param buyID Buy to find.
+    * @return Position of the first key of a buy's bidders, or of the first
+    *         key after where they would be.
+    */
+   private static int firstMirrorKey(long[] keys, int count, int buyID)
+   {
+      long target = mirrorKey(buyID, 0);
+      int low = 0;
+      int high = count;
+      while (low < high)
+      {
+         int mid = (low + high) >>> 1;
+         if (keys[mid] < target)
+         {
+            low = mid + 1;
+         }
+         else
+         {
+            high = mid;
+         }
+      }
+      return low;
+   }
+
    /**
     * Make sure, in a pair of mirrored bids, there are creatives they have in
     * common, to allow the bids to participate in the auction at all. This
@@ -819,8 +1273,8 @@ public class Auctioneer implements AuctionResults
       {
          Spot root = myAuctionPool.getSpotEntryById(segRootID);
          segSet =
-            new SegmentSet(root, (myDoSegmentDebug ? mySegmentDebugActions
-               : null), mySegmentStats);
+            new SegmentSet(root, (myDoSegmentDebug ? mySegmentDebugRing
+               : null), mySegmentStats, mySegmentContext);
          segSet.setAllowsPartialWins(myAuctionSettings
             .allowPartialSegmentWins(s.breakView.orgId));
          segmentSetMap.put(segRootID, segSet);
@@ -971,9 +1425,31 @@ public class Auctioneer implements AuctionResults
       resetStats(aType);
       startStatsTiming();
 
-      setDateRange();
+      // The BASELINE auction only differs from the GREENFIELD auction just
+      // run by the client's baseline efficiency, so it can reuse its data.
+      if (aType != AuctionType.BASELINE || !reuseGreenfieldData())
+      {
+         setDateRange();
+      }
+      myGreenfieldRange =
+         (aType == AuctionType.GREENFIELD ? myClient.auctionDateRange() : null);
 
-      doAuction();
+      if (myCpmParallelism > 1)
+      {
+         myCpmPool = new ForkJoinPool(myCpmParallelism);
+      }
+      try
+      {
+         doAuction();
+      }
+      finally
+      {
+         if (myCpmPool != null)
+         {
+            myCpmPool.shutdown();
+            myCpmPool = null;
+         }
+      }
 
       endStatsTiming();
    }
@@ -988,9 +1464,31 @@ public class Auctioneer implements AuctionResults
       resetAuctionValues();
       recalculateGridValues(myCurToggles);
 
+      if (canRunComponentAuction())
+      {
+         doComponentAuction();
+      }
+      else
+      {
+         runAuctionPasses();
+      }
+
+      // Set the results for querying.
+      setAuctionResults();
+   }
+
+   /**
+    * Run the preassignment pass, each auction pass and post-auction marking
+    * over this Auctioneer's bids. Assumes all auction values have been reset.
+    */
+   private void runAuctionPasses()
+   {
       // Set any pre-assigned winners.
       handlePreassignedWinners(AuctionPass.PREASSIGN_WINNER_PASS);
 
+      // All bids start in play; this also picks up preassigned winner costs.
+      myInPlayBids.reset();
+
       // Run each pass of the auction
       for (AuctionPass pass : myPassList)
       {
@@ -1009,9 +1507,166 @@ public class Auctioneer implements AuctionResults
 
       // Done. Mark bids that did not participate, for debugging.
       markNonparticipants(AuctionPass.POST_AUCTION_PASS);
+   }
 
-      // Set the results for querying.
-      setAuctionResults();
+   /**
+    * @return true if this auction should be run as concurrent independent
+    *         component auctions.
+    */
+   private boolean canRunComponentAuction()
+   {
+      // Segment debugging/stats and snapshots are gathered in structures
+      // shared by all bids; auction serially if they are on.
+      return (myComponentParallelism > 1 && !myDoSegmentDebug
+         && mySegmentStats == null && !mySnapshotEachPass);
+   }
+
+   /**
+    * Auction independent components of the bid pool concurrently, then merge
+    * their winners into our results and budget tallies. Since components
+    * share no auction state, each component's winners are exactly those it
+    * would win in a single auction over all bids.
+    */
+   private void doComponentAuction()
+   {
+      final List<Auctioneer> parts = createComponentAuctioneers();
+      myStats.timestamp("CREATED-" + parts.size() + "-COMPONENTS");
+
+      List<Callable<Object>> tasks = new ArrayList<Callable<Object>>(parts.size());
+      for (final Auctioneer part : parts)
+      {
+         tasks.add(new Callable<Object>()
+         {
+            public Object call()
+            {
+               part.doComponentPasses();
+               return null;
+            }
+         });
+      }
+      ForkJoinPool pool = new ForkJoinPool(myComponentParallelism);
+      try
+      {
+         for (Future<Object> result : pool.invokeAll(tasks))
+         {
+            result.get();
+         }
+      }
+      catch (InterruptedException e)
+      {
+         Thread.currentThread().interrupt();
+         throw new IllegalStateException("Component auction interrupted", e);
+      }
+      catch (ExecutionException e)
+      {
+         throw new IllegalStateException("Component auction failed", e.getCause());
+      }
+      finally
+      {
+         pool.shutdown();
+      }
+      myStats.timestamp("AUCTIONED-COMPONENTS");
+
+      // Merge: replay each component's winners into our budget, so our
+      // tallies and results cover the whole auction.
+      for (Auctioneer part : parts)
+      {
+         for (AuctionObjectShadow winner : part.myLastWinners)
+         {
+            myBudget.addToWinnerBudgetTotals(winner);
+            myBudget.addToWinnerContentTotals(winner, false);
+            myLastWinners.add(winner);
+            myStats.updateWithWinner(winner);
+         }
+         myStats.zeroViewerSpots += part.myStats.zeroViewerSpots;
+      }
+      myStats.timestamp("MERGED-COMPONENTS");
+   }
+
+   /**
+    * Partition our bids into independent components and create a component
+    * Auctioneer for each group of them. Small components are packed together
+    * (a union of independent components is still independent) so we create
+    * a few groups per thread rather than one Auctioneer per component.
+    * Preassigned winners are handed to the group that owns their avail.
+    * 
+    * @return List of component Auctioneers.
+    */
+   private List<Auctioneer> createComponentAuctioneers()
+   {
+      List<List<AuctionObjectShadow>> components =
+         AuctionComponents.partition(myAllAuctionObjects);
+
+      // Pack components into groups, largest first onto the smallest group.
+      int groupCount =
+         Math.min(components.size(), myComponentParallelism * COMPONENT_GROUPS_PER_THREAD);
+      List<List<AuctionObjectShadow>> groups =
+         new ArrayList<List<AuctionObjectShadow>>(groupCount);
+      for (int i = 0; i < groupCount; i++)
+      {
+         groups.add(new ArrayList<AuctionObjectShadow>());
+      }
+      List<List<AuctionObjectShadow>> bySize =
+         new ArrayList<List<AuctionObjectShadow>>(components);
+      Collections.sort(bySize, new Comparator<List<AuctionObjectShadow>>()
+      {
+         public int compare(
+            List<AuctionObjectShadow> c1,
+            List<AuctionObjectShadow> c2)
+         {
+            return c2.size() - c1.size();
+         }
+      });
+      for (List<AuctionObjectShadow> component : bySize)
+      {
+         List<AuctionObjectShadow> smallest = groups.get(0);
+         for (List<AuctionObjectShadow> group : groups)
+         {
+            if (group.size() < smallest.size())
+               smallest = group;
+         }
+         smallest.addAll(component);
+      }
+
+      List<Auctioneer> rtnList = new ArrayList<Auctioneer>(groupCount);
+      Map<Integer, Auctioneer> partsBySpotID = new HashMap<Integer, Auctioneer>();
+      for (List<AuctionObjectShadow> group : groups)
+      {
+         Auctioneer part = new Auctioneer(this, group);
+         rtnList.add(part);
+         for (Integer spotID : part.myAuctionSpots.keySet())
+         {
+            partsBySpotID.put(spotID, part);
+         }
+      }
+      for (PreassignedWinner preWin : myPreassignedWinners)
+      {
+         Auctioneer part = partsBySpotID.get(preWin.availID());
+         if (part != null)
+         {
+            part.myPreassignedWinners.add(preWin);
+         }
+         else if (isRealAuction())
+         {
+            // Avail is not in our auction pool.
+            preWin.setAssignStatus(AssignStatus.INVALID_AVAIL);
+            logPreassignedError(preWin);
+         }
+      }
+      return rtnList;
+   }
+
+   /**
+    * Run the auction for a component Auctioneer: set up its budget and bid
+    * columns, and run all passes. Results are left in myLastWinners for the
+    * parent to merge. Bid values have already been reset by the parent.
+    */
+   private void doComponentPasses()
+   {
+      myBudget.initBudget(myAllAuctionObjects);
+      myBudget.resetAuctionBudgetValues();
+      createBidColumns();
+      runAuctionPasses();
    }
 
    /**
@@ -1023,13 +1678,20 @@ public class Auctioneer implements AuctionResults
     */
    private void doSingleAuctionPass(AuctionPass pass)
    {
+      // Drop bids that lost for good in earlier passes (unless debugging,
+      // which reports on every bid), and pick up costs set by the previous
+      // pass.
+      boolean candidatesOnly = !isSegmentDebugOn();
+      if (candidatesOnly)
+      {
+         myInPlayBids.prune();
+      }
+      myInPlayBids.refresh();
+
       //
       // STEP 1: ASSIGN CPM to all bidders of
       // each auctionable spot...
-      for (AuctionSpot aSpot : myAuctionSpots.values())
-      {
-         assignCpm(aSpot, pass);
-      }
+      assignAllCpms(pass);
       myStats.timestamp("CPMs-ASSIGNED-Pass-#" + pass.name());
 
       //
@@ -1037,8 +1699,49 @@ public class Auctioneer implements AuctionResults
       // We order entire bid list (instead of ordering per spot).
       // This gives clients the opportunity to win their highest-ranked
       // spots FIRST, rather than eating up their budget on lower spots.
-      List<AuctionObjectShadow> list2 =
-         rankBidders(myAllAuctionObjects, RANK_WINNER_DESC_COMPARATOR);
+      // Ranking is done over the bid columns, since assignCpm has just
+      // changed auction costs: only bids whose costs changed are re-sorted.
+      // Bids that cannot win this pass (not IN_PLAY, or not qualified for
+      // this pass) follow the ranked candidates and are not visited.
+      // In lazy mode, candidates are instead pulled in rank order from a
+      // queue, which drops the bids of exhausted buys as it goes.
+      myInPlayBids.refresh();
+      LazyWinnerQueue lazyQueue =
+         (myLazyWinnerSelection && candidatesOnly ? myLazyWinnerQueue : null);
+      if (lazyQueue == null)
+      {
+         myInPlayBids.rank();
+      }
+      int candidateCount = myInPlayBids.createPassOrder(candidatesOnly);
+      int[] passOrder = myInPlayBids.passOrder();
+      // Record where each bid is in the ranked list for logging.
+      // (The lazy queue numbers candidates as it hands them out.)
+      int firstIndexed = (lazyQueue == null ? 0 : candidateCount);
+      for (int index = firstIndexed; index < passOrder.length; index++)
+      {
+         myBidColumns.bid(passOrder[index]).biddingIndex = index;
+      }
+      List<AuctionObjectShadow> list2;
+      if (lazyQueue == null)
+      {
+         list2 = myBidColumns.asList(passOrder, candidateCount);
+      }
+      else
+      {
+         lazyQueue.load(passOrder, candidateCount, myCurToggles);
+         list2 = lazyQueue.asList();
+      }
+      // Index the candidates that can fulfill channel bundling requirements.
+      // (Indexing a lazy list would pull every candidate, so a lazy pass
+      // looks ahead by scanning it instead.)
+      if (lazyQueue == null)
+      {
+         myBundlingIndex.load(list2, isRealAuction());
+      }
+      else
+      {
+         myBundlingIndex.clear();
+      }
 
       // The segmented avails contain ranked lists that are sorted
       // by rank & cost. Since the cost may have changed due to
@@ -1047,21 +1750,31 @@ public class Auctioneer implements AuctionResults
 
       for (int index = 0; index < list2.size(); index++)
       {
-         // Record where this bid is in the ranked list for logging.
-         AuctionObjectShadow bid = list2.get(index);
-         bid.biddingIndex = index;
+         int col = (lazyQueue == null ? passOrder[index] : lazyQueue.columnAt(index));
+         AuctionObjectShadow bid = myBidColumns.bid(col);
 
          // First, skip over any bids that have already won in a prior pass
          if (bid.auctionState == AuctionStatus.WINNER)
          {
             continue;
          }
+         // Out-of-program bids (simulated auctions only) can never
+         // participate; don't bother with the full winner checks.
+         if (!myBidColumns.isInProgram(col))
+         {
+            setAuctionDebugAction(bid, false);
+            continue;
+         }
 
          // Second, check all our winner qualifications.
          if (!canBeWinner(bid, pass))
          {
             // Add some debug info if debugging is turned on.
             setAuctionDebugAction(bid, false);
+            if (lazyQueue != null)
+            {
+               lazyQueue.bidLost(col);
+            }
             continue;
          }
          // We (probably) have a winner.
@@ -1072,43 +1785,90 @@ public class Auctioneer implements AuctionResults
          handleWinner(list2, bid, pass);
 
          // handleWinner() could have applied conditional totals
-         // so we need to check again here.
-         // Yes, we check for conditional totals in setAsWinner()
-         // but this bid may not have won due to segmentation,
-         // mirroring or bundling.
-         logErrorIfHasConditionalTotals(bid);
+         // (segmentation, mirroring or bundling); all of them must
+         // have been unrolled by now.
+         checkNoConditionalTotals();
       }
 
+      myBundlingIndex.clear();
+
       // Perform tasks associated with the end of pass.
       auctionPassComplete(pass);
 
       myStats.timestamp("WINs-ASSIGNED-Pass-#" + pass.name());
    }
 
+   /**
+    * Assign CPM values to the bidders of all auctionable spots, either
+    * sequentially or, if a CPM parallelism level has been set, split across
+    * the CPM fork-join pool.
+    * 
+    * @param pass Which pass is being executed.
+    */
+   private void assignAllCpms(AuctionPass pass)
+   {
+      int zeroViewerSpots;
+      if (myCpmPool == null || myAuctionSpotArray.length < CPM_TASK_SPOT_COUNT * 2)
+      {
+         zeroViewerSpots = assignCpms(0, myAuctionSpotArray.length, pass);
+      }
+      else
+      {
+         zeroViewerSpots =
+            myCpmPool.invoke(new AssignCpmTask(0, myAuctionSpotArray.length, pass));
+      }
+      myStats.zeroViewerSpots += zeroViewerSpots;
+   }
+
+   /**
+    * Assign CPM values to the bidders of a range of spots in
+    * myAuctionSpotArray. Thread safe with respect to other, non-overlapping
+    * ranges.
+    * 
+    * @param from Index of first spot.
+    * @param to Index past last spot.
+    * @param pass Which pass is being executed.
+    * @return Number of spots with no viewers.
+    */
+   private int assignCpms(int from, int to, AuctionPass pass)
+   {
+      int zeroViewerSpots = 0;
+      for (int i = from; i < to; i++)
+      {
+         if (!assignCpm(myAuctionSpotArray[i], pass))
+         {
+            zeroViewerSpots++;
+         }
+      }
+      return zeroViewerSpots;
+   }
+
    /**
     * Assign a CPM value to each bidder of an AuctionSpot. Implements the first
-    * step of the Auction algorithm.
+    * step of the Auction algorithm. Only reads and writes the bids on this
+    * avail, so may be run concurrently for different avails.
     * 
     * @param aSpot AuctionSpot to be processed.
     * @param pass Which pass is being executed.
+    * @return false if the spot has no viewers, true otherwise.
     */
-   private void assignCpm(AuctionSpot aSpot, AuctionPass pass)
+   private boolean assignCpm(AuctionSpot aSpot, AuctionPass pass)
    {
       // PRE-CPM: If no viewers, don't bother with this spot at all.
       if (!anyImpressionsPasses(aSpot))
       {
-         return;
+         return false;
       }
       // PRE-CPM: If the spot already won on a prior pass, bail out.
       if (aSpot.winner != null)
       {
-         return;
+         return true;
       }
       // PRE-CPM: If this is in a Segment that has already found winner(s),
       // ignore.
       if (aSpot.segmentSet != null && aSpot.segmentSet.foundWinner())
       {
-         return;
+         return true;
       }
       // CPM Setup
       // Initial bid is policy price plus navic commission for this pass.
@@ -1119,14 +1879,15 @@ public class Auctioneer implements AuctionResults
          AuctionUtils.calculateCPM(s.totalADViews, minBidPrice);
 
       // STEP 1a: Order the bidders for this spot by rank.
-      List<AuctionObjectShadow> bidList =
-         rankBidders(aSpot.bidders, RANK_ASCEND_COMPARATOR);
+      int[] bidCols = mySpotBidColumns.get(s.id);
+      myBidColumns.rankAscending(bidCols);
 
       // STEP 1b: Assign CPM to each bidder on this spot
       float curBidCpm = minAvailCpm;
       AuctionObjectShadow lastBid = null;
-      for (AuctionObjectShadow bid : bidList)
+      for (int col : bidCols)
       {
+         AuctionObjectShadow bid = myBidColumns.bid(col);
          // Record min bid value for logging.
          bid.lastMinBidPrice = minBidPrice;
 
@@ -1172,6 +1933,7 @@ public class Auctioneer implements AuctionResults
          }
          lastBid = bid;
       }
+      return true;
    }
 
    /**
@@ -1186,11 +1948,6 @@ public class Auctioneer implements AuctionResults
     */
    public boolean canBeWinner(AuctionObjectShadow bid, AuctionPass pass)
    {
-      // Log an error if this bid has conditional totals applied.
-      // We should never apply conditional totals to a bid
-      // before we evaluate if it canBeWinner().
-      logErrorIfHasConditionalTotals(bid);
-
       // STEP 1: check if this bidder should not be participating.
       if (!canBidderParticipate(bid, pass))
       {
@@ -1417,113 +2174,85 @@ public class Auctioneer implements AuctionResults
 
       // Assume this bid has won: update budget totals here, so that
       // budget checks on other avails will take into account this win.
+      int savepoint = conditionalSavepoint();
       addToConditionalTotals(winBid);
 
       // Add winner to channel and temp winner lists.
       chanIDs.add(bv.channelId);
       tempWinners.add(winBid);
 
-      // Try to find another win by the buy for an avail that qualifies for
-      // channel bundling from our ranked list, starting from our next index.
-      int startIndx = winBid.biddingIndex + 1;
-      for (int i = startIndx; i < rankedBidList.size(); i++)
+      // Try to find other wins by the buy for avails that qualify for
+      // channel bundling from the rest of our ranked list. If the pass has
+      // indexed its candidates, visit only the buy's bids on eligible orgs
+      // and unfulfilled channels, in rank order.
+      if (myBundlingIndex.isLoaded())
       {
-         // Get out of the loop if we've fulfilled the requirement.
-         if (chanIDs.size() >= minChanCount)
-         {
-            break;
-         }
-         AuctionObjectShadow other = rankedBidList.get(i);
-         // If other bid is not from our buy, ignore. Note we compare object
-         // refs.
-         if (other.auctionObj.campaignBuy != winBuy)
+         myBundlingIndex.beginLookahead(winBid, bundleInfo);
+         while (chanIDs.size() < minChanCount)
          {
-            continue;
-         }
-         Spot otherSpot = other.auctionObj.spot;
-         // Ignore segmented bids.
-         if (otherSpot.isSegmented())
-         {
-            continue;
+            AuctionObjectShadow other = myBundlingIndex.nextCandidate(chanIDs);
+            if (other == null)
+            {
+               break;
+            }
+            addBundlingWinner(other, pass, chanIDs, tempWinners);
          }
-         // For simulated auctions we will include future bids in bundling,
-         // but for real auctions we will ignore futures.
-         if (otherSpot.isFuture && isRealAuction())
+      }
+      else
+      {
+         int startIndx = winBid.biddingIndex + 1;
+         for (int i = startIndx; i < rankedBidList.size(); i++)
          {
-            continue;
-         }
+            // Get out of the loop if we've fulfilled the requirement.
+            if (chanIDs.size() >= minChanCount)
+            {
+               break;
+            }
+            AuctionObjectShadow other = rankedBidList.get(i);
+            // If other bid is not from our buy, ignore. Note we compare object
+            // refs.
+            if (other.auctionObj.campaignBuy != winBuy)
+            {
+               continue;
+            }
+            Spot otherSpot = other.auctionObj.spot;
+            // Ignore segmented bids.
+            if (otherSpot.isSegmented())
+            {
+               continue;
+            }
+            // For simulated auctions we will include future bids in bundling,
+            // but for real auctions we will ignore futures.
+            if (otherSpot.isFuture && isRealAuction())
+            {
+               continue;
+            }
          
-         // If we already have this channel in our list, ignore.
-         BreakView otherBv = otherSpot.breakView;
-         int otherChanID = otherBv.channelId;
-         if (chanIDs.contains(otherChanID))
-         {
-            continue;
-         }
-
-         // If the other bid's avail is not eligible to fulfill our
-         // avail's org channel bundling requirements, skip this.
-         int otherOrgID = otherBv.orgId;
-         boolean isOtherEligible =
-            bundleInfo.canOrgInventoryBeUsedToBundle(winOrgID, otherOrgID);
-         if (!isOtherEligible)
-         {
-            continue;
-         }
-
-         // If this other bid of ours can win,...
-         AuctionStatus prevState = other.auctionState;
-         if (canBeWinner(other, pass))
-         {
-            // Add cost to our totals here, in case it affects mirror partner
-            // canBeWinner().
-            addToConditionalTotals(other);
+            // If we already have this channel in our list, ignore.
+            BreakView otherBv = otherSpot.breakView;
+            int otherChanID = otherBv.channelId;
+            if (chanIDs.contains(otherChanID))
+            {
+               continue;
+            }
 
-            // Handle the mirroring case here.
-            if (otherSpot.isMirrored())
+            // If the other bid's avail is not eligible to fulfill our
+            // avail's org channel bundling requirements, skip this.
+            int otherOrgID = otherBv.orgId;
+            boolean isOtherEligible =
+               bundleInfo.canOrgInventoryBeUsedToBundle(winOrgID, otherOrgID);
+            if (!isOtherEligible)
             {
-               AuctionObjectShadow partnerBid =
-                  getInPlayMirroredPartnerBid(other);
-               if (partnerBid == null)
-               {
-                  // There is no partner bid; ignore this bid.
-                  unrollConditionalTotals(other);
-                  continue;
-               }
-               AuctionStatus prevPartnerState = partnerBid.auctionState;
-               if (!canBeWinner(partnerBid, pass))
-               {
-                  // Mirrored partner fails to win for some reason.
-                  // Erase any error state set by canBeWinner(), and continue
-                  // looking.
-                  partnerBid.auctionState = prevPartnerState;
-                  unrollConditionalTotals(other);
-                  continue;
-               }
-               // Add mirror partner to our list of winners & totals.
-               addToConditionalTotals(partnerBid);
-               tempWinners.add(partnerBid);
-
-            } // END ifMirrored
-
-            // Now add this to our list of winners.
-            tempWinners.add(other);
-            // Add this channel to the set we already have.
-            // Note: any mirrored bid would be on the same channel, so
-            // we don't need this in the mirror partner section above.
-            chanIDs.add(otherChanID);
-         }
-         // Restore any status change on this other bid from canBeWinner() test.
-         other.auctionState = prevState;
+               continue;
+            }
 
-      } // End of iteration through ranked bid list
+            addBundlingWinner(other, pass, chanIDs, tempWinners);
+         } // End of iteration through ranked bid list
+      }
 
       // We either got to the end of the list, or found our required bids.
       // Unroll all conditional wins (including original win).
-      for (AuctionObjectShadow other : tempWinners)
-      {
-         unrollConditionalTotals(other);
-      }
+      rollbackConditionalTotals(savepoint);
 
       // If found winners on at least the minimum # of required channels, we
       // won!
@@ -1544,6 +2273,73 @@ public class Auctioneer implements AuctionResults
       winBid.auctionState = AuctionStatus.CHANNEL_BUNDLING_REQ_NOT_MET;
    }
 
+   /**
+    * Bundling look-ahead step: if another bid of the winning bid's buy, on an
+    * eligible avail and a channel not yet fulfilled, can win (along with any
+    * mirror partner), apply it to the conditional totals and add it to the
+    * bundling winners.
+    * 
+    * @param other Other bid of the buy.
+    * @param pass Which pass we are executing.
+    * @param chanIDs Channels fulfilled so far; the other bid's channel is
+    *        added if it can win.
+    * @param tempWinners Winnable bids that will fulfill the requirement.
+    */
+   private void addBundlingWinner(
+      AuctionObjectShadow other,
+      AuctionPass pass,
+      Set<Integer> chanIDs,
+      List<AuctionObjectShadow> tempWinners)
+   {
+      Spot otherSpot = other.auctionObj.spot;
+      int otherChanID = otherSpot.breakView.channelId;
+
+      // If this other bid of ours can win,...
+      AuctionStatus prevState = other.auctionState;
+      if (canBeWinner(other, pass))
+      {
+         // Add cost to our totals here, in case it affects mirror partner
+         // canBeWinner().
+         addToConditionalTotals(other);
+
+         // Handle the mirroring case here.
+         if (otherSpot.isMirrored())
+         {
+            AuctionObjectShadow partnerBid =
+               getInPlayMirroredPartnerBid(other);
+            if (partnerBid == null)
+            {
+               // There is no partner bid; ignore this bid.
+               unrollConditionalTotals(other);
+               return;
+            }
+            AuctionStatus prevPartnerState = partnerBid.auctionState;
+            if (!canBeWinner(partnerBid, pass))
+            {
+               // Mirrored partner fails to win for some reason.
+               // Erase any error state set by canBeWinner(), and continue
+               // looking.
+               partnerBid.auctionState = prevPartnerState;
+               unrollConditionalTotals(other);
+               return;
+            }
+            // Add mirror partner to our list of winners & totals.
+            addToConditionalTotals(partnerBid);
+            tempWinners.add(partnerBid);
+
+         } // END ifMirrored
+
+         // Now add this to our list of winners.
+         tempWinners.add(other);
+         // Add this channel to the set we already have.
+         // Note: any mirrored bid would be on the same channel, so
+         // we don't need this in the mirror partner section above.
+         chanIDs.add(otherChanID);
+      }
+      // Restore any status change on this other bid from canBeWinner() test.
+      other.auctionState = prevState;
+   }
+
    /**
     * Special processing for a mirrored bid. For a given bid on a mirrored Spot,
     * get the bid's Spot's mirrored partner, and the matching bid by the same
@@ -1665,12 +2461,17 @@ public class Auctioneer implements AuctionResults
    /**
     * The segmented avails contain ranked lists that are sorted by rank & cost.
     * Since the cost may have changed due to assignCpm we need to re-sort these
-    * ranked lists.
+    * ranked lists. Sets already won in full are not auctioned again, so are
+    * skipped.
     */
    private void sortSegmentSets()
    {
       for (SegmentSet ss : mySegments)
       {
+         if (ss.foundAllWinners())
+         {
+            continue;
+         }
          ss.sortSegment();
       }
    }
@@ -1772,7 +2573,8 @@ public class Auctioneer implements AuctionResults
 
    /**
     * Check whether this spot has any viewers. If not, the status for all the
-    * bidders are set accordingly.
+    * bidders are set accordingly. The caller is responsible for counting
+    * zero-viewer spots.
     * 
     * @return true if there are any impressions for this spot. If false, set the
     *         bidder status to the appropriate failure.
@@ -1781,7 +2583,6 @@ public class Auctioneer implements AuctionResults
    {
       if (aSpot.spot.totalADViews == 0)
       {
-         myStats.zeroViewerSpots++;
          for (AuctionObjectShadow bidder : aSpot.bidders)
          {
             bidder.auctionState = AuctionStatus.NO_VIEWERS;
@@ -2254,7 +3055,7 @@ public class Auctioneer implements AuctionResults
                      + bid.auctionState);
 
          // Add this msg to the debug actions.
-         mySegments.get(0).addDebugAction(msg, mySegmentDebugActions);
+         mySegments.get(0).addDebugAction(msg);
       }
    }
 
@@ -2268,7 +3069,7 @@ public class Auctioneer implements AuctionResults
       if (isSegmentDebugOn())
       {
          // Add this msg to the debug actions.
-         mySegments.get(0).addDebugAction(msg, mySegmentDebugActions);
+         mySegments.get(0).addDebugAction(msg);
       }
    }
 
@@ -2280,8 +3081,6 @@ public class Auctioneer implements AuctionResults
     */
    private void addToWinnerTotals(AuctionObjectShadow winner)
    {
-      logErrorIfHasConditionalTotals(winner);
-
       myBudget.addToWinnerBudgetTotals(winner);
       myBudget.addToWinnerContentTotals(winner, false);
 
@@ -2298,21 +3097,22 @@ public class Auctioneer implements AuctionResults
     * thread safe.
     * 
     * @param aos Bid to conditionally add.
+    * @return Cost added, in cents.
     */
-   public void addToConditionalTotals(AuctionObjectShadow aos)
+   public long addToConditionalTotals(AuctionObjectShadow aos)
    {
       if (aos == null)
-         return;
+         return 0L;
 
       logErrorIfHasConditionalTotals(aos);
 
-      myBudget.addToWinnerBudgetTotals(aos);
-      String dbgMsg =
-         myBudget.addToWinnerContentTotals(aos, isSegmentDebugOn());
+      String dbgMsg = myBudget.addToConditionalTotals(aos, isSegmentDebugOn());
 
       aos.setHasConditionalTotals(true);
 
       debugSegmentSet("   AddToTotals() " + dbgMsg);
+
+      return myBudget.conditionalCents(aos);
    }
 
    /**
@@ -2323,22 +3123,77 @@ public class Auctioneer implements AuctionResults
     * addToConditionalTotals(). This method is NOT thread safe.
     * 
     * @param aos Bid to conditionally remove.
+    * @return Cost removed, in cents: the cost recorded when it was added.
     */
-   public void unrollConditionalTotals(AuctionObjectShadow aos)
+   public long unrollConditionalTotals(AuctionObjectShadow aos)
    {
       if (aos == null)
-         return;
+         return 0L;
 
       // Log an error if this bid doesn't have conditional totals applied.
       logErrorIfNoConditionalTotals(aos);
 
-      myBudget.unrollWinnerBudgetTotals(aos);
-      String dbgMsg =
-         myBudget.unrollWinnerContentTotals(aos, isSegmentDebugOn());
+      long cents = myBudget.conditionalCents(aos);
+      String dbgMsg = myBudget.unrollConditionalTotals(aos, isSegmentDebugOn());
 
       aos.setHasConditionalTotals(false);
 
       debugSegmentSet("   UnrollTotals() " + dbgMsg);
+
+      return cents;
+   }
+
+   /**
+    * @return Savepoint for the conditional wins applied so far, to be passed
+    *         to rollbackConditionalTotals(). Savepoints may be nested.
+    */
+   public int conditionalSavepoint()
+   {
+      return myBudget.conditionalSavepoint();
+   }
+
+   /**
+    * Unroll all conditional wins applied since a savepoint, most recent
+    * first. This method is NOT thread safe.
+    * 
+    * @param savepoint Savepoint from conditionalSavepoint().
+    * @return Total cost removed, in cents.
+    */
+   public long rollbackConditionalTotals(int savepoint)
+   {
+      long cents = 0L;
+      while (myBudget.conditionalSavepoint() > savepoint)
+      {
+         cents += unrollConditionalTotals(myBudget.lastConditionalWin());
+      }
+      return cents;
+   }
+
+   /**
+    * Check that no conditional wins remain applied. If any do, log an error
+    * and unroll them.
+    */
+   private void checkNoConditionalTotals()
+   {
+      if (myBudget.conditionalSavepoint() == 0)
+      {
+         return;
+      }
+      // If we get here, we have a bug
+      // Only report as many as myMaxConditionalAddToErrors errors.
+      if (myMaxConditionalAddToErrors > 0)
+      {
+         myMaxConditionalAddToErrors--;
+         String msg =
+            "checkNoConditionalTotals(): "
+               + myBudget.conditionalSavepoint()
+               + " conditional wins were not unrolled. Last: "
+               + myBudget.lastConditionalWin() + " " + getStackTrace();
+
+         theLogger.error(msg);
+         debugSegmentSet(msg);
+      }
+      rollbackConditionalTotals(0);
    }
 
    /**
@@ -2424,6 +3279,7 @@ public class Auctioneer implements AuctionResults
       {
          return;
       }
+      myPreassignedIndex.init(myPreassignedWinners, myAuctionSpots);
       for (PreassignedWinner preWin : myPreassignedWinners)
       {
          AuctionObjectShadow aos = findPreassignedAOS(preWin);
@@ -2441,6 +3297,7 @@ public class Auctioneer implements AuctionResults
             aos.auctionSpot.segmentSet.markAllSegmentNonWinners();
          }
       }
+      myPreassignedIndex.clear();
    }
 
    /**
@@ -2510,81 +3367,54 @@ public class Auctioneer implements AuctionResults
 
       int buyID = preWin.buyID();
       int wcrID = preWin.creativeID();
-      for (AuctionObjectShadow aos : as.bidders)
+      // Find the specified buy bidding on this spot.
+      AuctionObjectShadow aos = myPreassignedIndex.bid(preWin.availID(), buyID);
+      if (aos == null)
       {
-         // Find the specified buy bidding on this spot.
-         AuctionObject ao = aos.auctionObj;
-         if (buyID == ao.campaignBuy.campaignBuyID)
+         // Found the avail but no bid from this buy.
+         preWin.setAssignStatus(AssignStatus.INVALID_BUY);
+         return null;
+      }
+      AuctionObject ao = aos.auctionObj;
+      // Check that, if the spot is mirrored, the bid has a mirror partner.
+      if (s.isMirrored())
+      {
+         if (aos.mirroredPartnerBid() == null)
          {
-            // Check that, if the spot is mirrored, the bid has a mirror
-            // partner.
-            if (s.isMirrored())
-            {
-               if (aos.mirroredPartnerBid() == null)
-               {
-                  // Cannot assign this winner if mirror bid not found.
-                  preWin
-                     .setAssignStatus(AssignStatus.MIRROR_PARTNER_BID_NOT_FOUND);
-                  return null;
-               }
-               // Check for matching assigned mirror bid.
-               int mirrAvailID = aos.mirroredPartnerBid().auctionObj.spot.id;
-               if (!preassignedBidExists(mirrAvailID, buyID, wcrID))
-               {
-                  // Cannot assign this winner if no matching bid was assigned.
-                  preWin
-                     .setAssignStatus(AssignStatus.MIRROR_PARTNER_NOT_ASSIGNED);
-                  return null;
-               }
-            }
-            // Find the creative used by this bid.
-            for (Integer bidCr : ao.creativeIds)
-            {
-               if (bidCr == wcrID)
-               {
-                  // Check that creative has been approved.
-                  if (!ao.campaignBuy.isCreativeApprovedByOrg(wcrID,
-                     s.breakView.orgId))
-                  {
-                     // Cannot assign this winner if creative not approved.
-                     preWin.setAssignStatus(AssignStatus.CREATIVE_NOT_APPROVED);
-                     return null;
-                  }
-                  // Success!
-                  return aos;
-               }
-            }
-            // Found buy & avail, but the assigned Creative wasn't in this bid's
-            // list.
-            preWin.setAssignStatus(AssignStatus.INVALID_CREATIVE);
+            // Cannot assign this winner if mirror bid not found.
+            preWin.setAssignStatus(AssignStatus.MIRROR_PARTNER_BID_NOT_FOUND);
+            return null;
+         }
+         // Check for matching assigned mirror bid.
+         int mirrAvailID = aos.mirroredPartnerBid().auctionObj.spot.id;
+         if (!myPreassignedIndex.isAssigned(mirrAvailID, buyID, wcrID))
+         {
+            // Cannot assign this winner if no matching bid was assigned.
+            preWin.setAssignStatus(AssignStatus.MIRROR_PARTNER_NOT_ASSIGNED);
             return null;
          }
       }
-      // Found the avail but no bid from this buy.
-      preWin.setAssignStatus(AssignStatus.INVALID_BUY);
-      return null;
-   }
-
-   /**
-    * Check that a PreassignedWinner from our list exists. Used for mirrored
-    * check rule.
-    * 
-    * @param availID
-    * @param buyID
-    * @param crID
-    * @return true if one exists, false if not.
-    */
-   private boolean preassignedBidExists(int availID, int buyID, int crID)
-   {
-      for (PreassignedWinner pw : myPreassignedWinners)
+      // Find the creative used by this bid.
+      for (Integer bidCr : ao.creativeIds)
       {
-         if (pw.availID() == availID && pw.buyID() == buyID
-            && pw.creativeID() == crID)
+         if (bidCr == wcrID)
          {
-            return true;
+            // Check that creative has been approved.
+            if (!ao.campaignBuy.isCreativeApprovedByOrg(wcrID,
+               s.breakView.orgId))
+            {
+               // Cannot assign this winner if creative not approved.
+               preWin.setAssignStatus(AssignStatus.CREATIVE_NOT_APPROVED);
+               return null;
+            }
+            // Success!
+            return aos;
          }
       }
-      return false;
+      // Found buy & avail, but the assigned Creative wasn't in this bid's
+      // list.
+      preWin.setAssignStatus(AssignStatus.INVALID_CREATIVE);
+      return null;
    }
 
    /**
@@ -2608,6 +3438,8 @@ public class Auctioneer implements AuctionResults
 
    /**
     * Sort a list of AuctionObjectShadow objects by rank using a comparator.
+    * Note that the auction passes rank over BidColumns, which reproduces the
+    * comparators below; this remains for ad hoc ordering.
     * 
     * @param bidders
     * @param comparator
@@ -2729,11 +3561,15 @@ public class Auctioneer implements AuctionResults
             // (availID ^ buyID)
             // This needs to be able to order 2 or more bids pseudo-randomly
             // on the same avail, regardless of the pool.
+            // Ordering by ascending hash keeps this a consistent ordering;
+            // equal hashes (the same buy twice on the same avail) are left in
+            // their original order by the (stable) sort. (This used to be
+            // "(h1 ^ h2) & 1", which is not an ordering: ties came out in an
+            // order that depended on the input order and the sort. See
+            // RankKeySorterTest for the pinned tie order.)
             int h1 = (spot1.id ^ ao1.campaignBuy.campaignBuyID);
             int h2 = (spot2.id ^ ao2.campaignBuy.campaignBuyID);
-            rtn = (h1 ^ h2) & 1;
-            // If hash of hashes is odd, order asc; if even, order desc.
-            return ((rtn == 0) ? -1 : 1);
+            return (h1 < h2 ? -1 : (h1 == h2 ? 0 : 1));
          }
       };
 
@@ -3498,6 +4334,7 @@ public class Auctioneer implements AuctionResults
       int spotCount = this.auctionSpotCount();
 
       printWinCounts(out);
+      out.println("Segment win method: " + mySegmentContext.winAlgorithm());
       out.println("For " + buyCount + " buys and " + spotCount
          + " spots we built " + stats.SegmentCounter + " Segments, "
          + stats.ComboSetCounter + " ComboSets, " + stats.ComboCounter
@@ -3617,32 +4454,45 @@ public class Auctioneer implements AuctionResults
       if (!myDoSegmentDebug)
          return;
 
-      List<SegmentSet.DebugAction> tmpList = copySegmentDebugList();
-      SegmentSet.dumpDebugActions(tmpList, out);
+      // Actions are only formatted here, as they are dumped.
+      SegmentDebugRing ring = mySegmentDebugRing;
+      long dropped = ring.dropped();
+      if (dropped > 0)
+      {
+         out.println("(" + dropped + " earlier segment debug actions were"
+            + " dropped; " + ring.capacity() + " are kept.)");
+      }
+      SegmentSet.dumpDebugActions(ring.actions(), out);
       out.flush();
    }
 
    /**
-    * Copy the current SegmentDebugAction list into a new list and return it.
-    * Synchronizes creating & dumping of entire list.
+    * Set how many of the most recent SegmentSet debug actions are kept for
+    * dumpSegmentedAvailActions(). Takes effect with the next auction.
     * 
-    * @return List of DebugAction objects.
+    * @param capacity Most actions kept (rounded up to a power of 2).
     */
-   private synchronized List<SegmentSet.DebugAction> copySegmentDebugList()
+   public void setSegmentDebugCapacity(int capacity)
    {
-      List<SegmentSet.DebugAction> tmpList =
-         new ArrayList<SegmentSet.DebugAction>();
-      tmpList.addAll(mySegmentDebugActions);
-      return tmpList;
+      mySegmentDebugCapacity = capacity;
    }
 
    /**
-    * Create a new SegmentDebugAction list. Synchronizes creating & dumping of
-    * entire list.
+    * Start a new auction's segment debug actions. The store is only replaced
+    * if its capacity changed.
     */
-   private synchronized void createSegmentDebugList()
+   private void createSegmentDebugList()
    {
-      mySegmentDebugActions.clear();
+      SegmentDebugRing ring = mySegmentDebugRing;
+      if (ring.capacity() < mySegmentDebugCapacity
+         || ring.capacity() >= mySegmentDebugCapacity * 2)
+      {
+         mySegmentDebugRing = new SegmentDebugRing(mySegmentDebugCapacity);
+      }
+      else
+      {
+         ring.clear();
+      }
    }
 
    /**
@@ -3762,8 +4612,9 @@ public class Auctioneer implements AuctionResults
 
    private final boolean myForcePreviousWinCbCreative;
    private boolean mySnapshotEachPass = false;
-   private List<SegmentSet.DebugAction> mySegmentDebugActions =
-      new ArrayList<SegmentSet.DebugAction>();
+   private int mySegmentDebugCapacity = SegmentDebugRing.DEFAULT_CAPACITY;
+   private volatile SegmentDebugRing mySegmentDebugRing =
+      new SegmentDebugRing(2);
    private boolean myDoSegmentDebug = false;
    private SegmentStats mySegmentStats = null;
 
@@ -3779,8 +4630,48 @@ public class Auctioneer implements AuctionResults
    private final List<List<BidSnapshot>> mySnapshots =
       new ArrayList<List<BidSnapshot>>();
    private final List<SegmentSet> mySegments;
+   // Settings shared by the SegmentSets of the current auction.
+   private SegmentSetContext mySegmentContext =
+      SegmentSet.newContext(null, null, null);
+   // Segment settings of our auctions; null to use the SegmentSet default.
+   private SegmentSet.WinMethod mySegmentWinAlgorithm = null;
+   private Boolean myReuseSegmentComboTrials = null;
+   private Boolean mySegmentDebugOnTheFly = null;
    private final List<PreassignedWinner> myPreassignedWinners =
       new ArrayList<PreassignedWinner>();
+   private final PreassignedWinnerIndex myPreassignedIndex =
+      new PreassignedWinnerIndex();
+   private final ChannelBundlingIndex myBundlingIndex =
+      new ChannelBundlingIndex();
+   // Columnar copy of myAllAuctionObjects for the auction passes.
+   private BidColumns myBidColumns = null;
+   private InPlayBids myInPlayBids = null;
+   private boolean myLazyWinnerSelection = false;
+   private boolean myDenseBudgetTallies = true;
+   private LazyWinnerQueue myLazyWinnerQueue = null;
+   private AuctionObjectArena myAuctionObjectArena = null;
+   // Date range of the GREENFIELD auction just run; null if there was none,
+   // or if the client has discarded its data.
+   private DateRange myGreenfieldRange = null;
+   // Competing bids and active buys of the pool the data was built from.
+   private List<AuctionObject> myPoolBidders =
+      Collections.<AuctionObject> emptyList();
+   private List<CampaignBuyAuctionInfo> myPoolBuys =
+      Collections.<CampaignBuyAuctionInfo> emptyList();
+   private final Map<Integer, int[]> mySpotBidColumns =
+      new HashMap<Integer, int[]>();
+   private AuctionSpot[] myAuctionSpotArray = new AuctionSpot[0];
+   // Reused by matchMirroredBids().
+   private long[] myMirrorKeys = new long[0];
+
+   // Independent component auctions.
+   private int myComponentParallelism = 1;
+   private static final int COMPONENT_GROUPS_PER_THREAD = 4;
+
+   // Parallel CPM assignment. The pool only exists while an auction runs.
+   private int myCpmParallelism = 1;
+   private ForkJoinPool myCpmPool = null;
+   private static final int CPM_TASK_SPOT_COUNT = 512;
 
    // Stats
    private static AtomicInteger myAuctionCounter = new AtomicInteger(1);
@@ -4060,6 +4951,41 @@ public class Auctioneer implements AuctionResults
 
    } // END AuctionStats
 
+   /**
+    * Fork-join task that assigns CPMs to a range of myAuctionSpotArray,
+    * splitting the range in half until it is small enough to run directly.
+    * Returns the number of zero-viewer spots found.
+    */
+   private class AssignCpmTask extends RecursiveTask<Integer>
+   {
+      AssignCpmTask(int from, int to, AuctionPass pass)
+      {
+         myFrom = from;
+         myTo = to;
+         myPass = pass;
+      }
+
+      @Override
+      protected Integer compute()
+      {
+         if (myTo - myFrom <= CPM_TASK_SPOT_COUNT)
+         {
+            return assignCpms(myFrom, myTo, myPass);
+         }
+         int mid = (myFrom + myTo) >>> 1;
+         AssignCpmTask left = new AssignCpmTask(myFrom, mid, myPass);
+         AssignCpmTask right = new AssignCpmTask(mid, myTo, myPass);
+         left.fork();
+         int rightCount = right.compute();
+         return rightCount + left.join();
+      }
+
+      private final int myFrom;
+      private final int myTo;
+      private final AuctionPass myPass;
+      private static final long serialVersionUID = 1L;
+   }
+
 } // END Auctioneer
 
 /**
@@ -0,0 +1,349 @@
+/**
+ * Part of a source code package originally written for the AdAuctionApp project.
+ * Intended for use as a programming work sample file only.  Not for distribution.
+ **/
+package AdAuctionApp.Auction;
+
+import java.util.AbstractList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import AdAuctionApp.Cache.Central.AuctionObject;
+import AdAuctionApp.Cache.Central.Spot;
+
+/**
+ * Columnar (struct-of-arrays) copy of the values the auction passes read for
+ * every bid. The AuctionObjectShadow graph remains the API surface and the
+ * owner of all bid state; this class only caches, in flat primitive arrays,
+ * the values that otherwise require walking
+ * AuctionObjectShadow -> AuctionObject -> Spot -> CampaignBuyAuctionInfo.
+ *
+ * Column index 'i' always refers to the bid at position 'i' of the array the
+ * columns were built from. Values that are fixed for the life of the auction
+ * data (avail, buy, week, segment) are loaded once in the constructor;
+ * values that may change between (or during) passes (rank, cost, CPM,
+ * in-program) are reloaded by refresh().
+ *
+ * Bid state is deliberately NOT copied: every constraint check writes
+ * 'auctionState' on the shadow, so a column copy would be stale the moment
+ * it was taken.
+ *
+ * This class is NOT thread safe.
+ */
+final class BidColumns
+{
+   /**
+    * Constructor. Loads the fixed columns and performs an initial refresh().
+    *
+    * @param bids Array of bids to build columns for. Not copied; the order of
+    *        this array defines the column indexes.
+    */
+   BidColumns(AuctionObjectShadow[] bids)
+   {
+      int n = bids.length;
+      myBids = bids;
+      mySpotIDs = new int[n];
+      myBuyIDs = new int[n];
+      myWeekIndexes = new int[n];
+      mySegmentRootIDs = new int[n];
+      mySegmentOffsets = new int[n];
+      myRanks = new float[n];
+      myAlternateRanks = new float[n];
+      myDerivedCpms = new float[n];
+      myCostCents = new long[n];
+      myInProgram = new boolean[n];
+      myRanker = new RankKeySorter(this);
+
+      for (int i = 0; i < n; i++)
+      {
+         AuctionObject ao = bids[i].auctionObj;
+         Spot spot = ao.spot;
+         mySpotIDs[i] = spot.id;
+         myBuyIDs[i] = ao.campaignBuy.campaignBuyID;
+         myWeekIndexes[i] = spot.budgetWeekIndex;
+         mySegmentRootIDs[i] = spot.segmentRootID;
+         mySegmentOffsets[i] = spot.segmentOffset;
+      }
+      refresh();
+   }
+
+   /**
+    * Reload the columns that can change during an auction from the shadows.
+    * Must be called after any step that sets a bid's actual CPM (and so its
+    * auction cost) and before the columns are used for ranking.
+    */
+   void refresh()
+   {
+      for (int i = 0; i < myBids.length; i++)
+      {
+         loadMutableColumns(i);
+      }
+      myRanker.buildKeys();
+   }
+
+   /**
+    * Reload the mutable columns for a single bid.
+    *
+    * @param i Column index.
+    * @return true if the bid's rank ordering key changed.
+    */
+   boolean refresh(int i)
+   {
+      loadMutableColumns(i);
+      return myRanker.buildKey(i);
+   }
+
+   private void loadMutableColumns(int i)
+   {
+      AuctionObjectShadow aos = myBids[i];
+      AuctionObject ao = aos.auctionObj;
+      myRanks[i] = ao.rank();
+      myAlternateRanks[i] = aos.alternateRank;
+      myDerivedCpms[i] = ao.derivedCPM();
+      myCostCents[i] = aos.auctionCost().valueInCents();
+      myInProgram[i] = ao.isInProgram();
+   }
+
+   /**
+    * @return Number of bids in the columns.
+    */
+   int size()
+   {
+      return myBids.length;
+   }
+
+   /**
+    * @param i Column index.
+    * @return The bid at column index i.
+    */
+   AuctionObjectShadow bid(int i)
+   {
+      return myBids[i];
+   }
+
+   /**
+    * @param i Column index.
+    * @return Avail ID of the bid.
+    */
+   int spotID(int i)
+   {
+      return mySpotIDs[i];
+   }
+
+   /**
+    * @param i Column index.
+    * @return Campaign Buy ID of the bid.
+    */
+   int buyID(int i)
+   {
+      return myBuyIDs[i];
+   }
+
+   /**
+    * @param i Column index.
+    * @return Budget week index of the bid's avail.
+    */
+   int weekIndex(int i)
+   {
+      return myWeekIndexes[i];
+   }
+
+   /**
+    * @param i Column index.
+    * @return Segment root avail ID of the bid's avail.
+    */
+   int segmentRootID(int i)
+   {
+      return mySegmentRootIDs[i];
+   }
+
+   /**
+    * @param i Column index.
+    * @return Segment offset of the bid's avail.
+    */
+   int segmentOffset(int i)
+   {
+      return mySegmentOffsets[i];
+   }
+
+   /**
+    * @param i Column index.
+    * @return Rank of the bid, as of the last refresh.
+    */
+   float rank(int i)
+   {
+      return myRanks[i];
+   }
+
+   /**
+    * @param i Column index.
+    * @return Alternate (negative rank) rank of the bid, as of the last
+    *         refresh.
+    */
+   float alternateRank(int i)
+   {
+      return myAlternateRanks[i];
+   }
+
+   /**
+    * @param i Column index.
+    * @return Derived CPM of the bid's buy, as of the last refresh.
+    */
+   float derivedCpm(int i)
+   {
+      return myDerivedCpms[i];
+   }
+
+   /**
+    * @param i Column index.
+    * @return Auction cost of the bid, in cents, as of the last refresh.
+    */
+   long costCents(int i)
+   {
+      return myCostCents[i];
+   }
+
+   /**
+    * @param i Column index.
+    * @return Whether the bid was in program as of the last refresh.
+    */
+   boolean isInProgram(int i)
+   {
+      return myInProgram[i];
+   }
+
+   /**
+    * Create an index from each bid to its column index. Only intended for
+    * setup (e.g., mapping per-avail bidder arrays onto columns).
+    *
+    * @return Identity map of bid to column index.
+    */
+   Map<AuctionObjectShadow, Integer> createColumnIndexMap()
+   {
+      Map<AuctionObjectShadow, Integer> rtnMap =
+         new IdentityHashMap<AuctionObjectShadow, Integer>(myBids.length * 2);
+      for (int i = 0; i < myBids.length; i++)
+      {
+         rtnMap.put(myBids[i], i);
+      }
+      return rtnMap;
+   }
+
+   /**
+    * Map an array of bids onto their column indexes.
+    *
+    * @param bids Bids, all of which must be in these columns.
+    * @param indexMap Map from createColumnIndexMap().
+    * @return Array of column indexes, parallel to 'bids'.
+    */
+   static int[] toColumnIndexes(
+      AuctionObjectShadow[] bids,
+      Map<AuctionObjectShadow, Integer> indexMap)
+   {
+      int[] rtn = new int[bids.length];
+      for (int i = 0; i < bids.length; i++)
+      {
+         rtn[i] = indexMap.get(bids[i]);
+      }
+      return rtn;
+   }
+
+   /**
+    * Order bids by descending winner rank, in place, using the packed keys of
+    * RankKeySorter.
+    *
+    * @param cols Column indexes to order.
+    * @param count Number of leading entries of 'cols' to order.
+    * @see Auctioneer#RANK_WINNER_DESC_COMPARATOR
+    */
+   void rankWinnerDescending(int[] cols, int count)
+   {
+      myRanker.sortDescending(cols, count);
+   }
+
+   /**
+    * Merge bids whose rank keys changed back into a descending winner order
+    * of the bids whose keys did not.
+    *
+    * @param order Ordered unchanged bids; receives the merged order.
+    * @param orderCount Number of unchanged bids in 'order'.
+    * @param changed Changed bids, in any order.
+    * @param changedCount Number of changed bids.
+    * @see RankKeySorter#mergeDescending(int[], int, int[], int)
+    */
+   void mergeWinnerDescending(
+      int[] order,
+      int orderCount,
+      int[] changed,
+      int changedCount)
+   {
+      myRanker.mergeDescending(order, orderCount, changed, changedCount);
+   }
+
+   /**
+    * Order a subset of bids (typically the bidders on one avail) by ascending
+    * rank, in place.
+    *
+    * @param cols Column indexes to order.
+    * @see Auctioneer#RANK_WINNER_DESC_COMPARATOR
+    */
+   void rankAscending(int[] cols)
+   {
+      myRanker.sortAscending(cols);
+   }
+
+   /**
+    * Compare two bids in descending winner rank order, by packed key.
+    *
+    * @param i Column index of the first bid.
+    * @param j Column index of the second bid.
+    * @return Negative if bid i ranks ahead of bid j.
+    * @see Auctioneer#RANK_WINNER_DESC_COMPARATOR
+    */
+   int compareRanked(int i, int j)
+   {
+      return myRanker.compare(i, j);
+   }
+
+   /**
+    * Present an ordering of column indexes as a read-only List of bids,
+    * without copying.
+    *
+    * @param order Ordered column indexes (e.g., from rankWinnerDescending()).
+    * @param size Number of leading entries of 'order' in the view.
+    * @return List view; element k is bid(order[k]).
+    */
+   List<AuctionObjectShadow> asList(final int[] order, final int size)
+   {
+      return new AbstractList<AuctionObjectShadow>()
+      {
+         public AuctionObjectShadow get(int k)
+         {
+            return myBids[order[k]];
+         }
+
+         public int size()
+         {
+            return size;
+         }
+      };
+   }
+
+   /******************** Instance members **************************/
+   private final AuctionObjectShadow[] myBids;
+   // Fixed columns.
+   private final int[] mySpotIDs;
+   private final int[] myBuyIDs;
+   private final int[] myWeekIndexes;
+   private final int[] mySegmentRootIDs;
+   private final int[] mySegmentOffsets;
+   // Mutable columns (see refresh()).
+   private final float[] myRanks;
+   private final float[] myAlternateRanks;
+   private final float[] myDerivedCpms;
+   private final long[] myCostCents;
+   private final boolean[] myInProgram;
+   // Ranking engine over the columns.
+   private final RankKeySorter myRanker;
+}
@@ -0,0 +1,278 @@
+/**
+ * Part of a source code package originally written for the AdAuctionApp project.
+ * Intended for use as a programming work sample file only.  Not for distribution.
+ **/
+package AdAuctionApp.Auction;
+
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import AdAuctionApp.Cache.Central.PlacementAttribute;
+
+/**
+ * Placement attributes of the winners in a single break, for product
+ * adjacency checks.
+ *
+ * Each distinct PlacementAttribute of an auction is given an ordinal (see
+ * Ordinals), and a break keeps the number of its winners with each one in an
+ * int array indexed by ordinal. The boolean attributes of the winners are
+ * also summarized as a 64-bit mask: attribute N sets bit (N mod 64). A
+ * creative whose own mask does not intersect the break's mask shares no
+ * boolean attribute with any winner, and so cannot be adjacent to one; only
+ * when the masks intersect do the attributes themselves need to be compared.
+ * Per-bit counts let the mask be kept up to date as winners are unrolled.
+ *
+ * Instances are cleared and reused from one auction to the next.
+ *
+ * This class is NOT thread safe.
+ */
+final class BreakPlacementAttrs
+{
+   /**
+    * Constructor.
+    *
+    * @param ordinals Ordinals of the auction's placement attributes.
+    */
+   BreakPlacementAttrs(Ordinals ordinals)
+   {
+      myOrdinals = ordinals;
+   }
+
+   /**
+    * Add a winner's attributes.
+    *
+    * @param ordinal Ordinal of the placement attributes of the winning
+    *        creative.
+    */
+   void add(int ordinal)
+   {
+      if (ordinal >= myCounts.length)
+      {
+         myCounts = Arrays.copyOf(myCounts,
+            Math.max(ordinal + 1, myCounts.length * 2));
+      }
+      if (myCounts[ordinal]++ == 0)
+      {
+         myDistinct++;
+      }
+      for (long bits = myOrdinals.mask(ordinal); bits != 0; bits &= bits - 1)
+      {
+         int bit = Long.numberOfTrailingZeros(bits);
+         if (myBitCounts[bit]++ == 0)
+         {
+            myMask |= (1L << bit);
+         }
+      }
+   }
+
+   /**
+    * Remove a winner's attributes, if they were added.
+    *
+    * @param ordinal Ordinal of the placement attributes of the unrolled
+    *        creative.
+    */
+   void remove(int ordinal)
+   {
+      if (ordinal >= myCounts.length || myCounts[ordinal] == 0)
+      {
+         return;
+      }
+      if (--myCounts[ordinal] == 0)
+      {
+         myDistinct--;
+      }
+      for (long bits = myOrdinals.mask(ordinal); bits != 0; bits &= bits - 1)
+      {
+         int bit = Long.numberOfTrailingZeros(bits);
+         if (--myBitCounts[bit] == 0)
+         {
+            myMask &= ~(1L << bit);
+         }
+      }
+   }
+
+   /**
+    * @return true if no winner attributes are held.
+    */
+   boolean isEmpty()
+   {
+      return (myDistinct == 0);
+   }
+
+   /**
+    * @return Distinct placement attributes of the winners; a view that
+    *         changes as winners are added and removed.
+    */
+   Set<PlacementAttribute> attributes()
+   {
+      return myAttributes;
+   }
+
+   /**
+    * @return Union of the masks of the winners' attributes.
+    */
+   long mask()
+   {
+      return myMask;
+   }
+
+   /**
+    * Remove all winner attributes.
+    */
+   void clear()
+   {
+      if (myDistinct == 0)
+      {
+         return;
+      }
+      Arrays.fill(myCounts, 0);
+      Arrays.fill(myBitCounts, 0);
+      myDistinct = 0;
+      myMask = 0L;
+   }
+
+   /**
+    * Get the mask of a set of placement attributes: bit (N mod 64) is set for
+    * each boolean attribute N.
+    *
+    * @param attrs Placement attributes; may be null.
+    * @return Mask of the boolean attributes; 0 if none.
+    */
+   static long maskOf(PlacementAttribute attrs)
+   {
+      if (attrs == null)
+      {
+         return 0L;
+      }
+      long mask = 0L;
+      List<Integer> bools = attrs.getBooleanAttrs();
+      for (int attr : bools)
+      {
+         mask |= (1L << (attr & (Long.SIZE - 1)));
+      }
+      return mask;
+   }
+
+   /**
+    * The ordinals of the distinct PlacementAttributes (by identity) seen in
+    * an auction, assigned in order of first use, and their masks. Shared by
+    * the breaks of the auction.
+    */
+   static final class Ordinals
+   {
+      /**
+       * @param attrs Placement attributes.
+       * @return Ordinal of the attributes, assigned now if they are new.
+       */
+      int ordinalOf(PlacementAttribute attrs)
+      {
+         Integer ordinal = myOrdinalsByAttrs.get(attrs);
+         if (ordinal == null)
+         {
+            ordinal = myAttrs.size();
+            myOrdinalsByAttrs.put(attrs, ordinal);
+            myAttrs.add(attrs);
+            if (ordinal == myMasks.length)
+            {
+               myMasks = Arrays.copyOf(myMasks, Math.max(16, ordinal * 2));
+            }
+            myMasks[ordinal] = maskOf(attrs);
+         }
+         return ordinal;
+      }
+
+      /**
+       * @param ordinal Ordinal of placement attributes.
+       * @return The placement attributes.
+       */
+      PlacementAttribute attrs(int ordinal)
+      {
+         return myAttrs.get(ordinal);
+      }
+
+      /**
+       * @param ordinal Ordinal of placement attributes.
+       * @return Mask of the attributes (see maskOf()).
+       */
+      long mask(int ordinal)
+      {
+         return myMasks[ordinal];
+      }
+
+      /**
+       * Forget all ordinals. The breaks using them must be discarded too.
+       */
+      void clear()
+      {
+         myOrdinalsByAttrs.clear();
+         myAttrs.clear();
+      }
+
+      private final Map<PlacementAttribute, Integer> myOrdinalsByAttrs =
+         new IdentityHashMap<PlacementAttribute, Integer>();
+      private final List<PlacementAttribute> myAttrs =
+         new ArrayList<PlacementAttribute>();
+      private long[] myMasks = new long[0];
+   }
+
+   /**
+    * Set view of the attributes with a nonzero count.
+    */
+   private final class Attributes extends AbstractSet<PlacementAttribute>
+   {
+      @Override
+      public Iterator<PlacementAttribute> iterator()
+      {
+         return new Iterator<PlacementAttribute>()
+         {
+            public boolean hasNext()
+            {
+               while (myNext < myCounts.length && myCounts[myNext] == 0)
+               {
+                  myNext++;
+               }
+               return (myNext < myCounts.length);
+            }
+
+            public PlacementAttribute next()
+            {
+               if (!hasNext())
+               {
+                  throw new NoSuchElementException();
+               }
+               return myOrdinals.attrs(myNext++);
+            }
+
+            public void remove()
+            {
+               throw new UnsupportedOperationException();
+            }
+
+            private int myNext = 0;
+         };
+      }
+
+      @Override
+      public int size()
+      {
+         return myDistinct;
+      }
+   }
+
+   /******************** Instance members **************************/
+   private final Ordinals myOrdinals;
+   private final Set<PlacementAttribute> myAttributes = new Attributes();
+   // Number of winners with each placement attribute ordinal.
+   private int[] myCounts = new int[0];
+   // Number of ordinals with a nonzero count.
+   private int myDistinct = 0;
+   private final int[] myBitCounts = new int[Long.SIZE];
+   private long myMask = 0L;
+}
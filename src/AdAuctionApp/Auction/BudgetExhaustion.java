@@ -0,0 +1,176 @@
+/**
+ * Part of a source code package originally written for the AdAuctionApp project.
+ * Intended for use as a programming work sample file only.  Not for distribution.
+ **/
+package AdAuctionApp.Auction;
+
+import java.util.Arrays;
+
+/**
+ * Remembers which budget scopes of an auction have been exhausted, so that a
+ * budget check that is certain to fail again can be answered without looking
+ * up and adding up tallies.
+ *
+ * Each budget limit check has the form 'total + amount > limit', where the
+ * amount is a bid's cost (in cents) or impressions. Within an auction, limits
+ * are fixed and totals only grow as winners are added, so once a check fails
+ * for some amount it will fail for any amount at least that large. For each
+ * scope we keep the smallest amount seen to fail:
+ * <ul>
+ * <li>campaign spending and campaign impressions, per buy (the campaign's
+ * total is shared, but each buy checks it against its own effective campaign
+ * limit);</li>
+ * <li>buy spending or impressions (by media buy type), per buy;</li>
+ * <li>weekly spending or impressions, per buy and budget week;</li>
+ * <li>daily spending or impressions, per buy, budget week and day.</li>
+ * </ul>
+ * Totals do shrink when a win is unrolled. An unrolled win lowers the
+ * campaign totals of its campaign and the buy, week and day totals of its buy
+ * only, so only the campaign scopes of that campaign's buys and the other
+ * scopes of that buy are forgotten (in constant time), by advancing a
+ * generation kept per campaign and per buy.
+ *
+ * This class is NOT thread safe.
+ */
+final class BudgetExhaustion
+{
+   /**
+    * Constructor.
+    *
+    * @param slots Dense indexes of the auction's budget scopes.
+    */
+   BudgetExhaustion(BudgetSlots slots)
+   {
+      mySlots = slots;
+   }
+
+   /**
+    * Size the scope arrays for the slots of a new auction, and forget all
+    * exhausted scopes. Must be called after the slots are initialized.
+    */
+   void init()
+   {
+      int[] sizes = new int[SCOPE_COUNT];
+      sizes[CAMPAIGN_SPENDING] = mySlots.buyCount();
+      sizes[CAMPAIGN_IMPRESSIONS] = mySlots.buyCount();
+      sizes[BUY] = mySlots.buyCount();
+      sizes[WEEK] = mySlots.weekCount();
+      sizes[DAY] = mySlots.dayCount();
+      for (int scope = 0; scope < SCOPE_COUNT; scope++)
+      {
+         myFailAmounts[scope] = new long[sizes[scope]];
+         myFailGenerations[scope] = new int[sizes[scope]];
+      }
+      myCampaignGenerations = new int[mySlots.campaignCount()];
+      myBuyGenerations = new int[mySlots.buyCount()];
+      Arrays.fill(myCampaignGenerations, 1);
+      Arrays.fill(myBuyGenerations, 1);
+   }
+
+   /**
+    * Forget all exhausted scopes. Must be called whenever totals of more
+    * than one buy may have decreased.
+    */
+   void clear()
+   {
+      for (int campaign = 0; campaign < myCampaignGenerations.length; campaign++)
+      {
+         myCampaignGenerations[campaign]++;
+      }
+      for (int buy = 0; buy < myBuyGenerations.length; buy++)
+      {
+         myBuyGenerations[buy]++;
+      }
+   }
+
+   /**
+    * Forget the scopes whose totals an unrolled win of a buy decreased: the
+    * campaign scopes of all buys of its campaign, and the buy's own scopes.
+    *
+    * @param buy Slot of the buy.
+    */
+   void clear(int buy)
+   {
+      myCampaignGenerations[mySlots.campaignSlot(buy)]++;
+      myBuyGenerations[buy]++;
+   }
+
+   /**
+    * Check whether a scope is known to fail its limit check for an amount.
+    *
+    * @param scope One of the scope constants.
+    * @param buy Slot of the bid's buy.
+    * @param bwi Budget week index of the bid's spot.
+    * @param dow Budget day of week of the bid's spot.
+    * @param amount Bid's cost in cents, or its impressions.
+    * @return true if the check is certain to fail.
+    */
+   boolean isExhausted(int scope, int buy, int bwi, int dow, long amount)
+   {
+      int slot = slot(scope, buy, bwi, dow);
+      return (myFailGenerations[scope][slot] == generation(scope, buy)
+         && amount >= myFailAmounts[scope][slot]);
+   }
+
+   /**
+    * Record that a scope failed its limit check for an amount.
+    *
+    * @param scope One of the scope constants.
+    * @param buy Slot of the bid's buy.
+    * @param bwi Budget week index of the bid's spot.
+    * @param dow Budget day of week of the bid's spot.
+    * @param amount Bid's cost in cents, or its impressions.
+    */
+   void setExhausted(int scope, int buy, int bwi, int dow, long amount)
+   {
+      int slot = slot(scope, buy, bwi, dow);
+      int generation = generation(scope, buy);
+      if (myFailGenerations[scope][slot] != generation
+         || amount < myFailAmounts[scope][slot])
+      {
+         myFailGenerations[scope][slot] = generation;
+         myFailAmounts[scope][slot] = amount;
+      }
+   }
+
+   private int generation(int scope, int buy)
+   {
+      if (scope == CAMPAIGN_SPENDING || scope == CAMPAIGN_IMPRESSIONS)
+      {
+         return myCampaignGenerations[mySlots.campaignSlot(buy)];
+      }
+      return myBuyGenerations[buy];
+   }
+
+   private int slot(int scope, int buy, int bwi, int dow)
+   {
+      switch (scope)
+      {
+         case CAMPAIGN_SPENDING:
+         case CAMPAIGN_IMPRESSIONS:
+         case BUY:
+            return buy;
+         case WEEK:
+            return mySlots.weekSlot(buy, bwi);
+         default:
+            return mySlots.daySlot(buy, bwi, dow);
+      }
+   }
+
+   /******************** Class members **************************/
+   static final int CAMPAIGN_SPENDING = 0;
+   static final int CAMPAIGN_IMPRESSIONS = 1;
+   static final int BUY = 2;
+   static final int WEEK = 3;
+   static final int DAY = 4;
+   private static final int SCOPE_COUNT = 5;
+
+   /******************** Instance members **************************/
+   private final BudgetSlots mySlots;
+   private final long[][] myFailAmounts = new long[SCOPE_COUNT][0];
+   private final int[][] myFailGenerations = new int[SCOPE_COUNT][0];
+   // Current generation of each campaign's and buy's scopes; a scope is
+   // exhausted only if it was recorded in its current generation.
+   private int[] myCampaignGenerations = new int[0];
+   private int[] myBuyGenerations = new int[0];
+}
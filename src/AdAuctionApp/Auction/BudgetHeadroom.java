@@ -0,0 +1,161 @@
+/**
+ * Part of a source code package originally written for the AdAuctionApp project.
+ * Intended for use as a programming work sample file only.  Not for distribution.
+ **/
+package AdAuctionApp.Auction;
+
+import java.util.Arrays;
+
+import AdAuctionApp.Cache.CacheConstants.DemographicQualityType;
+import AdAuctionApp.Cache.Central.AuctionObject;
+import AdAuctionApp.Cache.Central.CampaignBuyAuctionInfo;
+import AdAuctionApp.Cache.Central.Spot;
+
+/**
+ * Remembers, per buy day, a lower bound on the spending headroom left under
+ * all of the buy's campaign, buy, weekly and daily spending limits, so that a
+ * bid well within budget can be accepted with a single compare, without
+ * running each limit check.
+ *
+ * The headroom of a day is the smallest 'limit - total' of its four limits.
+ * Every win of the day's campaign adds the same amount to the campaign total
+ * as it adds to any of the buy, week or day totals, so after the campaign
+ * total has grown by some amount, the headroom has shrunk by at most that
+ * amount. We therefore keep the headroom plus the campaign total at the time
+ * it was computed (the day's "bound"); a bid fits if the current campaign
+ * total plus its cost does not exceed the bound. Totals shrink when a win is
+ * unrolled; since the bounds of all of a campaign's days are relative to its
+ * total, the bounds of that campaign's days are forgotten (in constant time,
+ * by advancing a generation kept per campaign).
+ *
+ * Only bids with no daypart, channel or demographic spending limit (overall
+ * or weekly) are eligible, since those limits cannot be expressed as a
+ * headroom. The day slot of each bid is resolved once, and kept by the bid's
+ * column (see BudgetSlots.bidColumn()).
+ *
+ * This class is NOT thread safe.
+ */
+final class BudgetHeadroom
+{
+   /**
+    * Constructor.
+    *
+    * @param slots Dense indexes of the auction's budget scopes.
+    */
+   BudgetHeadroom(BudgetSlots slots)
+   {
+      mySlots = slots;
+   }
+
+   /**
+    * Find the eligible bids of a new auction, and forget all bounds. Must be
+    * called after the slots are initialized.
+    *
+    * @param bids Array of bids in the auction.
+    */
+   void init(AuctionObjectShadow[] bids)
+   {
+      myDayOfBid = new int[bids.length];
+      for (int col = 0; col < bids.length; col++)
+      {
+         AuctionObject ao = bids[col].auctionObj;
+         CampaignBuyAuctionInfo cbai = ao.campaignBuy;
+         Spot spot = ao.spot;
+         int bwi = spot.budgetWeekIndex;
+         int dpID = spot.daypartID;
+         int chanID = spot.breakView.channelId;
+         DemographicQualityType quality = spot.qualityType();
+         if (cbai.hasDaypartSpendLimit(dpID)
+            || cbai.hasChannelSpendLimit(chanID)
+            || cbai.hasDemographicSpendLimit(quality)
+            || cbai.hasWeeklyDaypartSpendingLimit(bwi, dpID)
+            || cbai.hasWeeklyChannelSpendingLimit(bwi, chanID)
+            || cbai.hasWeeklyDemographicSpendingLimit(bwi, quality))
+         {
+            myDayOfBid[col] = -1;
+            continue;
+         }
+         myDayOfBid[col] = mySlots.daySlot(mySlots.buyOfBid(col), bwi, spot.budgetDayOfWeek);
+      }
+      myBounds = new long[mySlots.dayCount()];
+      myBoundGenerations = new int[mySlots.dayCount()];
+      myCampaignOfDay = new int[mySlots.dayCount()];
+      for (int day = 0; day < myCampaignOfDay.length; day++)
+      {
+         myCampaignOfDay[day] = mySlots.campaignSlot(
+            mySlots.buyOfWeek(day / BudgetSlots.DAYS_PER_WEEK));
+      }
+      myCampaignGenerations = new int[mySlots.campaignCount()];
+      Arrays.fill(myCampaignGenerations, 1);
+   }
+
+   /**
+    * Forget all bounds. Must be called whenever totals of more than one
+    * campaign may have decreased.
+    */
+   void clear()
+   {
+      for (int campaign = 0; campaign < myCampaignGenerations.length; campaign++)
+      {
+         myCampaignGenerations[campaign]++;
+      }
+   }
+
+   /**
+    * Forget the bounds of all days of a buy's campaign. Must be called
+    * whenever a total of the buy may have decreased.
+    *
+    * @param buy Slot of the buy.
+    */
+   void clear(int buy)
+   {
+      myCampaignGenerations[mySlots.campaignSlot(buy)]++;
+   }
+
+   /**
+    * @param col Column of a bid in the auction.
+    * @return Day slot of the bid, or -1 if the bid is not eligible.
+    */
+   int daySlot(int col)
+   {
+      return myDayOfBid[col];
+   }
+
+   /**
+    * Check whether a cost is known to fit all spending limits of a day.
+    *
+    * @param day Day slot of the bid.
+    * @param campaignSpent Current spending of the buy's campaign, in cents.
+    * @param cents Cost of the bid, in cents.
+    * @return true if all of the day's spending limit checks would pass.
+    */
+   boolean fits(int day, long campaignSpent, long cents)
+   {
+      return (myBoundGenerations[day] == myCampaignGenerations[myCampaignOfDay[day]]
+         && campaignSpent + cents <= myBounds[day]);
+   }
+
+   /**
+    * Record the current headroom of a day.
+    *
+    * @param day Day slot.
+    * @param campaignSpent Current spending of the buy's campaign, in cents.
+    * @param headroom Smallest 'limit - total' of the day's limits, in cents.
+    */
+   void setHeadroom(int day, long campaignSpent, long headroom)
+   {
+      myBounds[day] = campaignSpent + headroom;
+      myBoundGenerations[day] = myCampaignGenerations[myCampaignOfDay[day]];
+   }
+
+   /******************** Instance members **************************/
+   private final BudgetSlots mySlots;
+   // Day slot of each bid, by column; -1 if the bid is not eligible.
+   private int[] myDayOfBid = new int[0];
+   private long[] myBounds = new long[0];
+   private int[] myBoundGenerations = new int[0];
+   private int[] myCampaignOfDay = new int[0];
+   // Current generation of each campaign's bounds; a bound is valid only if
+   // it was recorded in its campaign's current generation.
+   private int[] myCampaignGenerations = new int[0];
+}
@@ -0,0 +1,300 @@
+/**
+ * Part of a source code package originally written for the AdAuctionApp project.
+ * Intended for use as a programming work sample file only.  Not for distribution.
+ **/
+package AdAuctionApp.Auction;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import AdAuctionApp.Cache.Central.AuctionObject;
+import AdAuctionApp.Cache.Central.CampaignBuyAuctionInfo;
+
+/**
+ * Dense indexes ("slots") for the budget scopes of an auction: campaigns,
+ * buys, budget weeks of a buy, and days of those weeks. Slots let per-scope
+ * budget values be kept in flat arrays instead of maps keyed by ID.
+ *
+ * The weeks of a buy are given a contiguous range of slots, from the buy's
+ * first to its last budget week with a bid; day slots are DAYS_PER_WEEK per
+ * week slot.
+ *
+ * Each bid's buy slot is also resolved once, and kept by the bid's column:
+ * its position in the array of bids the slots were assigned from, which is
+ * also its BidColumns index. A bid's column is found through an identity
+ * hash table of the bids, so no Integer is boxed or unboxed per check.
+ *
+ * This class is NOT thread safe.
+ */
+final class BudgetSlots
+{
+   /**
+    * Assign slots to the scopes of the bids in an auction.
+    *
+    * @param bids Array of bids in the auction.
+    */
+   void init(AuctionObjectShadow[] bids)
+   {
+      myBuySlotsByID.clear();
+      myBuySlotsByInfo.clear();
+      initBidTable(bids);
+      myBuyOfBid = new int[bids.length];
+      Map<Integer, Integer> campaignSlots = new HashMap<Integer, Integer>();
+      int[] minWeeks = new int[16];
+      int[] maxWeeks = new int[16];
+      int[] campaignOfBuy = new int[16];
+      for (int col = 0; col < bids.length; col++)
+      {
+         AuctionObject ao = bids[col].auctionObj;
+         CampaignBuyAuctionInfo cbai = ao.campaignBuy;
+         int bwi = ao.spot.budgetWeekIndex;
+         Integer buy = myBuySlotsByID.get(cbai.campaignBuyID);
+         if (buy == null)
+         {
+            buy = myBuySlotsByID.size();
+            myBuySlotsByID.put(cbai.campaignBuyID, buy);
+            if (buy == minWeeks.length)
+            {
+               minWeeks = Arrays.copyOf(minWeeks, buy * 2);
+               maxWeeks = Arrays.copyOf(maxWeeks, buy * 2);
+               campaignOfBuy = Arrays.copyOf(campaignOfBuy, buy * 2);
+            }
+            Integer campaign = campaignSlots.get(cbai.campaignID);
+            if (campaign == null)
+            {
+               campaign = campaignSlots.size();
+               campaignSlots.put(cbai.campaignID, campaign);
+            }
+            campaignOfBuy[buy] = campaign;
+            minWeeks[buy] = bwi;
+            maxWeeks[buy] = bwi;
+         }
+         else
+         {
+            minWeeks[buy] = Math.min(minWeeks[buy], bwi);
+            maxWeeks[buy] = Math.max(maxWeeks[buy], bwi);
+         }
+         // Bids of a buy normally share one info object; map every one seen.
+         myBuySlotsByInfo.put(cbai, buy);
+         myBuyOfBid[col] = buy;
+      }
+
+      int buys = myBuySlotsByID.size();
+      myCampaignCount = campaignSlots.size();
+      myCampaignOfBuy = Arrays.copyOf(campaignOfBuy, buys);
+      myMinWeekOfBuy = Arrays.copyOf(minWeeks, buys);
+      myMaxWeekOfBuy = Arrays.copyOf(maxWeeks, buys);
+      myFirstWeekSlotOfBuy = new int[buys];
+      int weekSlots = 0;
+      for (int buy = 0; buy < buys; buy++)
+      {
+         myFirstWeekSlotOfBuy[buy] = weekSlots;
+         weekSlots += maxWeeks[buy] - minWeeks[buy] + 1;
+      }
+      myWeekCount = weekSlots;
+      myBuyOfWeek = new int[weekSlots];
+      for (int buy = 0; buy < buys; buy++)
+      {
+         int end = myFirstWeekSlotOfBuy[buy] + maxWeeks[buy] - minWeeks[buy] + 1;
+         Arrays.fill(myBuyOfWeek, myFirstWeekSlotOfBuy[buy], end, buy);
+      }
+   }
+
+   /**
+    * Fill the identity hash table of the bids, by column.
+    */
+   private void initBidTable(AuctionObjectShadow[] bids)
+   {
+      int capacity = Integer.highestOneBit(Math.max(bids.length, 1) * 2 + 1);
+      if (myBidTable.length < capacity || myBidTable.length > capacity * 4)
+      {
+         myBidTable = new AuctionObjectShadow[capacity];
+         myBidTableColumns = new int[capacity];
+      }
+      else
+      {
+         Arrays.fill(myBidTable, null);
+      }
+      int mask = myBidTable.length - 1;
+      for (int col = 0; col < bids.length; col++)
+      {
+         int h = hash(bids[col]) & mask;
+         while (myBidTable[h] != null)
+         {
+            h = (h + 1) & mask;
+         }
+         myBidTable[h] = bids[col];
+         myBidTableColumns[h] = col;
+      }
+   }
+
+   /**
+    * @param bid A bid.
+    * @return Column of the bid, or -1 if the bid is not in the auction.
+    */
+   int bidColumn(AuctionObjectShadow bid)
+   {
+      int mask = myBidTable.length - 1;
+      int h = hash(bid) & mask;
+      AuctionObjectShadow entry;
+      while ((entry = myBidTable[h]) != null)
+      {
+         if (entry == bid)
+         {
+            return myBidTableColumns[h];
+         }
+         h = (h + 1) & mask;
+      }
+      return -1;
+   }
+
+   /**
+    * @param col Column of a bid.
+    * @return Slot of the bid's buy.
+    */
+   int buyOfBid(int col)
+   {
+      return myBuyOfBid[col];
+   }
+
+   /**
+    * @param bid Bid in the auction.
+    * @return Slot of the bid's buy.
+    */
+   int buySlot(AuctionObjectShadow bid)
+   {
+      int col = bidColumn(bid);
+      return (col >= 0 ? myBuyOfBid[col] : buySlot(bid.auctionObj.campaignBuy));
+   }
+
+   /**
+    * @param cbai Campaign Buy of a bid in the auction.
+    * @return Slot of the buy.
+    */
+   int buySlot(CampaignBuyAuctionInfo cbai)
+   {
+      return myBuySlotsByInfo.get(cbai);
+   }
+
+   /**
+    * @param buyID Campaign Buy ID.
+    * @return Slot of the buy, or -1 if the buy has no bids in the auction.
+    */
+   int buySlot(int buyID)
+   {
+      Integer buy = myBuySlotsByID.get(buyID);
+      return (buy == null ? -1 : buy);
+   }
+
+   /**
+    * @param buy Slot of a buy.
+    * @return Slot of the buy's campaign.
+    */
+   int campaignSlot(int buy)
+   {
+      return myCampaignOfBuy[buy];
+   }
+
+   /**
+    * @param week Slot of a week.
+    * @return Slot of the week's buy.
+    */
+   int buyOfWeek(int week)
+   {
+      return myBuyOfWeek[week];
+   }
+
+   /**
+    * @param buy Slot of a buy.
+    * @param bwi Budget week index.
+    * @return true if the week is within the buy's weeks, i.e. has a slot.
+    */
+   boolean hasWeek(int buy, int bwi)
+   {
+      return (bwi >= myMinWeekOfBuy[buy] && bwi <= myMaxWeekOfBuy[buy]);
+   }
+
+   /**
+    * @param buy Slot of a buy.
+    * @param bwi Budget week index, within the buy's weeks.
+    * @return Slot of the buy's week.
+    */
+   int weekSlot(int buy, int bwi)
+   {
+      return myFirstWeekSlotOfBuy[buy] + (bwi - myMinWeekOfBuy[buy]);
+   }
+
+   /**
+    * @param buy Slot of a buy.
+    * @param bwi Budget week index, within the buy's weeks.
+    * @param dow Budget day of week.
+    * @return Slot of the buy's day.
+    */
+   int daySlot(int buy, int bwi, int dow)
+   {
+      return weekSlot(buy, bwi) * DAYS_PER_WEEK + dow;
+   }
+
+   /**
+    * @return Number of campaign slots.
+    */
+   int campaignCount()
+   {
+      return myCampaignCount;
+   }
+
+   /**
+    * @return Number of buy slots.
+    */
+   int buyCount()
+   {
+      return myCampaignOfBuy.length;
+   }
+
+   /**
+    * @return Number of week slots.
+    */
+   int weekCount()
+   {
+      return myWeekCount;
+   }
+
+   /**
+    * @return Number of day slots.
+    */
+   int dayCount()
+   {
+      return myWeekCount * DAYS_PER_WEEK;
+   }
+
+   /**
+    * Spread identity hash codes over the low bits used as table indexes.
+    */
+   private static int hash(AuctionObjectShadow bid)
+   {
+      int h = System.identityHashCode(bid);
+      return h ^ (h >>> 16);
+   }
+
+   /******************** Class members **************************/
+   static final int DAYS_PER_WEEK = 7;
+
+   /******************** Instance members **************************/
+   private final Map<Integer, Integer> myBuySlotsByID = new HashMap<Integer, Integer>();
+   private final Map<CampaignBuyAuctionInfo, Integer> myBuySlotsByInfo =
+      new IdentityHashMap<CampaignBuyAuctionInfo, Integer>();
+   private int myCampaignCount = 0;
+   private int myWeekCount = 0;
+   private int[] myCampaignOfBuy = new int[0];
+   private int[] myMinWeekOfBuy = new int[0];
+   private int[] myMaxWeekOfBuy = new int[0];
+   private int[] myFirstWeekSlotOfBuy = new int[0];
+   private int[] myBuyOfWeek = new int[0];
+   // Buy slot of each bid, by column.
+   private int[] myBuyOfBid = new int[0];
+   // Open-addressed identity hash table of the bids, and their columns.
+   private AuctionObjectShadow[] myBidTable = new AuctionObjectShadow[1];
+   private int[] myBidTableColumns = new int[1];
+}
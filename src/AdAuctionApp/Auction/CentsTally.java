@@ -0,0 +1,179 @@
+/**
+ * Part of a source code package originally written for the AdAuctionApp project.
+ * Intended for use as a programming work sample file only.  Not for distribution.
+ **/
+package AdAuctionApp.Auction;
+
+import java.util.Arrays;
+
+/**
+ * Allocation-free accumulator of spending (in cents) and impressions, keyed by
+ * long. The primitive counterpart of a map of AuctionTally objects, for the
+ * budget totals changed with every win or unroll: adding to an existing key
+ * creates no objects. Convert to Money (Money.newFromPennies()) only when the
+ * totals are reported.
+ *
+ * Keys are kept in an open-addressing hash table that only grows; entries can
+ * be visited in the order their keys were first added, by position.
+ *
+ * This class is NOT thread safe.
+ */
+final class CentsTally
+{
+   /**
+    * Add (or, with negative values, subtract) to the totals of a key.
+    *
+    * @param key Key of the totals.
+    * @param cents Spending, in cents.
+    * @param impressions Impressions.
+    */
+   void add(long key, long cents, long impressions)
+   {
+      int pos = find(key);
+      if (!myIsUsed[pos])
+      {
+         if ((myCount + 1) * 2 > myKeys.length)
+         {
+            grow();
+            pos = find(key);
+         }
+         myIsUsed[pos] = true;
+         myKeys[pos] = key;
+         myFilled[myCount++] = pos;
+      }
+      myCents[pos] += cents;
+      myImpressions[pos] += impressions;
+   }
+
+   /**
+    * @param key Key of the totals.
+    * @return Spending of the key, in cents; 0 if never added to.
+    */
+   long spending(long key)
+   {
+      int pos = find(key);
+      return (myIsUsed[pos] ? myCents[pos] : 0L);
+   }
+
+   /**
+    * @param key Key of the totals.
+    * @return Impressions of the key; 0 if never added to.
+    */
+   long impressions(long key)
+   {
+      int pos = find(key);
+      return (myIsUsed[pos] ? myImpressions[pos] : 0L);
+   }
+
+   /**
+    * @return Number of keys added to since the last clear().
+    */
+   int size()
+   {
+      return myCount;
+   }
+
+   /**
+    * @param k Position, 0 to size() - 1.
+    * @return Key at a position.
+    */
+   long keyAt(int k)
+   {
+      return myKeys[myFilled[k]];
+   }
+
+   /**
+    * @param k Position, 0 to size() - 1.
+    * @return Spending at a position, in cents.
+    */
+   long spendingAt(int k)
+   {
+      return myCents[myFilled[k]];
+   }
+
+   /**
+    * @param k Position, 0 to size() - 1.
+    * @return Impressions at a position.
+    */
+   long impressionsAt(int k)
+   {
+      return myImpressions[myFilled[k]];
+   }
+
+   /**
+    * Remove all keys. Takes time proportional to the number of keys, not the
+    * size of the table.
+    */
+   void clear()
+   {
+      for (int k = 0; k < myCount; k++)
+      {
+         int pos = myFilled[k];
+         myIsUsed[pos] = false;
+         myCents[pos] = 0L;
+         myImpressions[pos] = 0L;
+      }
+      myCount = 0;
+   }
+
+   /**
+    * Make a key from a scope slot and the ID of a breakdown within it
+    * (daypart, channel, demographic).
+    */
+   static long key(int slot, int id)
+   {
+      return (((long) slot) << 32) | (id & 0xFFFFFFFFL);
+   }
+
+   /**
+    * @return Table position holding a key, or the free position where it
+    *         would be added.
+    */
+   private int find(long key)
+   {
+      int mask = myKeys.length - 1;
+      long h = key * 0x9E3779B97F4A7C15L;
+      int pos = (int) (h >>> 32) & mask;
+      while (myIsUsed[pos] && myKeys[pos] != key)
+      {
+         pos = (pos + 1) & mask;
+      }
+      return pos;
+   }
+
+   private void grow()
+   {
+      long[] keys = myKeys;
+      long[] cents = myCents;
+      long[] impressions = myImpressions;
+      int[] filled = Arrays.copyOf(myFilled, myCount);
+      int size = keys.length * 2;
+      myKeys = new long[size];
+      myCents = new long[size];
+      myImpressions = new long[size];
+      myIsUsed = new boolean[size];
+      myFilled = new int[size];
+      for (int k = 0; k < filled.length; k++)
+      {
+         int old = filled[k];
+         int pos = find(keys[old]);
+         myIsUsed[pos] = true;
+         myKeys[pos] = keys[old];
+         myCents[pos] = cents[old];
+         myImpressions[pos] = impressions[old];
+         myFilled[k] = pos;
+      }
+   }
+
+   /******************** Class members **************************/
+   private static final int INITIAL_SIZE = 64;
+
+   /******************** Instance members **************************/
+   private long[] myKeys = new long[INITIAL_SIZE];
+   private long[] myCents = new long[INITIAL_SIZE];
+   private long[] myImpressions = new long[INITIAL_SIZE];
+   private boolean[] myIsUsed = new boolean[INITIAL_SIZE];
+   // Table positions in use, in the order their keys were added.
+   private int[] myFilled = new int[INITIAL_SIZE];
+   private int myCount = 0;
+}
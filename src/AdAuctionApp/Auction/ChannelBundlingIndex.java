@@ -0,0 +1,256 @@
+/**
+ * Part of a source code package originally written for the AdAuctionApp project.
+ * Intended for use as a programming work sample file only.  Not for distribution.
+ **/
+package AdAuctionApp.Auction;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import AdAuctionApp.Cache.Central.BreakView;
+import AdAuctionApp.Cache.Central.CampaignBuyAuctionInfo;
+import AdAuctionApp.Cache.Central.ChannelBundlingInfo;
+import AdAuctionApp.Cache.Central.Spot;
+
+/**
+ * Index of the ranked candidates of an auction pass that can help fulfill a
+ * channel bundling requirement: for each buy with a bundling requirement, its
+ * candidates grouped by org and channel (a "lane"), each lane in rank order.
+ * Segmented bids, and future bids in a real auction, are never used for
+ * bundling and are left out.
+ *
+ * A bundling lookahead for a winning bid merges the lanes of the bid's buy on
+ * eligible orgs, so it visits exactly the bids, in the same rank order, that
+ * a scan of the rest of the ranked list would consider, without visiting the
+ * bids of other buys or orgs. A lane is dropped from the lookahead as soon as
+ * its channel is fulfilled.
+ *
+ * Lanes are kept up to date as bids win or lose: a bid that is no longer
+ * IN_PLAY cannot win again this pass, so it is passed over for good, along
+ * with the bids ranked above the current winner. This relies on the winner
+ * loop visiting bids in rank order.
+ *
+ * This class is NOT thread safe.
+ */
+final class ChannelBundlingIndex
+{
+   /**
+    * Index the ranked candidates of a pass. Forgets any previous index.
+    *
+    * @param rankedList Candidates in rank order; each bid's biddingIndex must
+    *        be its position in the list.
+    * @param skipFutures true if future bids cannot be used for bundling.
+    */
+   void load(List<AuctionObjectShadow> rankedList, boolean skipFutures)
+   {
+      clear();
+      for (AuctionObjectShadow bid : rankedList)
+      {
+         if (bid.hasChannelBundlingReq())
+         {
+            CampaignBuyAuctionInfo buy = bid.auctionObj.campaignBuy;
+            if (!myLanesByBuy.containsKey(buy))
+            {
+               myLanesByBuy.put(buy, new HashMap<Integer, Map<Integer, Lane>>());
+            }
+         }
+      }
+      if (!myLanesByBuy.isEmpty())
+      {
+         for (AuctionObjectShadow bid : rankedList)
+         {
+            Map<Integer, Map<Integer, Lane>> orgs =
+               myLanesByBuy.get(bid.auctionObj.campaignBuy);
+            Spot spot = bid.auctionObj.spot;
+            if (orgs == null || spot.isSegmented()
+               || (spot.isFuture && skipFutures))
+            {
+               continue;
+            }
+            BreakView bv = spot.breakView;
+            Map<Integer, Lane> chans = orgs.get(bv.orgId);
+            if (chans == null)
+            {
+               chans = new HashMap<Integer, Lane>();
+               orgs.put(bv.orgId, chans);
+            }
+            Lane lane = chans.get(bv.channelId);
+            if (lane == null)
+            {
+               lane = new Lane(bv.channelId);
+               chans.put(bv.channelId, lane);
+            }
+            lane.bids.add(bid);
+         }
+      }
+      myIsLoaded = true;
+   }
+
+   /**
+    * @return true if an index has been loaded since the last clear().
+    */
+   boolean isLoaded()
+   {
+      return myIsLoaded;
+   }
+
+   /**
+    * Forget the index.
+    */
+   void clear()
+   {
+      myLanesByBuy.clear();
+      Arrays.fill(myActive, 0, myActiveCount, null);
+      myActiveCount = 0;
+      myIsLoaded = false;
+   }
+
+   /**
+    * Begin a lookahead for a winnable bid with a bundling requirement: gather
+    * the lanes of its buy on the orgs eligible to fulfill the requirement of
+    * its avail's org.
+    *
+    * @param winBid Bid being evaluated.
+    * @param bundleInfo Channel bundling info of the bid's buy.
+    */
+   void beginLookahead(AuctionObjectShadow winBid, ChannelBundlingInfo bundleInfo)
+   {
+      Arrays.fill(myActive, 0, myActiveCount, null);
+      myActiveCount = 0;
+      Map<Integer, Map<Integer, Lane>> orgs =
+         myLanesByBuy.get(winBid.auctionObj.campaignBuy);
+      if (orgs == null)
+      {
+         return;
+      }
+      int winOrgID = winBid.auctionObj.spot.breakView.orgId;
+      for (Map.Entry<Integer, Map<Integer, Lane>> org : orgs.entrySet())
+      {
+         if (!bundleInfo.canOrgInventoryBeUsedToBundle(winOrgID, org.getKey()))
+         {
+            continue;
+         }
+         for (Lane lane : org.getValue().values())
+         {
+            if (lane.skipToLive(winBid.biddingIndex))
+            {
+               if (myActiveCount == myActive.length)
+               {
+                  myActive = Arrays.copyOf(myActive, myActiveCount * 2);
+               }
+               lane.cursor = lane.head;
+               myActive[myActiveCount++] = lane;
+            }
+         }
+      }
+   }
+
+   /**
+    * Get the next bid of the lookahead, in rank order.
+    *
+    * @param chanIDs Channels already fulfilled; their bids are passed over.
+    * @return Next bid that may help fulfill the requirement, or null if none
+    *         is left.
+    */
+   AuctionObjectShadow nextCandidate(Set<Integer> chanIDs)
+   {
+      Lane best = null;
+      AuctionObjectShadow bestBid = null;
+      int k = 0;
+      while (k < myActiveCount)
+      {
+         Lane lane = myActive[k];
+         AuctionObjectShadow bid =
+            (chanIDs.contains(lane.chanID) ? null : lane.peek());
+         if (bid == null)
+         {
+            // Lane is fulfilled or used up.
+            myActive[k] = myActive[--myActiveCount];
+            myActive[myActiveCount] = null;
+            continue;
+         }
+         if (bestBid == null || bid.biddingIndex < bestBid.biddingIndex)
+         {
+            best = lane;
+            bestBid = bid;
+         }
+         k++;
+      }
+      if (best != null)
+      {
+         best.cursor++;
+      }
+      return bestBid;
+   }
+
+   /**
+    * Bids of a buy on a single channel, in rank order.
+    */
+   private static final class Lane
+   {
+      Lane(int chanID)
+      {
+         this.chanID = chanID;
+      }
+
+      /**
+       * Pass over, for good, the bids ranked at or above a winner's position
+       * and the bids no longer in play.
+       *
+       * @return true if any bid is left.
+       */
+      boolean skipToLive(int winIndex)
+      {
+         while (head < bids.size())
+         {
+            AuctionObjectShadow bid = bids.get(head);
+            if (bid.biddingIndex > winIndex
+               && bid.auctionState == AuctionStatus.IN_PLAY)
+            {
+               return true;
+            }
+            head++;
+         }
+         return false;
+      }
+
+      /**
+       * @return Bid at the lookahead cursor, skipping bids no longer in play,
+       *         or null if none is left.
+       */
+      AuctionObjectShadow peek()
+      {
+         while (cursor < bids.size())
+         {
+            AuctionObjectShadow bid = bids.get(cursor);
+            if (bid.auctionState == AuctionStatus.IN_PLAY)
+            {
+               return bid;
+            }
+            cursor++;
+         }
+         return null;
+      }
+
+      final int chanID;
+      final List<AuctionObjectShadow> bids = new ArrayList<AuctionObjectShadow>();
+      // First bid that may still be used this pass.
+      int head = 0;
+      // Next bid of the current lookahead.
+      int cursor = 0;
+   }
+
+   /******************** Instance members **************************/
+   // Lanes by buy (compared by reference), org ID and channel ID.
+   private final Map<CampaignBuyAuctionInfo, Map<Integer, Map<Integer, Lane>>> myLanesByBuy =
+      new IdentityHashMap<CampaignBuyAuctionInfo, Map<Integer, Map<Integer, Lane>>>();
+   private boolean myIsLoaded = false;
+   // Lanes of the current lookahead.
+   private Lane[] myActive = new Lane[16];
+   private int myActiveCount = 0;
+}
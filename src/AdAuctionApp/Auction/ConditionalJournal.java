@@ -0,0 +1,160 @@
+/**
+ * Part of a source code package originally written for the AdAuctionApp project.
+ * Intended for use as a programming work sample file only.  Not for distribution.
+ **/
+package AdAuctionApp.Auction;
+
+import java.util.Arrays;
+
+/**
+ * Journal of the conditional (speculative) wins currently applied to an
+ * auction's totals, in the order they were applied, along with the cost and
+ * impressions each one added and the tallies and buy slot they were added to.
+ * A savepoint is simply the journal's size; rolling back to it unrolls the
+ * entries above it, newest first. Savepoints nest.
+ *
+ * Unrolling an entry subtracts exactly the amounts recorded when it was
+ * applied, from the recorded tallies, so totals are restored even if the
+ * bid's cost has changed since, without looking the tallies up again.
+ * Wins are almost always unrolled newest first, which pops the top entry; a
+ * win unrolled out of order is searched for and removed.
+ *
+ * This class is NOT thread safe.
+ */
+final class ConditionalJournal
+{
+   /**
+    * Record a conditional win.
+    *
+    * @param bid Bid applied to the totals.
+    * @param cents Cost added, in cents.
+    * @param impressions Impressions added.
+    * @param campaignTally Tally of the bid's campaign.
+    * @param buyTally Tally of the bid's buy.
+    * @param buy Budget slot of the bid's buy.
+    */
+   void push(AuctionObjectShadow bid, long cents, long impressions,
+      CampaignAuctionTally campaignTally, CampaignBuyAuctionTally buyTally,
+      int buy)
+   {
+      if (mySize == myBids.length)
+      {
+         int size = mySize * 2;
+         myBids = Arrays.copyOf(myBids, size);
+         myCents = Arrays.copyOf(myCents, size);
+         myImpressions = Arrays.copyOf(myImpressions, size);
+         myCampaignTallies = Arrays.copyOf(myCampaignTallies, size);
+         myBuyTallies = Arrays.copyOf(myBuyTallies, size);
+         myBuySlots = Arrays.copyOf(myBuySlots, size);
+      }
+      myBids[mySize] = bid;
+      myCents[mySize] = cents;
+      myImpressions[mySize] = impressions;
+      myCampaignTallies[mySize] = campaignTally;
+      myBuyTallies[mySize] = buyTally;
+      myBuySlots[mySize] = buy;
+      mySize++;
+   }
+
+   /**
+    * Find the newest entry of a bid, checking the top entry first.
+    *
+    * @param bid Bid to find.
+    * @return Position of the entry, or -1 if the bid has no entry.
+    */
+   int find(AuctionObjectShadow bid)
+   {
+      for (int k = mySize - 1; k >= 0; k--)
+      {
+         if (myBids[k] == bid)
+         {
+            return k;
+         }
+      }
+      return -1;
+   }
+
+   /**
+    * Remove an entry, keeping the order of the others.
+    *
+    * @param k Position of the entry.
+    */
+   void remove(int k)
+   {
+      int tail = mySize - k - 1;
+      if (tail > 0)
+      {
+         System.arraycopy(myBids, k + 1, myBids, k, tail);
+         System.arraycopy(myCents, k + 1, myCents, k, tail);
+         System.arraycopy(myImpressions, k + 1, myImpressions, k, tail);
+         System.arraycopy(myCampaignTallies, k + 1, myCampaignTallies, k, tail);
+         System.arraycopy(myBuyTallies, k + 1, myBuyTallies, k, tail);
+         System.arraycopy(myBuySlots, k + 1, myBuySlots, k, tail);
+      }
+      mySize--;
+      myBids[mySize] = null;
+      myCampaignTallies[mySize] = null;
+      myBuyTallies[mySize] = null;
+   }
+
+   /**
+    * @return Number of entries; also the current savepoint.
+    */
+   int size()
+   {
+      return mySize;
+   }
+
+   AuctionObjectShadow bid(int k)
+   {
+      return myBids[k];
+   }
+
+   long cents(int k)
+   {
+      return myCents[k];
+   }
+
+   long impressions(int k)
+   {
+      return myImpressions[k];
+   }
+
+   CampaignAuctionTally campaignTally(int k)
+   {
+      return myCampaignTallies[k];
+   }
+
+   CampaignBuyAuctionTally buyTally(int k)
+   {
+      return myBuyTallies[k];
+   }
+
+   int buySlot(int k)
+   {
+      return myBuySlots[k];
+   }
+
+   /**
+    * Forget all entries, without unrolling them.
+    */
+   void clear()
+   {
+      Arrays.fill(myBids, 0, mySize, null);
+      Arrays.fill(myCampaignTallies, 0, mySize, null);
+      Arrays.fill(myBuyTallies, 0, mySize, null);
+      mySize = 0;
+   }
+
+   /******************** Class members **************************/
+   private static final int INITIAL_SIZE = 16;
+
+   /******************** Instance members **************************/
+   private AuctionObjectShadow[] myBids = new AuctionObjectShadow[INITIAL_SIZE];
+   private long[] myCents = new long[INITIAL_SIZE];
+   private long[] myImpressions = new long[INITIAL_SIZE];
+   private CampaignAuctionTally[] myCampaignTallies = new CampaignAuctionTally[INITIAL_SIZE];
+   private CampaignBuyAuctionTally[] myBuyTallies = new CampaignBuyAuctionTally[INITIAL_SIZE];
+   private int[] myBuySlots = new int[INITIAL_SIZE];
+   private int mySize = 0;
+}
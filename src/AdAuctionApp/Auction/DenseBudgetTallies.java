@@ -0,0 +1,472 @@
+/**
+ * Part of a source code package originally written for the AdAuctionApp project.
+ * Intended for use as a programming work sample file only.  Not for distribution.
+ **/
+package AdAuctionApp.Auction;
+
+import java.util.Map;
+
+import AdAuctionApp.Cache.CacheConstants.DemographicQualityType;
+import AdAuctionApp.Core.AuctionTally;
+import AdAuctionApp.Core.Money;
+
+/**
+ * Flat-array copy of the spending and impression totals AuctionBudget checks
+ * for every candidate winner: per campaign, per buy, per buy week and per buy
+ * day, indexed by BudgetSlots, along with each buy's future and current avail
+ * totals. Spending is kept in cents, so adding or unrolling a win creates no
+ * objects.
+ *
+ * While in use, these arrays (not the tally objects) hold the current totals:
+ * they are loaded from the tally objects when the budget is reset, and
+ * written back to the tally objects only when the tallies are reported.
+ *
+ * The daypart, channel and demographic breakdowns of each buy and buy week
+ * are not copied; instead, the changes made to them since the last write-back
+ * are kept (in CentsTally's), and are added to the tally objects' values when
+ * they are read, or applied to the tally objects on write-back.
+ *
+ * This class is NOT thread safe.
+ */
+final class DenseBudgetTallies
+{
+   /**
+    * Constructor.
+    *
+    * @param slots Dense indexes of the auction's budget scopes.
+    */
+   DenseBudgetTallies(BudgetSlots slots)
+   {
+      mySlots = slots;
+   }
+
+   /**
+    * Size the arrays for the slots of a new auction. Must be called after the
+    * slots are initialized, and followed by load().
+    */
+   void init()
+   {
+      myCampaignSpending = new long[mySlots.campaignCount()];
+      myCampaignImpressions = new long[mySlots.campaignCount()];
+      myBuySpending = new long[mySlots.buyCount()];
+      myBuyImpressions = new long[mySlots.buyCount()];
+      myWeekSpending = new long[mySlots.weekCount()];
+      myWeekImpressions = new long[mySlots.weekCount()];
+      myDaySpending = new long[mySlots.dayCount()];
+      myDayImpressions = new long[mySlots.dayCount()];
+      myFutureSpending = new long[mySlots.buyCount()];
+      myFutureImpressions = new long[mySlots.buyCount()];
+      myCurSpending = new long[mySlots.buyCount()];
+      myCurImpressions = new long[mySlots.buyCount()];
+      myBuyTallies = new CampaignBuyAuctionTally[mySlots.buyCount()];
+      myWeekTallies = new WeeklyAuctionTally[mySlots.weekCount()];
+   }
+
+   /**
+    * Load all totals from the tally objects.
+    *
+    * @param talliesByCampaignID Tally objects of the auction.
+    */
+   void load(Map<Integer, CampaignAuctionTally> talliesByCampaignID)
+   {
+      clearChanges();
+      for (CampaignAuctionTally cas : talliesByCampaignID.values())
+      {
+         for (Map.Entry<Integer, CampaignBuyAuctionTally> e : cas.talliesByCampaignBuyID.entrySet())
+         {
+            int buy = mySlots.buySlot(e.getKey());
+            if (buy < 0)
+            {
+               continue;
+            }
+            CampaignBuyAuctionTally cbt = e.getValue();
+            int campaign = mySlots.campaignSlot(buy);
+            myCampaignSpending[campaign] = cas.spending.valueInCents();
+            myCampaignImpressions[campaign] = cas.impressions;
+            myBuySpending[buy] = cbt.spending.valueInCents();
+            myBuyImpressions[buy] = cbt.impressions;
+            myFutureSpending[buy] = cbt.futureAvailSpending.valueInCents();
+            myFutureImpressions[buy] = cbt.futureAvailImpressions;
+            myCurSpending[buy] = cbt.curAvailSpending.valueInCents();
+            myCurImpressions[buy] = cbt.curAvailImpressions;
+            myBuyTallies[buy] = cbt;
+            for (Map.Entry<Integer, WeeklyAuctionTally> we : cbt.weeklyTally.entrySet())
+            {
+               // Weeks with no bids in the auction have no slot; their
+               // totals cannot change.
+               if (!mySlots.hasWeek(buy, we.getKey()))
+               {
+                  continue;
+               }
+               int week = mySlots.weekSlot(buy, we.getKey());
+               WeeklyAuctionTally wk = we.getValue();
+               myWeekSpending[week] = wk.spending.valueInCents();
+               myWeekImpressions[week] = wk.impressions;
+               myWeekTallies[week] = wk;
+               int days = Math.min(wk.dailyTallies.length, BudgetSlots.DAYS_PER_WEEK);
+               for (int dow = 0; dow < days; dow++)
+               {
+                  AuctionTally day = wk.dailyTallies[dow];
+                  myDaySpending[week * BudgetSlots.DAYS_PER_WEEK + dow] = day.spending.valueInCents();
+                  myDayImpressions[week * BudgetSlots.DAYS_PER_WEEK + dow] = day.impressions;
+               }
+            }
+         }
+      }
+   }
+
+   /**
+    * Write all totals back to the tally objects.
+    *
+    * @param talliesByCampaignID Tally objects of the auction.
+    */
+   void store(Map<Integer, CampaignAuctionTally> talliesByCampaignID)
+   {
+      for (CampaignAuctionTally cas : talliesByCampaignID.values())
+      {
+         for (Map.Entry<Integer, CampaignBuyAuctionTally> e : cas.talliesByCampaignBuyID.entrySet())
+         {
+            int buy = mySlots.buySlot(e.getKey());
+            if (buy < 0)
+            {
+               continue;
+            }
+            CampaignBuyAuctionTally cbt = e.getValue();
+            int campaign = mySlots.campaignSlot(buy);
+            cas.spending = Money.newFromPennies(myCampaignSpending[campaign]);
+            cas.impressions = myCampaignImpressions[campaign];
+            cbt.spending = Money.newFromPennies(myBuySpending[buy]);
+            cbt.impressions = myBuyImpressions[buy];
+            cbt.futureAvailSpending = Money.newFromPennies(myFutureSpending[buy]);
+            cbt.futureAvailImpressions = myFutureImpressions[buy];
+            cbt.curAvailSpending = Money.newFromPennies(myCurSpending[buy]);
+            cbt.curAvailImpressions = myCurImpressions[buy];
+            for (Map.Entry<Integer, WeeklyAuctionTally> we : cbt.weeklyTally.entrySet())
+            {
+               if (!mySlots.hasWeek(buy, we.getKey()))
+               {
+                  continue;
+               }
+               int week = mySlots.weekSlot(buy, we.getKey());
+               WeeklyAuctionTally wk = we.getValue();
+               wk.spending = Money.newFromPennies(myWeekSpending[week]);
+               wk.impressions = myWeekImpressions[week];
+               int days = Math.min(wk.dailyTallies.length, BudgetSlots.DAYS_PER_WEEK);
+               for (int dow = 0; dow < days; dow++)
+               {
+                  AuctionTally day = wk.dailyTallies[dow];
+                  day.spending = Money.newFromPennies(myDaySpending[week * BudgetSlots.DAYS_PER_WEEK + dow]);
+                  day.impressions = myDayImpressions[week * BudgetSlots.DAYS_PER_WEEK + dow];
+               }
+            }
+         }
+      }
+      storeChanges();
+   }
+
+   /**
+    * Add (or, with negative values, unroll) a win to the campaign, buy, week
+    * and day totals.
+    *
+    * @param buy Slot of the winning bid's buy.
+    * @param bwi Budget week index of the bid's spot.
+    * @param dow Budget day of week of the bid's spot.
+    * @param cents Cost of the bid, in cents.
+    * @param impressions Impressions of the bid.
+    */
+   void add(int buy, int bwi, int dow, long cents, long impressions)
+   {
+      int campaign = mySlots.campaignSlot(buy);
+      int week = mySlots.weekSlot(buy, bwi);
+      int day = week * BudgetSlots.DAYS_PER_WEEK + dow;
+      myCampaignSpending[campaign] += cents;
+      myCampaignImpressions[campaign] += impressions;
+      myBuySpending[buy] += cents;
+      myBuyImpressions[buy] += impressions;
+      myWeekSpending[week] += cents;
+      myWeekImpressions[week] += impressions;
+      myDaySpending[day] += cents;
+      myDayImpressions[day] += impressions;
+   }
+
+   /**
+    * Add (or, with negative values, unroll) a win to a buy's future or
+    * current avail totals.
+    *
+    * @param buy Slot of the winning bid's buy.
+    * @param isFuture True if the bid's spot is a future avail.
+    * @param cents Cost of the bid, in cents.
+    * @param impressions Impressions of the bid.
+    */
+   void addAvail(int buy, boolean isFuture, long cents, long impressions)
+   {
+      if (isFuture)
+      {
+         myFutureSpending[buy] += cents;
+         myFutureImpressions[buy] += impressions;
+      }
+      else
+      {
+         myCurSpending[buy] += cents;
+         myCurImpressions[buy] += impressions;
+      }
+   }
+
+   /**
+    * Add (or, with negative values, unroll) a win to the daypart, channel
+    * and demographic breakdowns of a buy and of its week.
+    *
+    * @param buy Slot of the winning bid's buy.
+    * @param bwi Budget week index of the bid's spot.
+    * @param daypartID Daypart of the bid's spot.
+    * @param channelID Channel of the bid's spot.
+    * @param quality Demographic quality of the bid's spot.
+    * @param cents Cost of the bid, in cents.
+    * @param impressions Impressions of the bid.
+    */
+   void addBreakdowns(int buy, int bwi, int daypartID, int channelID,
+      DemographicQualityType quality, long cents, long impressions)
+   {
+      int week = mySlots.weekSlot(buy, bwi);
+      myBuyDaypartChanges.add(CentsTally.key(buy, daypartID), cents, impressions);
+      myBuyChannelChanges.add(CentsTally.key(buy, channelID), cents, impressions);
+      myBuyDemographicChanges.add(CentsTally.key(buy, quality.ordinal()), cents, impressions);
+      if (myWeekTallies[week] != null)
+      {
+         myWeekDaypartChanges.add(CentsTally.key(week, daypartID), cents, impressions);
+         myWeekChannelChanges.add(CentsTally.key(week, channelID), cents, impressions);
+         myWeekDemographicChanges.add(CentsTally.key(week, quality.ordinal()), cents, impressions);
+      }
+   }
+
+   /**
+    * @return Change in a buy's daypart spending since the last write-back, in
+    *         cents. Likewise for the other breakdown getters below.
+    */
+   long buyDaypartSpendingChange(int buy, int daypartID)
+   {
+      return myBuyDaypartChanges.spending(CentsTally.key(buy, daypartID));
+   }
+
+   long buyDaypartImpressionsChange(int buy, int daypartID)
+   {
+      return myBuyDaypartChanges.impressions(CentsTally.key(buy, daypartID));
+   }
+
+   long buyChannelSpendingChange(int buy, int channelID)
+   {
+      return myBuyChannelChanges.spending(CentsTally.key(buy, channelID));
+   }
+
+   long buyChannelImpressionsChange(int buy, int channelID)
+   {
+      return myBuyChannelChanges.impressions(CentsTally.key(buy, channelID));
+   }
+
+   long buyDemographicSpendingChange(int buy, DemographicQualityType quality)
+   {
+      return myBuyDemographicChanges.spending(CentsTally.key(buy, quality.ordinal()));
+   }
+
+   long buyDemographicImpressionsChange(int buy, DemographicQualityType quality)
+   {
+      return myBuyDemographicChanges.impressions(CentsTally.key(buy, quality.ordinal()));
+   }
+
+   long weekDaypartSpendingChange(int buy, int bwi, int daypartID)
+   {
+      return myWeekDaypartChanges.spending(CentsTally.key(mySlots.weekSlot(buy, bwi), daypartID));
+   }
+
+   long weekDaypartImpressionsChange(int buy, int bwi, int daypartID)
+   {
+      return myWeekDaypartChanges.impressions(CentsTally.key(mySlots.weekSlot(buy, bwi), daypartID));
+   }
+
+   long weekChannelSpendingChange(int buy, int bwi, int channelID)
+   {
+      return myWeekChannelChanges.spending(CentsTally.key(mySlots.weekSlot(buy, bwi), channelID));
+   }
+
+   long weekChannelImpressionsChange(int buy, int bwi, int channelID)
+   {
+      return myWeekChannelChanges.impressions(CentsTally.key(mySlots.weekSlot(buy, bwi), channelID));
+   }
+
+   long weekDemographicSpendingChange(int buy, int bwi, DemographicQualityType quality)
+   {
+      return myWeekDemographicChanges.spending(
+         CentsTally.key(mySlots.weekSlot(buy, bwi), quality.ordinal()));
+   }
+
+   long weekDemographicImpressionsChange(int buy, int bwi, DemographicQualityType quality)
+   {
+      return myWeekDemographicChanges.impressions(
+         CentsTally.key(mySlots.weekSlot(buy, bwi), quality.ordinal()));
+   }
+
+   /**
+    * @param buy Slot of a buy.
+    * @return Spending of the buy's campaign, in cents.
+    */
+   long campaignSpending(int buy)
+   {
+      return myCampaignSpending[mySlots.campaignSlot(buy)];
+   }
+
+   /**
+    * @param buy Slot of a buy.
+    * @return Impressions of the buy's campaign.
+    */
+   long campaignImpressions(int buy)
+   {
+      return myCampaignImpressions[mySlots.campaignSlot(buy)];
+   }
+
+   /**
+    * @param buy Slot of a buy.
+    * @return Spending of the buy, in cents.
+    */
+   long buySpending(int buy)
+   {
+      return myBuySpending[buy];
+   }
+
+   /**
+    * @param buy Slot of a buy.
+    * @return Impressions of the buy.
+    */
+   long buyImpressions(int buy)
+   {
+      return myBuyImpressions[buy];
+   }
+
+   /**
+    * @param buy Slot of a buy.
+    * @param bwi Budget week index.
+    * @return Spending of the buy in the week, in cents.
+    */
+   long weekSpending(int buy, int bwi)
+   {
+      return myWeekSpending[mySlots.weekSlot(buy, bwi)];
+   }
+
+   /**
+    * @param buy Slot of a buy.
+    * @param bwi Budget week index.
+    * @return Impressions of the buy in the week.
+    */
+   long weekImpressions(int buy, int bwi)
+   {
+      return myWeekImpressions[mySlots.weekSlot(buy, bwi)];
+   }
+
+   /**
+    * @param buy Slot of a buy.
+    * @param bwi Budget week index.
+    * @param dow Budget day of week.
+    * @return Spending of the buy on the day, in cents.
+    */
+   long daySpending(int buy, int bwi, int dow)
+   {
+      return myDaySpending[mySlots.daySlot(buy, bwi, dow)];
+   }
+
+   /**
+    * @param buy Slot of a buy.
+    * @param bwi Budget week index.
+    * @param dow Budget day of week.
+    * @return Impressions of the buy on the day.
+    */
+   long dayImpressions(int buy, int bwi, int dow)
+   {
+      return myDayImpressions[mySlots.daySlot(buy, bwi, dow)];
+   }
+
+   /**
+    * Apply the breakdown changes to the tally objects of the last load(), and
+    * forget them.
+    */
+   private void storeChanges()
+   {
+      DemographicQualityType[] qualities = DemographicQualityType.values();
+      for (int k = 0; k < myBuyDaypartChanges.size(); k++)
+      {
+         long key = myBuyDaypartChanges.keyAt(k);
+         myBuyTallies[(int) (key >>> 32)].daypartTally.updateTally((int) key,
+            Money.newFromPennies(myBuyDaypartChanges.spendingAt(k)),
+            myBuyDaypartChanges.impressionsAt(k));
+      }
+      for (int k = 0; k < myBuyChannelChanges.size(); k++)
+      {
+         long key = myBuyChannelChanges.keyAt(k);
+         myBuyTallies[(int) (key >>> 32)].channelTally.updateTally((int) key,
+            Money.newFromPennies(myBuyChannelChanges.spendingAt(k)),
+            myBuyChannelChanges.impressionsAt(k));
+      }
+      for (int k = 0; k < myBuyDemographicChanges.size(); k++)
+      {
+         long key = myBuyDemographicChanges.keyAt(k);
+         myBuyTallies[(int) (key >>> 32)].demographicTally.updateTally(qualities[(int) key],
+            Money.newFromPennies(myBuyDemographicChanges.spendingAt(k)),
+            myBuyDemographicChanges.impressionsAt(k));
+      }
+      for (int k = 0; k < myWeekDaypartChanges.size(); k++)
+      {
+         long key = myWeekDaypartChanges.keyAt(k);
+         myWeekTallies[(int) (key >>> 32)].updateDaypartTally((int) key,
+            Money.newFromPennies(myWeekDaypartChanges.spendingAt(k)),
+            myWeekDaypartChanges.impressionsAt(k));
+      }
+      for (int k = 0; k < myWeekChannelChanges.size(); k++)
+      {
+         long key = myWeekChannelChanges.keyAt(k);
+         myWeekTallies[(int) (key >>> 32)].updateChannelTally((int) key,
+            Money.newFromPennies(myWeekChannelChanges.spendingAt(k)),
+            myWeekChannelChanges.impressionsAt(k));
+      }
+      for (int k = 0; k < myWeekDemographicChanges.size(); k++)
+      {
+         long key = myWeekDemographicChanges.keyAt(k);
+         myWeekTallies[(int) (key >>> 32)].updateDemographicTally(qualities[(int) key],
+            Money.newFromPennies(myWeekDemographicChanges.spendingAt(k)),
+            myWeekDemographicChanges.impressionsAt(k));
+      }
+      clearChanges();
+   }
+
+   private void clearChanges()
+   {
+      myBuyDaypartChanges.clear();
+      myBuyChannelChanges.clear();
+      myBuyDemographicChanges.clear();
+      myWeekDaypartChanges.clear();
+      myWeekChannelChanges.clear();
+      myWeekDemographicChanges.clear();
+   }
+
+   /******************** Instance members **************************/
+   private final BudgetSlots mySlots;
+   private long[] myCampaignSpending = new long[0];
+   private long[] myCampaignImpressions = new long[0];
+   private long[] myBuySpending = new long[0];
+   private long[] myBuyImpressions = new long[0];
+   private long[] myWeekSpending = new long[0];
+   private long[] myWeekImpressions = new long[0];
+   private long[] myDaySpending = new long[0];
+   private long[] myDayImpressions = new long[0];
+   private long[] myFutureSpending = new long[0];
+   private long[] myFutureImpressions = new long[0];
+   private long[] myCurSpending = new long[0];
+   private long[] myCurImpressions = new long[0];
+   // Tally objects of the last load(), by buy and week slot.
+   private CampaignBuyAuctionTally[] myBuyTallies = new CampaignBuyAuctionTally[0];
+   private WeeklyAuctionTally[] myWeekTallies = new WeeklyAuctionTally[0];
+   // Breakdown changes since the last write-back, keyed by slot and ID.
+   private final CentsTally myBuyDaypartChanges = new CentsTally();
+   private final CentsTally myBuyChannelChanges = new CentsTally();
+   private final CentsTally myBuyDemographicChanges = new CentsTally();
+   private final CentsTally myWeekDaypartChanges = new CentsTally();
+   private final CentsTally myWeekChannelChanges = new CentsTally();
+   private final CentsTally myWeekDemographicChanges = new CentsTally();
+}
@@ -0,0 +1,231 @@
+/**
+ * Part of a source code package originally written for the AdAuctionApp project.
+ * Intended for use as a programming work sample file only.  Not for distribution.
+ **/
+package AdAuctionApp.Auction;
+
+import java.util.Arrays;
+
+/**
+ * The live, ranked set of bids that can still win during a single auction, kept
+ * across auction passes so each pass does not re-rank every bid.
+ *
+ * Between passes the set only shrinks: a bid is dropped once it has lost for
+ * good (its avail or segment has been sold, it is out of program, or it is
+ * permanently disqualified), since resetUnsoldBidderStatus() will never put it
+ * back in play. Bids remaining in the set keep their ranked order; after CPMs
+ * are assigned, only the bids whose rank keys changed are sorted, and are
+ * merged back into that order.
+ *
+ * All orders hold column indexes of a BidColumns. The full order is always a
+ * permutation of every column: the in-play set, ranked, followed by the
+ * dropped bids.
+ *
+ * This class is NOT thread safe.
+ */
+final class InPlayBids
+{
+   /**
+    * Constructor.
+    *
+    * @param cols Columns of all bids in the auction.
+    */
+   InPlayBids(BidColumns cols)
+   {
+      int n = cols.size();
+      myCols = cols;
+      myOrder = new int[n];
+      myPassOrder = new int[n];
+      myChanged = new int[n];
+      myIsChanged = new boolean[n];
+   }
+
+   /**
+    * Put every bid back in play and reload all columns. Must be called at the
+    * start of each auction, once bid values have been reset.
+    */
+   void reset()
+   {
+      int n = myCols.size();
+      for (int i = 0; i < n; i++)
+      {
+         myOrder[i] = i;
+      }
+      myCount = n;
+      myIsRanked = false;
+      Arrays.fill(myIsChanged, false);
+      myCols.refresh();
+   }
+
+   /**
+    * Drop bids that can no longer win in this auction. The dropped bids keep
+    * their columns as of their last refresh.
+    */
+   void prune()
+   {
+      int kept = 0;
+      int dropped = 0;
+      for (int k = 0; k < myCount; k++)
+      {
+         int col = myOrder[k];
+         if (isOutOfPlay(myCols.bid(col)))
+            myPassOrder[dropped++] = col;
+         else
+            myOrder[kept++] = col;
+      }
+      System.arraycopy(myPassOrder, 0, myOrder, kept, dropped);
+      myCount = kept;
+   }
+
+   /**
+    * Reload the columns of the bids in play, noting which bids' rank keys
+    * changed since they were last ranked.
+    */
+   void refresh()
+   {
+      for (int k = 0; k < myCount; k++)
+      {
+         int col = myOrder[k];
+         if (myCols.refresh(col))
+         {
+            myIsChanged[col] = true;
+         }
+      }
+   }
+
+   /**
+    * Order the bids in play by descending winner rank. The first call after
+    * reset() ranks all of them; later calls only sort the bids whose keys
+    * changed, and merge them into the previous order.
+    */
+   void rank()
+   {
+      if (!myIsRanked)
+      {
+         myCols.rankWinnerDescending(myOrder, myCount);
+         for (int k = 0; k < myCount; k++)
+         {
+            myIsChanged[myOrder[k]] = false;
+         }
+         myIsRanked = true;
+         return;
+      }
+      int unchanged = 0;
+      int changed = 0;
+      for (int k = 0; k < myCount; k++)
+      {
+         int col = myOrder[k];
+         if (myIsChanged[col])
+         {
+            myIsChanged[col] = false;
+            myChanged[changed++] = col;
+         }
+         else
+         {
+            myOrder[unchanged++] = col;
+         }
+      }
+      if (changed > 0)
+      {
+         myCols.mergeWinnerDescending(myOrder, unchanged, myChanged, changed);
+      }
+   }
+
+   /**
+    * Build the order of bids for an auction pass (see passOrder()): first the
+    * candidates, in ranked order, then all other bids.
+    *
+    * @param candidatesOnly If true, candidates are only the bids in play that
+    *        are IN_PLAY and qualified for the current pass; otherwise, all
+    *        bids in play are candidates.
+    * @return Number of candidates.
+    */
+   int createPassOrder(boolean candidatesOnly)
+   {
+      int n = myCols.size();
+      if (!candidatesOnly)
+      {
+         System.arraycopy(myOrder, 0, myPassOrder, 0, n);
+         return myCount;
+      }
+      int candidates = 0;
+      for (int k = 0; k < myCount; k++)
+      {
+         AuctionObjectShadow bid = myCols.bid(myOrder[k]);
+         if (bid.auctionState == AuctionStatus.IN_PLAY
+            && bid.isCurPriorityQualified())
+         {
+            myPassOrder[candidates++] = myOrder[k];
+         }
+      }
+      int others = candidates;
+      for (int k = 0; k < myCount; k++)
+      {
+         AuctionObjectShadow bid = myCols.bid(myOrder[k]);
+         if (!(bid.auctionState == AuctionStatus.IN_PLAY
+            && bid.isCurPriorityQualified()))
+         {
+            myPassOrder[others++] = myOrder[k];
+         }
+      }
+      System.arraycopy(myOrder, myCount, myPassOrder, others, n - myCount);
+      return candidates;
+   }
+
+   /**
+    * @return Order built by the last createPassOrder(); covers all bids.
+    */
+   int[] passOrder()
+   {
+      return myPassOrder;
+   }
+
+   /**
+    * @return Number of bids in play.
+    */
+   int size()
+   {
+      return myCount;
+   }
+
+   /**
+    * Check whether a bid has lost for the rest of the auction: it cannot take
+    * part in any later pass, since resetUnsoldBidderStatus() will not put it
+    * back IN_PLAY.
+    *
+    * @param bid Bid to check.
+    * @return true if the bid can be dropped from the set.
+    */
+   private static boolean isOutOfPlay(AuctionObjectShadow bid)
+   {
+      // Out-of-program bids (simulated auctions only) never participate.
+      if (!bid.auctionObj.isInProgram())
+      {
+         return true;
+      }
+      if (bid.auctionState == AuctionStatus.IN_PLAY)
+      {
+         return false;
+      }
+      AuctionSpot as = bid.auctionSpot;
+      if (as.winner != null)
+      {
+         return true;
+      }
+      if (as.spot.isSegmented() && as.segmentSet.foundWinner())
+      {
+         return true;
+      }
+      return (bid.isPermanentlyDisqualified() || bid.getCreativeIds().size() == 0);
+   }
+
+   /******************** Instance members **************************/
+   private final BidColumns myCols;
+   // In-play bids, ranked, in [0, myCount); dropped bids after them.
+   private final int[] myOrder;
+   private int myCount = 0;
+   private boolean myIsRanked = false;
+   private final int[] myPassOrder;
+   private final int[] myChanged;
+   private final boolean[] myIsChanged;
+}
@@ -0,0 +1,474 @@
+/**
+ * Part of a source code package originally written for the AdAuctionApp project.
+ * Intended for use as a programming work sample file only.  Not for distribution.
+ **/
+package AdAuctionApp.Auction;
+
+import java.util.AbstractList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import AdAuctionApp.AdBuyGrid.Auction.AuctionViewToggles;
+import AdAuctionApp.Cache.Central.CampaignBuyAuctionInfo;
+import AdAuctionApp.Core.Money;
+
+/**
+ * Lazy alternative to fully ranking the candidates of an auction pass. Hands
+ * out candidate bids in winner rank order (see
+ * Auctioneer.RANK_WINNER_DESC_COMPARATOR) one at a time, from a binary heap
+ * holding a single budget week's candidates; the next week's heap is only
+ * built once the previous week's is empty. The fully sorted list is never
+ * built.
+ *
+ * Since the winner loop stops finding winners for a buy once it runs out of
+ * budget, the queue also drops bids of exhausted buys in bulk: when a week's
+ * heap is built, bids of buys whose overall campaign or buy budget cannot fit
+ * the buy's smallest bid that week are never added to it; and when a buy
+ * becomes exhausted during the week, its remaining heap entries are discarded
+ * as they surface, or all at once when they make up most of the heap.
+ * Dropped bids that are still IN_PLAY are marked with the status of the
+ * exhausted budget, without running the other winner checks (so their losing
+ * reason may differ from the one a full pass would report, but never their
+ * outcome); bids that have already won or lost keep their status.
+ *
+ * Buys are only found exhausted while no conditional totals are applied: a
+ * channel bundling lookahead can pull the next week's bids while its
+ * conditional wins are counted, and those wins may yet be unrolled. The
+ * week's exhausted buys are then looked for once the totals are unrolled.
+ *
+ * This class is NOT thread safe.
+ */
+final class LazyWinnerQueue
+{
+   /**
+    * Constructor.
+    *
+    * @param cols Columns of all bids in the auction.
+    * @param budget Budget of the auction.
+    */
+   LazyWinnerQueue(BidColumns cols, AuctionBudget budget)
+   {
+      int n = cols.size();
+      myCols = cols;
+      myBudget = budget;
+      myWeekOrder = new int[n];
+      myHeap = new int[n];
+      myPopped = new int[n];
+
+      // Dense index of each bid's buy.
+      myBuyOf = new int[n];
+      Map<Integer, Integer> buyIndexes = new HashMap<Integer, Integer>();
+      for (int i = 0; i < n; i++)
+      {
+         Integer buy = buyIndexes.get(cols.buyID(i));
+         if (buy == null)
+         {
+            buy = buyIndexes.size();
+            buyIndexes.put(cols.buyID(i), buy);
+         }
+         myBuyOf[i] = buy;
+      }
+      int buys = buyIndexes.size();
+      myBuyInfo = new CampaignBuyAuctionInfo[buys];
+      for (int i = 0; i < n; i++)
+      {
+         myBuyInfo[myBuyOf[i]] = cols.bid(i).auctionObj.campaignBuy;
+      }
+      myMinCost = new long[buys];
+      myMinImpressions = new long[buys];
+      myHeapCount = new int[buys];
+      myExhausted = new AuctionStatus[buys];
+      myBuyWeek = new int[buys];
+   }
+
+   /**
+    * Load the candidates of an auction pass. Candidate bids must have their
+    * columns refreshed with this pass's costs.
+    *
+    * @param candidates Column indexes of the candidates, in any order.
+    * @param count Number of leading entries of 'candidates' to load.
+    * @param curToggles Current toggles of auction client (grid).
+    */
+   void load(int[] candidates, int count, AuctionViewToggles curToggles)
+   {
+      myCount = count;
+      myToggles = curToggles;
+      myWeekPos = 0;
+      myHeapSize = 0;
+      myDeadCount = 0;
+      myPoppedCount = 0;
+      myRequested = 0;
+      myDroppedCount = 0;
+      myIsWeekChecked = true;
+      if (count == 0)
+      {
+         return;
+      }
+
+      // Group the candidates by week (counting sort; there are few weeks).
+      int minWeek = Integer.MAX_VALUE;
+      int maxWeek = Integer.MIN_VALUE;
+      for (int k = 0; k < count; k++)
+      {
+         int wk = myCols.weekIndex(candidates[k]);
+         minWeek = Math.min(minWeek, wk);
+         maxWeek = Math.max(maxWeek, wk);
+      }
+      int[] starts = new int[maxWeek - minWeek + 2];
+      for (int k = 0; k < count; k++)
+      {
+         starts[myCols.weekIndex(candidates[k]) - minWeek + 1]++;
+      }
+      for (int w = 1; w < starts.length; w++)
+      {
+         starts[w] += starts[w - 1];
+      }
+      for (int k = 0; k < count; k++)
+      {
+         int col = candidates[k];
+         myWeekOrder[starts[myCols.weekIndex(col) - minWeek]++] = col;
+      }
+   }
+
+   /**
+    * Present the candidates as a List in winner rank order. Bids are pulled
+    * from the queue as the list is traversed; size() only reaches ahead by
+    * a single bid, and grows as bids are pulled. Dropped bids never appear.
+    *
+    * @return List view of the ranked candidates.
+    */
+   List<AuctionObjectShadow> asList()
+   {
+      return new AbstractList<AuctionObjectShadow>()
+      {
+         public AuctionObjectShadow get(int k)
+         {
+            return myCols.bid(columnAt(k));
+         }
+
+         public int size()
+         {
+            if (myPoppedCount <= myRequested)
+            {
+               pull();
+            }
+            return myPoppedCount;
+         }
+      };
+   }
+
+   /**
+    * @param k Position in rank order.
+    * @return Column index of the candidate at position k of asList().
+    */
+   int columnAt(int k)
+   {
+      while (myPoppedCount <= k)
+      {
+         if (!pull())
+         {
+            throw new IndexOutOfBoundsException("Index: " + k);
+         }
+      }
+      myRequested = Math.max(myRequested, k + 1);
+      return myPopped[k];
+   }
+
+   /**
+    * Note that a candidate has lost in the winner checks. If it lost on the
+    * overall campaign or buy budget, check whether its buy is now exhausted,
+    * so the buy's remaining bids can be dropped.
+    *
+    * @param col Column index of the losing bid.
+    */
+   void bidLost(int col)
+   {
+      AuctionStatus state = myCols.bid(col).auctionState;
+      if (state != AuctionStatus.EXCEED_CAMPAIGN_BUDGET
+         && state != AuctionStatus.EXCEED_BUY_BUDGET
+         && state != AuctionStatus.EXCEED_CAMPAIGN_IMPRESSION_LIMIT
+         && state != AuctionStatus.EXCEED_BUY_IMPRESSION_LIMIT)
+      {
+         return;
+      }
+      int buy = myBuyOf[col];
+      if (myExhausted[buy] != null)
+      {
+         return;
+      }
+      myExhausted[buy] = exhaustedStatus(buy);
+      if (myExhausted[buy] != null)
+      {
+         myDeadCount += myHeapCount[buy];
+         if (myDeadCount * 2 > myHeapSize)
+         {
+            compactHeap();
+         }
+      }
+   }
+
+   /**
+    * Pull the next live candidate from the heaps into myPopped.
+    *
+    * @return false if there are no more candidates.
+    */
+   private boolean pull()
+   {
+      while (true)
+      {
+         if (myHeapSize == 0)
+         {
+            if (!startNextWeek())
+            {
+               return false;
+            }
+            continue;
+         }
+         if (!myIsWeekChecked && myBudget.conditionalSavepoint() == 0)
+         {
+            checkWeek();
+            continue;
+         }
+         int col = popHeap();
+         int buy = myBuyOf[col];
+         myHeapCount[buy]--;
+         if (myExhausted[buy] != null)
+         {
+            myDeadCount--;
+            drop(col, myExhausted[buy]);
+            continue;
+         }
+         myCols.bid(col).biddingIndex = myPoppedCount;
+         myPopped[myPoppedCount++] = col;
+         return true;
+      }
+   }
+
+   /**
+    * Build the heap for the next budget week's candidates, dropping the bids
+    * of buys that are already exhausted (unless conditional totals are
+    * applied; see checkWeek()).
+    *
+    * @return false if there are no more weeks.
+    */
+   private boolean startNextWeek()
+   {
+      if (myWeekPos >= myCount)
+      {
+         return false;
+      }
+      int from = myWeekPos;
+      int week = myCols.weekIndex(myWeekOrder[from]);
+      int to = from;
+      while (to < myCount && myCols.weekIndex(myWeekOrder[to]) == week)
+      {
+         to++;
+      }
+      myWeekPos = to;
+      myWeekStamp++;
+
+      // Smallest bid of each buy this week.
+      for (int k = from; k < to; k++)
+      {
+         int col = myWeekOrder[k];
+         int buy = myBuyOf[col];
+         long cost = myCols.costCents(col);
+         long impr = myCols.bid(col).auctionObj.spot.totalADViews;
+         if (myBuyWeek[buy] != myWeekStamp)
+         {
+            myBuyWeek[buy] = myWeekStamp;
+            myMinCost[buy] = cost;
+            myMinImpressions[buy] = impr;
+            myHeapCount[buy] = 0;
+            myExhausted[buy] = null;
+         }
+         else
+         {
+            myMinCost[buy] = Math.min(myMinCost[buy], cost);
+            myMinImpressions[buy] = Math.min(myMinImpressions[buy], impr);
+         }
+      }
+      // Check each buy once; a negative stamp marks it checked.
+      myIsWeekChecked = (myBudget.conditionalSavepoint() == 0);
+      if (myIsWeekChecked)
+      {
+         for (int k = from; k < to; k++)
+         {
+            int buy = myBuyOf[myWeekOrder[k]];
+            if (myBuyWeek[buy] == myWeekStamp)
+            {
+               myBuyWeek[buy] = -myWeekStamp;
+               myExhausted[buy] = exhaustedStatus(buy);
+            }
+         }
+      }
+      for (int k = from; k < to; k++)
+      {
+         int col = myWeekOrder[k];
+         int buy = myBuyOf[col];
+         if (myExhausted[buy] != null)
+         {
+            drop(col, myExhausted[buy]);
+         }
+         else
+         {
+            myHeap[myHeapSize++] = col;
+            myHeapCount[buy]++;
+         }
+      }
+      heapify();
+      return true;
+   }
+
+   /**
+    * Check the buys of a week whose heap was built while conditional totals
+    * were applied, now that they are unrolled, and discard the heap entries
+    * of the exhausted ones. The smallest bids were taken over the whole week,
+    * so a buy found exhausted cannot fit any of its remaining bids either.
+    */
+   private void checkWeek()
+   {
+      boolean anyExhausted = false;
+      for (int k = 0; k < myHeapSize; k++)
+      {
+         int buy = myBuyOf[myHeap[k]];
+         if (myBuyWeek[buy] == myWeekStamp)
+         {
+            myBuyWeek[buy] = -myWeekStamp;
+            if (myExhausted[buy] == null)
+            {
+               myExhausted[buy] = exhaustedStatus(buy);
+            }
+         }
+         anyExhausted |= (myExhausted[buy] != null);
+      }
+      myIsWeekChecked = true;
+      if (anyExhausted)
+      {
+         compactHeap();
+      }
+   }
+
+   /**
+    * @return Status for the bids of an exhausted buy, or null.
+    */
+   private AuctionStatus exhaustedStatus(int buy)
+   {
+      return myBudget.buyExhaustedStatus(myBuyInfo[buy],
+         Money.newFromPennies(myMinCost[buy]), myMinImpressions[buy], myToggles);
+   }
+
+   /**
+    * Mark a candidate as lost without running the winner checks, unless it
+    * is no longer IN_PLAY (it already won, e.g. as a mirror partner, or lost
+    * for another reason). Dropped bids are numbered from the end of the
+    * candidates, so every candidate still has a unique bidding index.
+    */
+   private void drop(int col, AuctionStatus status)
+   {
+      AuctionObjectShadow bid = myCols.bid(col);
+      if (bid.auctionState == AuctionStatus.IN_PLAY)
+      {
+         bid.auctionState = status;
+      }
+      bid.biddingIndex = myCount - 1 - myDroppedCount++;
+   }
+
+   /**
+    * Discard all heap entries of exhausted buys at once, and rebuild the heap.
+    */
+   private void compactHeap()
+   {
+      int kept = 0;
+      for (int k = 0; k < myHeapSize; k++)
+      {
+         int col = myHeap[k];
+         int buy = myBuyOf[col];
+         if (myExhausted[buy] != null)
+         {
+            myHeapCount[buy]--;
+            drop(col, myExhausted[buy]);
+         }
+         else
+         {
+            myHeap[kept++] = col;
+         }
+      }
+      myHeapSize = kept;
+      myDeadCount = 0;
+      heapify();
+   }
+
+   /******************** Binary heap, best-ranked bid at the top ********/
+
+   private void heapify()
+   {
+      for (int k = (myHeapSize >>> 1) - 1; k >= 0; k--)
+      {
+         siftDown(k);
+      }
+   }
+
+   private int popHeap()
+   {
+      int top = myHeap[0];
+      myHeap[0] = myHeap[--myHeapSize];
+      if (myHeapSize > 0)
+      {
+         siftDown(0);
+      }
+      return top;
+   }
+
+   private void siftDown(int k)
+   {
+      int col = myHeap[k];
+      int half = myHeapSize >>> 1;
+      while (k < half)
+      {
+         int child = (k << 1) + 1;
+         int right = child + 1;
+         if (right < myHeapSize && myCols.compareRanked(myHeap[right], myHeap[child]) < 0)
+         {
+            child = right;
+         }
+         if (myCols.compareRanked(col, myHeap[child]) <= 0)
+         {
+            break;
+         }
+         myHeap[k] = myHeap[child];
+         k = child;
+      }
+      myHeap[k] = col;
+   }
+
+   /******************** Instance members **************************/
+   private final BidColumns myCols;
+   private final AuctionBudget myBudget;
+   private AuctionViewToggles myToggles = null;
+   // Candidates grouped by ascending week, and the start of the next week.
+   private final int[] myWeekOrder;
+   private int myCount = 0;
+   private int myWeekPos = 0;
+   private int myWeekStamp = 0;
+   // False while the current week's exhausted buys are still to be found.
+   private boolean myIsWeekChecked = true;
+   // Heap of the current week's live candidates.
+   private final int[] myHeap;
+   private int myHeapSize = 0;
+   private int myDeadCount = 0;
+   // Candidates handed out so far, in rank order.
+   private final int[] myPopped;
+   private int myPoppedCount = 0;
+   private int myRequested = 0;
+   private int myDroppedCount = 0;
+   // Per-buy state for the current week, by dense buy index.
+   private final int[] myBuyOf;
+   private final CampaignBuyAuctionInfo[] myBuyInfo;
+   private final long[] myMinCost;
+   private final long[] myMinImpressions;
+   private final int[] myHeapCount;
+   private final AuctionStatus[] myExhausted;
+   private final int[] myBuyWeek;
+}
@@ -0,0 +1,138 @@
+/**
+ * Part of a source code package originally written for the AdAuctionApp project.
+ * Intended for use as a programming work sample file only.  Not for distribution.
+ **/
+package AdAuctionApp.Auction;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import AdAuctionApp.Cache.Central.PreassignedWinner;
+
+/**
+ * Hashed indexes used to resolve an auction's preassigned winners: the set of
+ * (avail, buy, creative) preassignments, and, for each avail that has a
+ * preassignment, the first bid on it from each buy. With them, each
+ * preassignment (and its mirror partner check) is resolved with a couple of
+ * lookups, rather than by scanning the avail's bidders and the list of
+ * preassignments, so resolving all preassignments is linear.
+ *
+ * Instances are cleared and reused from one auction to the next.
+ *
+ * This class is NOT thread safe.
+ */
+final class PreassignedWinnerIndex
+{
+   /**
+    * Index the preassignments of an auction, and the bids on their avails.
+    * Forgets any previous index.
+    *
+    * @param preWins Preassigned winner definitions.
+    * @param spots Avails of the auction, by avail ID.
+    */
+   void init(Collection<PreassignedWinner> preWins,
+      Map<Integer, AuctionSpot> spots)
+   {
+      clear();
+      Set<Integer> indexedAvails = new HashSet<Integer>();
+      for (PreassignedWinner preWin : preWins)
+      {
+         int availID = preWin.availID();
+         myAssigned.add(new Key(availID, preWin.buyID(), preWin.creativeID()));
+         AuctionSpot as = spots.get(availID);
+         if (as == null || !indexedAvails.add(availID))
+         {
+            continue;
+         }
+         for (AuctionObjectShadow aos : as.bidders)
+         {
+            // Keep only the first bid of each buy, as a scan would find.
+            int buyID = aos.auctionObj.campaignBuy.campaignBuyID;
+            Long key = availBuyKey(availID, buyID);
+            if (!myBidsByAvailBuy.containsKey(key))
+            {
+               myBidsByAvailBuy.put(key, aos);
+            }
+         }
+      }
+   }
+
+   /**
+    * @param availID Avail ID.
+    * @param buyID Buy ID.
+    * @return First bid of the buy on the avail, or null if there is none (or
+    *         the avail has no preassignment).
+    */
+   AuctionObjectShadow bid(int availID, int buyID)
+   {
+      return myBidsByAvailBuy.get(availBuyKey(availID, buyID));
+   }
+
+   /**
+    * @param availID Avail ID.
+    * @param buyID Buy ID.
+    * @param crID Creative ID.
+    * @return true if the auction has a matching preassignment.
+    */
+   boolean isAssigned(int availID, int buyID, int crID)
+   {
+      return myAssigned.contains(new Key(availID, buyID, crID));
+   }
+
+   /**
+    * Forget the index.
+    */
+   void clear()
+   {
+      myAssigned.clear();
+      myBidsByAvailBuy.clear();
+   }
+
+   private static Long availBuyKey(int availID, int buyID)
+   {
+      return (((long) availID) << 32) | (buyID & 0xFFFFFFFFL);
+   }
+
+   /**
+    * An (avail, buy, creative) preassignment.
+    */
+   private static final class Key
+   {
+      Key(int availID, int buyID, int crID)
+      {
+         myAvailID = availID;
+         myBuyID = buyID;
+         myCrID = crID;
+      }
+
+      @Override
+      public boolean equals(Object obj)
+      {
+         if (!(obj instanceof Key))
+         {
+            return false;
+         }
+         Key k = (Key) obj;
+         return (myAvailID == k.myAvailID && myBuyID == k.myBuyID
+            && myCrID == k.myCrID);
+      }
+
+      @Override
+      public int hashCode()
+      {
+         return (myAvailID * 31 + myBuyID) * 31 + myCrID;
+      }
+
+      private final int myAvailID;
+      private final int myBuyID;
+      private final int myCrID;
+   }
+
+   /******************** Instance members **************************/
+   private final Set<Key> myAssigned = new HashSet<Key>();
+   private final Map<Long, AuctionObjectShadow> myBidsByAvailBuy =
+      new HashMap<Long, AuctionObjectShadow>();
+}
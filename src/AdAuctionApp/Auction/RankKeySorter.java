@@ -0,0 +1,364 @@
+/**
+ * Part of a source code package originally written for the AdAuctionApp project.
+ * Intended for use as a programming work sample file only.  Not for distribution.
+ **/
+package AdAuctionApp.Auction;
+
+import java.util.Arrays;
+
+/**
+ * Ranking engine for BidColumns. Encodes the ordering of
+ * Auctioneer.RANK_WINNER_DESC_COMPARATOR into a fixed-width packed key per
+ * bid, so that ordering two bids is an unsigned comparison of a few longs,
+ * and ordering all bids is an allocation-free LSD radix sort.
+ *
+ * The packed key holds, most significant first:
+ * <pre>
+ *   budget week index      32 bits  ascending
+ *   rank class + rank      33 bits  descending (class 0: both-negative
+ *                                   ranks, ordered by alternate rank)
+ *   auction cost (cents)   64 bits  descending
+ *   derived CPM            32 bits  descending
+ *   segment root ID        32 bits  ascending
+ *   segment offset         32 bits  descending
+ *   avail ID               32 bits  ascending
+ *   avail/buy hash         32 bits  ascending
+ * </pre>
+ * followed by a word holding the bid's column index. The comparator leaves
+ * bids with equal rank fields (the same buy twice on the same avail) in the
+ * order of the bid array it sorts, with a stable sort; the column index
+ * reproduces that, so every key is unique and the order is total.
+ *
+ * Bids are ranked either all at once (sortDescending()) or incrementally, by
+ * merging the few bids whose keys changed back into an existing order
+ * (mergeDescending()).
+ *
+ * This class is NOT thread safe.
+ */
+final class RankKeySorter
+{
+   /**
+    * Constructor. Allocates all key and sort buffers up front.
+    *
+    * @param cols Columns to rank. Keys are not valid until buildKeys().
+    */
+   RankKeySorter(BidColumns cols)
+   {
+      myCols = cols;
+      int n = cols.size();
+      myKeys = new long[n * KEY_WORDS];
+      myOldKey = new long[KEY_WORDS];
+      myTmp = new int[n];
+      myCounts = new int[RADIX];
+   }
+
+   /**
+    * Rebuild the packed keys of all bids from the columns.
+    */
+   void buildKeys()
+   {
+      for (int i = 0; i < myCols.size(); i++)
+      {
+         buildKey(i);
+      }
+   }
+
+   /**
+    * Rebuild the packed key of a single bid from the columns.
+    *
+    * @param i Column index.
+    * @return true if the key differs from the one it replaced.
+    */
+   boolean buildKey(int i)
+   {
+      int base = i * KEY_WORDS;
+      System.arraycopy(myKeys, base, myOldKey, 0, KEY_WORDS);
+      Arrays.fill(myKeys, base, base + KEY_WORDS, 0L);
+
+      // Rank: if negative, the comparator only looks at the alternate rank
+      // (when the other rank is negative too); any non-negative rank orders
+      // ahead of any negative one.
+      float rank = myCols.rank(i);
+      long rankKey;
+      if (rank < 0)
+         rankKey = floatAscending(myCols.alternateRank(i));
+      else
+         rankKey = (1L << 32) | floatAscending(rank);
+
+      int pos = 0;
+      pos = put(base, pos, intAscending(myCols.weekIndex(i)), 32);
+      pos = put(base, pos, ~rankKey, 33);
+      pos = put(base, pos, ~(myCols.costCents(i) ^ Long.MIN_VALUE), 64);
+      pos = put(base, pos, ~floatAscending(myCols.derivedCpm(i)), 32);
+      pos = put(base, pos, intAscending(myCols.segmentRootID(i)), 32);
+      pos = put(base, pos, ~intAscending(myCols.segmentOffset(i)), 32);
+      pos = put(base, pos, intAscending(myCols.spotID(i)), 32);
+      put(base, pos, intAscending(myCols.spotID(i) ^ myCols.buyID(i)), 32);
+      myKeys[base + RANK_WORDS] = i;
+
+      for (int w = 0; w < KEY_WORDS; w++)
+      {
+         if (myKeys[base + w] != myOldKey[w])
+         {
+            return true;
+         }
+      }
+      return false;
+   }
+
+   /**
+    * Order bids by descending winner rank, in place.
+    *
+    * @param cols Column indexes to order.
+    * @param count Number of leading entries of 'cols' to order.
+    */
+   void sortDescending(int[] cols, int count)
+   {
+      if (count < RADIX_SORT_MIN_COUNT)
+      {
+         mergeSort(cols, 0, count);
+      }
+      else
+      {
+         radixSort(cols, count);
+      }
+   }
+
+   /**
+    * Merge bids whose keys have changed back into an existing descending
+    * order. Bids whose keys did not change keep their relative order, so only
+    * the changed bids need to be sorted.
+    *
+    * @param order Ordered column indexes of the unchanged bids in its first
+    *        'orderCount' entries; receives the merged order in its first
+    *        'orderCount' + 'changedCount' entries.
+    * @param orderCount Number of unchanged bids.
+    * @param changed Column indexes of the changed bids, in any order.
+    *        Reordered by this call.
+    * @param changedCount Number of changed bids.
+    */
+   void mergeDescending(
+      int[] order,
+      int orderCount,
+      int[] changed,
+      int changedCount)
+   {
+      sortDescending(changed, changedCount);
+      // Merge from the tails, so the unchanged bids can be merged in place.
+      int i = orderCount - 1;
+      int j = changedCount - 1;
+      for (int k = orderCount + changedCount - 1; j >= 0; k--)
+      {
+         if (i >= 0 && compare(order[i], changed[j]) > 0)
+            order[k] = order[i--];
+         else
+            order[k] = changed[j--];
+      }
+   }
+
+   /**
+    * Stable top-down merge sort of cols[from, to), using myTmp.
+    */
+   private void mergeSort(int[] cols, int from, int to)
+   {
+      if (to - from < 2)
+      {
+         return;
+      }
+      int mid = (from + to) >>> 1;
+      mergeSort(cols, from, mid);
+      mergeSort(cols, mid, to);
+      if (compare(cols[mid - 1], cols[mid]) <= 0)
+      {
+         // Already in order.
+         return;
+      }
+      System.arraycopy(cols, from, myTmp, from, mid - from);
+      int i = from;
+      int j = mid;
+      int k = from;
+      while (i < mid && j < to)
+      {
+         if (compare(cols[j], myTmp[i]) < 0)
+            cols[k++] = cols[j++];
+         else
+            cols[k++] = myTmp[i++];
+      }
+      while (i < mid)
+      {
+         cols[k++] = myTmp[i++];
+      }
+   }
+
+   /**
+    * LSD radix sort of the first 'n' entries of 'order', by packed key.
+    */
+   private void radixSort(int[] order, int n)
+   {
+      int[] src = order;
+      int[] dst = myTmp;
+      // LSD radix sort; each pass is stable. Skip passes whose digit is the
+      // same for every bid (e.g. the high bits of week and segment offset).
+      for (int d = KEY_DIGITS - 1; d >= 0; d--)
+      {
+         int word = d / DIGITS_PER_WORD;
+         int shift = (DIGITS_PER_WORD - 1 - (d % DIGITS_PER_WORD)) * RADIX_BITS;
+         int[] counts = myCounts;
+         Arrays.fill(counts, 0);
+         for (int i = 0; i < n; i++)
+         {
+            counts[digit(src[i], word, shift)]++;
+         }
+         if (counts[digit(src[0], word, shift)] == n)
+         {
+            continue;
+         }
+         int sum = 0;
+         for (int b = 0; b < RADIX; b++)
+         {
+            int c = counts[b];
+            counts[b] = sum;
+            sum += c;
+         }
+         for (int i = 0; i < n; i++)
+         {
+            int col = src[i];
+            dst[counts[digit(col, word, shift)]++] = col;
+         }
+         int[] swap = src;
+         src = dst;
+         dst = swap;
+      }
+      if (src != order)
+      {
+         System.arraycopy(src, 0, order, 0, n);
+      }
+   }
+
+   /**
+    * Order a (small) subset of bids by ascending rank, in place. Used per
+    * avail when assigning CPMs, where lists are short enough that insertion
+    * sort over packed keys beats a radix pass. Like the ascending
+    * comparator, bids with equal rank fields keep their order in 'cols'.
+    *
+    * @param cols Column indexes to order.
+    */
+   void sortAscending(int[] cols)
+   {
+      for (int i = 1; i < cols.length; i++)
+      {
+         int v = cols[i];
+         int j = i - 1;
+         while (j >= 0 && compareKeys(v, cols[j], RANK_WORDS) > 0)
+         {
+            cols[j + 1] = cols[j];
+            j--;
+         }
+         cols[j + 1] = v;
+      }
+   }
+
+   /**
+    * Full descending-rank comparison of two bids, by packed key. Only equal
+    * for a bid and itself.
+    *
+    * @param i Column index.
+    * @param j Column index.
+    * @return Negative if bid i ranks ahead of bid j.
+    */
+   int compare(int i, int j)
+   {
+      return compareKeys(i, j, KEY_WORDS);
+   }
+
+   /**
+    * Compare the first 'words' words of two packed keys, unsigned.
+    */
+   private int compareKeys(int i, int j, int words)
+   {
+      int bi = i * KEY_WORDS;
+      int bj = j * KEY_WORDS;
+      for (int w = 0; w < words; w++)
+      {
+         long ki = myKeys[bi + w];
+         long kj = myKeys[bj + w];
+         if (ki != kj)
+         {
+            // Unsigned comparison.
+            return ((ki ^ Long.MIN_VALUE) < (kj ^ Long.MIN_VALUE) ? -1 : 1);
+         }
+      }
+      return 0;
+   }
+
+   private int digit(int col, int word, int shift)
+   {
+      return (int) (myKeys[col * KEY_WORDS + word] >>> shift) & (RADIX - 1);
+   }
+
+   /**
+    * Write the low 'width' bits of 'value' into the key at bit position
+    * 'pos' (counted from the most significant bit of the first word).
+    *
+    * @return Next bit position.
+    */
+   private int put(int base, int pos, long value, int width)
+   {
+      int word = base + (pos >>> 6);
+      int avail = 64 - (pos & 63);
+      if (width <= avail)
+      {
+         myKeys[word] |= (value & mask(width)) << (avail - width);
+      }
+      else
+      {
+         int lowBits = width - avail;
+         myKeys[word] |= (value >>> lowBits) & mask(avail);
+         myKeys[word + 1] |= (value & mask(lowBits)) << (64 - lowBits);
+      }
+      return pos + width;
+   }
+
+   private static long mask(int width)
+   {
+      return (width == 64 ? -1L : (1L << width) - 1);
+   }
+
+   /**
+    * @return Unsigned 32-bit value ordered the same as signed 'v'.
+    */
+   private static long intAscending(int v)
+   {
+      return (v ^ Integer.MIN_VALUE) & 0xFFFFFFFFL;
+   }
+
+   /**
+    * @return Unsigned 32-bit value ordered the same as Float.compare().
+    */
+   private static long floatAscending(float f)
+   {
+      int bits = Float.floatToIntBits(f);
+      bits ^= (bits >> 31) | Integer.MIN_VALUE;
+      return bits & 0xFFFFFFFFL;
+   }
+
+   /******************** Class members **************************/
+   private static final int RANK_BITS = 32 + 33 + 64 + 32 + 32 + 32 + 32 + 32;
+   // Words holding the rank fields; the column index follows them.
+   private static final int RANK_WORDS = (RANK_BITS + 63) / 64;
+   private static final int KEY_WORDS = RANK_WORDS + 1;
+   private static final int RADIX_BITS = 16;
+   private static final int RADIX = 1 << RADIX_BITS;
+   private static final int DIGITS_PER_WORD = 64 / RADIX_BITS;
+   private static final int KEY_DIGITS = KEY_WORDS * DIGITS_PER_WORD;
+   // Below this many bids, a merge sort beats clearing the radix counts for
+   // every digit.
+   private static final int RADIX_SORT_MIN_COUNT = 4096;
+
+   /******************** Instance members **************************/
+   private final BidColumns myCols;
+   private final long[] myKeys;
+   private final long[] myOldKey;
+   private final int[] myTmp;
+   private final int[] myCounts;
+}
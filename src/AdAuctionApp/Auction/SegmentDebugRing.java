@@ -0,0 +1,225 @@
+/**
+ * Part of a source code package originally written for the AdAuctionApp project.
+ * Intended for use as a programming work sample file only.  Not for distribution.
+ **/
+package AdAuctionApp.Auction;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import AdAuctionApp.Auction.SegmentSet.ActionCtxt;
+import AdAuctionApp.Auction.SegmentSet.DebugAction;
+import AdAuctionApp.Auction.SegmentSet.IndxBid;
+import AdAuctionApp.Auction.SegmentSet.SegmentSetAction;
+
+/**
+ * Bounded store of the most recent SegmentSet debug actions of an auction.
+ *
+ * Each action is recorded as primitive fields (and references to objects
+ * that already exist) in preallocated arrays, so recording an action
+ * creates no objects and formats nothing; DebugAction objects are only
+ * built, and formatted, when the actions are dumped. Once full, each new
+ * action overwrites the oldest one.
+ *
+ * Actions are recorded serially (segment debugging keeps an auction from
+ * running its components concurrently), so the lock is uncontended; it only
+ * makes dumping safe while actions are still being recorded.
+ *
+ * This class is thread safe.
+ */
+final class SegmentDebugRing
+{
+   /**
+    * Constructor.
+    *
+    * @param capacity Most actions kept; rounded up to a power of 2.
+    */
+   SegmentDebugRing(int capacity)
+   {
+      int size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+      myMask = size - 1;
+      mySets = new SegmentSet[size];
+      myMsgs = new String[size];
+      myTstamps = new long[size];
+      myCtxts = new ActionCtxt[size];
+      myBids = new IndxBid[size];
+      myActions = new SegmentSetAction[size];
+      myStates = new AuctionStatus[size];
+      myRankSums = new double[size];
+      myCostCents = new long[size];
+      myIndexes = new int[size];
+      myCridCounts = new int[size];
+      myCrids = new int[size * MAX_CRIDS];
+   }
+
+   /**
+    * @return Most actions kept.
+    */
+   int capacity()
+   {
+      return myMask + 1;
+   }
+
+   /**
+    * Record a free-form message.
+    *
+    * @param segSet SegmentSet recording the message.
+    * @param msg Message.
+    */
+   synchronized void addMessage(SegmentSet segSet, String msg)
+   {
+      int slot = (int) myNext++ & myMask;
+      mySets[slot] = segSet;
+      myMsgs[slot] = msg;
+      myCtxts[slot] = null;
+      myBids[slot] = null;
+      myActions[slot] = null;
+      myStates[slot] = null;
+   }
+
+   /**
+    * Record an action on a bid.
+    *
+    * @param segSet SegmentSet recording the action.
+    * @param tstamp Time stamp of the action.
+    * @param ctxt Context of the action.
+    * @param ib Bid acted on; may be null.
+    * @param ssa Action.
+    * @param rankSum Rank sum at the time.
+    * @param costCents Cost of the bid in cents, or NO_COST to show the rank
+    *        sum instead.
+    * @param index Index (or creative) to show; may be NO_INDEX.
+    * @param crids Unpruned creative IDs; may be null.
+    */
+   synchronized void addAction(SegmentSet segSet, long tstamp, ActionCtxt ctxt,
+      IndxBid ib, SegmentSetAction ssa, double rankSum, long costCents,
+      int index, Collection<Integer> crids)
+   {
+      int slot = (int) myNext++ & myMask;
+      mySets[slot] = segSet;
+      myMsgs[slot] = null;
+      myTstamps[slot] = tstamp;
+      myCtxts[slot] = ctxt;
+      myBids[slot] = ib;
+      myActions[slot] = ssa;
+      myStates[slot] = (ib == null ? null : ib.bid.auctionState);
+      myRankSums[slot] = rankSum;
+      myCostCents[slot] = costCents;
+      myIndexes[slot] = index;
+      int count = NO_CRIDS;
+      if (crids != null)
+      {
+         count = 0;
+         int base = slot * MAX_CRIDS;
+         for (Integer crid : crids)
+         {
+            if (count == MAX_CRIDS)
+            {
+               // Shown as truncated.
+               count++;
+               break;
+            }
+            myCrids[base + count++] = crid;
+         }
+      }
+      myCridCounts[slot] = count;
+   }
+
+   /**
+    * Forget all recorded actions, releasing the objects they refer to.
+    */
+   synchronized void clear()
+   {
+      myFirst = myNext;
+      Arrays.fill(mySets, null);
+      Arrays.fill(myMsgs, null);
+      Arrays.fill(myCtxts, null);
+      Arrays.fill(myBids, null);
+      Arrays.fill(myActions, null);
+      Arrays.fill(myStates, null);
+   }
+
+   /**
+    * @return Number of actions recorded since the last clear() that have
+    *         been overwritten.
+    */
+   synchronized long dropped()
+   {
+      long recorded = myNext - myFirst;
+      return Math.max(0, recorded - capacity());
+   }
+
+   /**
+    * Build the actions still held, oldest first.
+    *
+    * @return New list of the actions.
+    */
+   synchronized List<DebugAction> actions()
+   {
+      long start = Math.max(myFirst, myNext - capacity());
+      List<DebugAction> actions =
+         new ArrayList<DebugAction>((int) (myNext - start));
+      for (long n = start; n < myNext; n++)
+      {
+         actions.add(toDebugAction((int) n & myMask));
+      }
+      return actions;
+   }
+
+   private DebugAction toDebugAction(int slot)
+   {
+      SegmentSet segSet = mySets[slot];
+      String msg = myMsgs[slot];
+      if (msg != null)
+      {
+         return segSet.new DebugAction(msg);
+      }
+      int[] crids = null;
+      int count = myCridCounts[slot];
+      if (count != NO_CRIDS)
+      {
+         crids = new int[count];
+         System.arraycopy(myCrids, slot * MAX_CRIDS, crids, 0,
+            Math.min(count, MAX_CRIDS));
+         if (count > MAX_CRIDS)
+         {
+            crids[MAX_CRIDS] = TRUNCATED_CRID;
+         }
+      }
+      return segSet.new DebugAction(myTstamps[slot], myCtxts[slot],
+         myBids[slot], myActions[slot], myStates[slot], myRankSums[slot],
+         myCostCents[slot], myIndexes[slot], crids);
+   }
+
+   /******************** Class members **************************/
+   /** Default number of actions kept. */
+   static final int DEFAULT_CAPACITY = 1 << 16;
+   /** Cost of an action that shows its rank sum instead. */
+   static final long NO_COST = Long.MIN_VALUE;
+   /** Last creative ID shown when an action's creative IDs are truncated. */
+   static final int TRUNCATED_CRID = -1;
+
+   private static final int MAX_CRIDS = 8;
+   private static final int NO_CRIDS = -1;
+
+   /******************** Instance members **************************/
+   private final int myMask;
+   // Sequence number of the next action, and of the first since clear().
+   private long myNext = 0L;
+   private long myFirst = 0L;
+
+   private final SegmentSet[] mySets;
+   private final String[] myMsgs;
+   private final long[] myTstamps;
+   private final ActionCtxt[] myCtxts;
+   private final IndxBid[] myBids;
+   private final SegmentSetAction[] myActions;
+   private final AuctionStatus[] myStates;
+   private final double[] myRankSums;
+   private final long[] myCostCents;
+   private final int[] myIndexes;
+   private final int[] myCridCounts;
+   private final int[] myCrids;
+}
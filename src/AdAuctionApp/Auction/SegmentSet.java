@@ -12,11 +12,13 @@ import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.log4j.Logger;
 
@@ -52,12 +54,14 @@ public class SegmentSet
         TOP_RANKED,
         LINCHPIN,
         SIMPLE,
-        COMPLEX
+        COMPLEX,
+        OPTIMAL
     }
 
     /**
-     * Set which algorithm is used to determine a SegmentSet winner.
-     * Will apply to both real and simulated auctions.
+     * Set which algorithm is used by default to determine a SegmentSet
+     * winner.  Will apply to both real and simulated auctions, unless
+     * the Auctioneer sets its own (see newContext()).
      * @param algorithm
      */
     public static void setWinAlgorithm(WinMethod algorithm)
@@ -65,6 +69,63 @@ public class SegmentSet
         theWinAlgorithm = algorithm;
     }
 
+    /**
+     * @return the algorithm used by default to determine a SegmentSet winner.
+     */
+    public static WinMethod getWinAlgorithm()
+    {
+        return theWinAlgorithm;
+    }
+
+    /**
+     * Set whether the COMPLEX algorithm keeps the conditional totals of
+     * the top-ranked Combo's leading winnable bids applied between trials.
+     * When a Combo fails, only the bids from its losing bid on are unrolled;
+     * if it is still top-ranked after the loser is replaced, its next trial
+     * resumes after the bids it has kept.  The bids kept are the same bids,
+     * checked against the same totals, so the winners found are unchanged.
+     * Will apply to both real and simulated auctions, unless the
+     * Auctioneer sets its own (see newContext()).
+     * @param val the value
+     */
+    public static void setReuseComboTrials(boolean val)
+    {
+        theReuseComboTrials = val;
+    }
+
+    /**
+     * Create the settings shared by the SegmentSets of one auction,
+     * falling back on the defaults set through the static setters.
+     * @param winAlgorithm Algorithm used to determine a SegmentSet winner,
+     * or null to use the default.
+     * @param reuseComboTrials Whether to reuse COMPLEX trials, or null
+     * to use the default.
+     * @param debugOnTheFly Whether to dump debug info on-the-fly, or null
+     * to use the default.
+     * @return New settings, with their own time stamps.
+     */
+    static SegmentSetContext newContext(WinMethod winAlgorithm,
+            Boolean reuseComboTrials, Boolean debugOnTheFly)
+    {
+        return new SegmentSetContext(
+                (winAlgorithm != null ? winAlgorithm : theWinAlgorithm),
+                (reuseComboTrials != null ?
+                        reuseComboTrials : theReuseComboTrials),
+                (debugOnTheFly != null ? debugOnTheFly : theDebugOnTheFly),
+                new AtomicLong(1));
+    }
+
+    /**
+     * @return Settings for a SegmentSet created without an auction's
+     * context: the defaults, with time stamps shared by all such
+     * SegmentSets (see resetCounters()).
+     */
+    private static SegmentSetContext newDefaultContext()
+    {
+        return new SegmentSetContext(theWinAlgorithm, theReuseComboTrials,
+                theDebugOnTheFly, theDefaultTstamps);
+    }
+
     /**
      * Simple (non-debug) constructor.
      * @param rootAvail Root Avail of this Segment.
@@ -77,22 +138,41 @@ public class SegmentSet
     /**
      * Constructor.
      * @param rootAvail Root Avail of this Segment.
-     * @param debugActions a potentially null list to store the
-     * DebugActions.  If not null, we'll store each action on this
-     * segmentSet in the debugAction list for debugging.  Then, a call
-     * to dumpDebugActions() will return the actions as a string.
+     * @param debugRing a potentially null store for the
+     * DebugActions.  If not null, we'll record each action on this
+     * segmentSet in the ring for debugging.  Then, a call
+     * to dumpDebugActions() on its actions() will return them as a string.
      * @param segmentStats a potentially null SegmentStats object used
      * for storing the counts of various actions performed on the
      * segment set.
      */
-    public SegmentSet(Spot rootAvail,
-            List<DebugAction> debugActions,
+    SegmentSet(Spot rootAvail,
+            SegmentDebugRing debugRing,
             SegmentStats segmentStats)
+    {
+        this(rootAvail, debugRing, segmentStats, newDefaultContext());
+    }
+
+    /**
+     * Constructor.
+     * @param rootAvail Root Avail of this Segment.
+     * @param debugRing a potentially null store for the
+     * DebugActions (see above).
+     * @param segmentStats a potentially null SegmentStats object.
+     * @param context Settings shared by the SegmentSets of the auction.
+     */
+    SegmentSet(Spot rootAvail,
+            SegmentDebugRing debugRing,
+            SegmentStats segmentStats,
+            SegmentSetContext context)
     {
         myRootAvail = rootAvail;
-        myDebugActions = debugActions;
-        myWinAlgorithm = theWinAlgorithm;
-        myDoDebug = (myDebugActions != null);
+        myDebugRing = debugRing;
+        myAuctionContext = context;
+        myWinAlgorithm = context.winAlgorithm();
+        myReuseComboTrials = context.reuseComboTrials();
+        myDebugOnTheFly = context.debugOnTheFly();
+        myDoDebug = (myDebugRing != null);
         mySegmentStats = segmentStats;
 
         if (myRootAvail.duration == 60)
@@ -288,6 +368,9 @@ public class SegmentSet
         Collections.sort(myAllRankedBids, Auctioneer.RANK_WINNER_DESC_COMPARATOR);
 
         // Convert to IndxBids
+        myIndxBidsByBid =
+                new IdentityHashMap<AuctionObjectShadow, IndxBid>(
+                        myTmpAllBidList.size() * 2);
         myRankedBidsRoot   = convertBidList(myTmpRoot);
         myRankedBidsPair_0 = convertBidList(myTmpPair_0);
         myRankedBidsPair_1 = convertBidList(myTmpPair_1);
@@ -304,12 +387,15 @@ public class SegmentSet
     }
 
     /**
-     * Reset debug/tracking counters.  Should be called
-     * before starting a new auction.
+     * Reset debug/tracking counters of SegmentSets created without an
+     * auction's context.  Should be called before starting a new auction.
+     * @deprecated An Auctioneer's SegmentSets restart their time stamps
+     * with each auction.
      */
+    @Deprecated
     public static void resetCounters()
     {
-        theTstamp = 1;
+        theDefaultTstamps.set(1);
     }
 
     /**
@@ -327,11 +413,25 @@ public class SegmentSet
         {
             IndxBid bid = new IndxBid(rtnList, origBid, i);
             rtnList.add(bid);
+            myIndxBidsByBid.put(origBid, bid);
             i++;
         }
         return rtnList;
     }
 
+    /**
+     * Forget the winners of the previous auction, so this
+     * SegmentSet can be auctioned again with the same bids.
+     * The bids themselves are reset by the Auctioneer.
+     */
+    void resetWinners()
+    {
+        myWinDuration = 0;
+        myWinningBids.clear();
+        myPrevLinchpin = null;
+        myUnrolledBudget = 0;
+    }
+
     /**
      * Mark all other bids on the spots in this SegmentSet
      * as HAS_WINNER.  Assumes WINNER bids have already been set.
@@ -422,6 +522,8 @@ public class SegmentSet
      * by rank & cost. Since the cost may have changed due to
      * assignCpm we need to re-sort these ranked lists after
      * assignCpm and before the auction (pass).
+     * Only lists with a bid whose ordering key changed since
+     * the last sort are re-sorted.
      */
     public void sortSegment()
     {
@@ -434,7 +536,41 @@ public class SegmentSet
 
     private void sortBidList(List<IndxBid> ibids)
     {
-        Collections.sort(ibids, RANK_COMPARATOR);
+        // Count the bids repriced since the list was last sorted.
+        int changed = 0;
+        for (IndxBid ibid : ibids)
+        {
+            if (ibid.refreshSortKey())
+            {
+                changed++;
+            }
+        }
+        if (changed == 0)
+        {
+            // Still in order.
+            return;
+        }
+
+        if (changed <= INSERTION_SORT_LIMIT)
+        {
+            // The rest of the list is still in order, so just
+            // move the few repriced bids to their new places.
+            for (int i = 1; i < ibids.size(); i++)
+            {
+                IndxBid ibid = ibids.get(i);
+                int j = i - 1;
+                while (j >= 0 && RANK_COMPARATOR.compare(ibids.get(j), ibid) > 0)
+                {
+                    ibids.set(j + 1, ibids.get(j));
+                    j--;
+                }
+                ibids.set(j + 1, ibid);
+            }
+        }
+        else
+        {
+            Collections.sort(ibids, RANK_COMPARATOR);
+        }
 
         int i = 0;
         for (IndxBid ibid : ibids)
@@ -468,25 +604,19 @@ public class SegmentSet
         if (bid == null)
             return null;
 
-        int dur = bid.auctionSpot.spot.duration;
-        if (dur == myRootAvail.duration)
+        IndxBid ibid = myIndxBidsByBid.get(bid);
+        if (ibid != null)
         {
-            return findBidInList(myRankedBidsRoot, bid);
+            return ibid;
         }
-        else if (dur == myPairDuration)
-        {
-            if (bid.auctionObj.spot.segmentOffset == 0)
-                return findBidInList(myRankedBidsPair_0, bid);
-            return findBidInList(myRankedBidsPair_1, bid);
-        }
-        else if (dur == myQuadDuration)
+
+        int dur = bid.auctionSpot.spot.duration;
+        if (dur != myRootAvail.duration && dur != myPairDuration &&
+                dur != myQuadDuration)
         {
-            if (bid.auctionObj.spot.segmentOffset == 0)
-                return findBidInList(myRankedBidsQuad_0, bid);
-            return findBidInList(myRankedBidsQuad_1, bid);
+            throw new IllegalArgumentException("Illegal avail duration " + dur);
         }
-
-        throw new IllegalArgumentException("Illegal avail duration " + dur);
+        return null;
     }
 
     private void checkWinDuration()
@@ -596,12 +726,10 @@ public class SegmentSet
     public IndxBid findBidInList(List<IndxBid> origList,
             AuctionObjectShadow bid)
     {
-        for (IndxBid ibid : origList)
+        IndxBid ibid = myIndxBidsByBid.get(bid);
+        if (ibid != null && ibid.origList == origList)
         {
-            if (ibid.bid == bid)
-            {
-                return ibid;
-            }
+            return ibid;
         }
         return null;
     }
@@ -640,6 +768,9 @@ public class SegmentSet
         case SIMPLE:
             handleSegmentedWinnerSimple(auctioneer, winBid, pass);
             break;
+        case OPTIMAL:
+            handleSegmentedWinnerOptimal(auctioneer, winBid, pass);
+            break;
         }
 
         checkBudget();
@@ -785,6 +916,56 @@ public class SegmentSet
 
     } // handleSegmentedWinnerLinchpinOnly()
 
+    /**
+     * OPTIMAL VERSION OF ALGORITHM for segment handling.
+     * Finds the winnable Combo with the highest sum of ranks (ties
+     * going to the highest cost) by a branch-and-bound search over
+     * all the in-play bids of the ranked lists, rather than stepping
+     * greedily from the top-ranked Combo as COMPLEX does.
+     * As in COMPLEX, if the best Combo doesn't contain the linchpin,
+     * nothing wins yet.
+     * @param linchpin Bid to evaluate.  Has already been judged
+     * as able to be a winner itself.  May be null.
+     * @param pass Which pass we are executing.
+     */
+    public void handleSegmentedWinnerOptimal(Auctioneer auctioneer,
+            AuctionObjectShadow linchpin, AuctionPass pass)
+    {
+        debugMonitor(DEBUG_START_SEG_HEADER +
+                "Pass " + pass + "\n");
+
+        IndxBid linchpinBid = findIndxBid(linchpin);
+        ComboSearch search = new ComboSearch(auctioneer, pass, linchpin);
+        Combo best = search.findBest();
+
+        boolean gotWinner = false;
+        if (best != null && (linchpinBid == null ||
+                best.myBids.contains(linchpinBid)))
+        {
+            // Check the winners again, so each bid's creatives are
+            // chosen with the rest of this Combo as the other winners.
+            gotWinner = best.canAllWin(auctioneer, pass, linchpin);
+            if (!gotWinner)
+            {
+                // Should not happen; let the greedy search decide.
+                handleSegmentedWinnerComplex(auctioneer, linchpin, pass);
+                return;
+            }
+        }
+
+        // Record winner if we found one.
+        if (gotWinner)
+        {
+            recordComboWinner(auctioneer, pass, best);
+        }
+        else if (linchpin == null && best == null)
+        {
+            findPartialWinners(auctioneer, pass);
+        }
+
+        debugMonitor(SEGMENT_SET_COMPLETE_DEBUG_ACTION_MSG);
+    }
+
     /**
      * SIMPLE VERSION 3 OF ALGORITHM for segment handling.
      * Does NOT guarantee the SegmentSet is filled with winners.
@@ -862,7 +1043,8 @@ public class SegmentSet
             }
 
             // See if all bids in the current top-ranked combo can win.
-            boolean ok = topCombo.canAllWin(auctioneer, pass, linchpin);
+            boolean ok = topCombo.canAllWin(auctioneer, pass, linchpin,
+                    myReuseComboTrials);
 
             if (mySegmentStats != null)
                 mySegmentStats.ComboEvalCount++;
@@ -887,6 +1069,9 @@ public class SegmentSet
 
             topCombo = combos.topRanked;
 
+            // Unroll whatever the new top-ranked combo can't reuse.
+            combos.retainTrials(auctioneer, topCombo);
+
             if (!gotNext)
             {
                 // Our top-ranked combo has run out of bids.
@@ -898,6 +1083,9 @@ public class SegmentSet
 
         } // End evaluation loop
 
+        // Unroll any totals still kept from the last trial.
+        combos.retainTrials(auctioneer, null);
+
         // Record winner if we found one.
         if (gotWinner)
         {
@@ -909,7 +1097,7 @@ public class SegmentSet
         }
 
         // Done.
-        if (myDoDebug || theDebugOnTheFly)
+        if (myDoDebug || myDebugOnTheFly)
         {
             // Put the SegmentSet toString last so we capture the winning bid(s),
             // winDuration & winBudgetTaken.  Only create string if we're debugging.
@@ -968,30 +1156,12 @@ public class SegmentSet
     {
         if (aos != null)
         {
-            auctioneer.addToConditionalTotals(aos);
-
-            myUnrolledBudget += aos.auctionCost().valueInCents();
+            myUnrolledBudget += auctioneer.addToConditionalTotals(aos);
 
             bidsBudgeted.add(aos);
         }
     }
 
-    /**
-     * Unroll a conditional win.  Used for conditional
-     * process for mirroring, segments, etc.
-     * Unroll budget and impression numbers for a bidder.
-     * Unroll tallies to the appropriate break, daypart, program,
-     * bundling & product attribute mappings.
-     * @param auctioneer
-     * @param aos Bid's budget to remove.
-     * @param ac
-     */
-    private void unrollTotals(Auctioneer auctioneer,
-            AuctionObjectShadow aos, ActionCtxt ac)
-    {
-        unrollTotals(auctioneer, aos, ac, null);
-    }
-
     /**
      * Remove budget we've temporarily added so far.
      * @param auctioneer
@@ -1005,9 +1175,7 @@ public class SegmentSet
     {
         if (aos != null)
         {
-            auctioneer.unrollConditionalTotals(aos);
-
-            myUnrolledBudget -= aos.auctionCost().valueInCents();
+            myUnrolledBudget -= auctioneer.unrollConditionalTotals(aos);
 
             if (bidsBudgeted != null)
             {
@@ -1226,6 +1394,7 @@ public class SegmentSet
     /********* CLASS MEMBERS ************/
 
     private static WinMethod theWinAlgorithm = WinMethod.COMPLEX;
+    private static boolean theReuseComboTrials = false;
 
     /** Rank bids descending as we do in the global ranked list */
     /** Comparator to order AuctionShadowObject by descending rank */
@@ -1243,9 +1412,9 @@ public class SegmentSet
     /******* Fake Combo indicating that this set has no usable set of bids. */
     private final Combo INVALID_DEFAULT_COMBO = new Combo(0, ActionCtxt._INVALID, true);
 
-    /** STATS */
-    private static long theTstamp = 1;
     private static boolean theDebugOnTheFly = false;
+    /** Time stamps of SegmentSets created without an auction's context. */
+    private static final AtomicLong theDefaultTstamps = new AtomicLong(1);
 
     /************ OBJECT MEMBERS ************/
     /** Top (longest) avail. */
@@ -1258,6 +1427,12 @@ public class SegmentSet
 
     /** Algorithm */
     public final WinMethod myWinAlgorithm;
+    /** Keep leading bids' totals applied between COMPLEX trials? */
+    private final boolean myReuseComboTrials;
+    /** Dump debug info on-the-fly? */
+    private final boolean myDebugOnTheFly;
+    /** Settings & debug counters shared with the auction's other sets. */
+    private final SegmentSetContext myAuctionContext;
     /** Bids to spots in same tree that are of the same parent, rank-ordered. */
     public List<AuctionObjectShadow> myAllRankedBids;
     /** Mirrored partner SegmentSet */
@@ -1283,12 +1458,14 @@ public class SegmentSet
     /** Quad (2-15s of a 60) second bids presorted */
     public List<IndxBid> myRankedBidsQuad_0;
     public List<IndxBid> myRankedBidsQuad_1;
+    /** The IndxBid of each bid in the ranked lists above. */
+    private Map<AuctionObjectShadow, IndxBid> myIndxBidsByBid;
 
     private List<IndxBid> myWinningBids = new ArrayList<IndxBid>();
 
     public AuctionObjectShadow myPrevLinchpin = null;
 
-    private final List<DebugAction> myDebugActions;
+    private final SegmentDebugRing myDebugRing;
     private final SegmentStats mySegmentStats;
     private final boolean myDoDebug;
     private boolean myAllowPartialWins = false;
@@ -1327,6 +1504,38 @@ public class SegmentSet
             return SegmentSet.this;
         }
 
+        /**
+         * Record the values the bid is ordered by (see
+         * Auctioneer.RANK_WINNER_DESC_COMPARATOR).
+         * @return true if any of them changed since last recorded.
+         */
+        boolean refreshSortKey()
+        {
+            AuctionObject ao = bid.auctionObj;
+            float rank = ao.rank();
+            float alternateRank = bid.alternateRank;
+            long costCents = bid.auctionCost().valueInCents();
+            float derivedCpm = ao.derivedCPM();
+            if (Float.compare(rank, mySortRank) == 0 &&
+                    Float.compare(alternateRank, mySortAlternateRank) == 0 &&
+                    costCents == mySortCostCents &&
+                    Float.compare(derivedCpm, mySortDerivedCpm) == 0)
+            {
+                return false;
+            }
+            mySortRank = rank;
+            mySortAlternateRank = alternateRank;
+            mySortCostCents = costCents;
+            mySortDerivedCpm = derivedCpm;
+            return true;
+        }
+
+        /** Ordering values as of the last sort. */
+        private float mySortRank;
+        private float mySortAlternateRank;
+        private long mySortCostCents = Long.MIN_VALUE;
+        private float mySortDerivedCpm;
+
         /** Original auction bid */
         public final AuctionObjectShadow bid;
         /** Index in SegmentSet duration-silo array */
@@ -1373,6 +1582,9 @@ public class SegmentSet
             myComboType = ctype;
             myBids = new ArrayList<IndxBid>(size);
             myLinchpinExists = linchExists;
+            myTrialSavepoints = new int[size];
+            myTrialBudgeted = new int[size];
+            myTrialBids = new IndxBid[size];
 
             if (mySegmentStats != null)
             {
@@ -1422,7 +1634,7 @@ public class SegmentSet
         public void setWinner()
         {
             // Default does nothing.  Used for debug/tracking subclasses.
-            if (myDoDebug || theDebugOnTheFly) // DEBUG-Start
+            if (myDoDebug || myDebugOnTheFly) // DEBUG-Start
             {
                 debugMonitor(myComboType, myComboLinchpin,
                         (myLinchpinExists?SegmentSetAction.WINNER_COMBO:
@@ -1510,18 +1722,48 @@ public class SegmentSet
          */
         private boolean canAllWin(Auctioneer auctioneer, AuctionPass pass,
                 AuctionObjectShadow linchpin)
+        {
+            return canAllWin(auctioneer, pass, linchpin, false);
+        }
+
+        /**
+         * Tries to find all winners for this Combo.
+         * @param auctioneer Auctioneer parent.
+         * @param pass Auction Pass we're in.
+         * @param linchpin Bid already determined to be winnable.
+         * @param keepTrial If true and the Combo can't win, keep the totals
+         * of the bids before the losing bid applied, to be reused by the
+         * next trial (see retainTrial()).
+         * @return true if we found a set of winners.
+         */
+        private boolean canAllWin(Auctioneer auctioneer, AuctionPass pass,
+                AuctionObjectShadow linchpin, boolean keepTrial)
         {
             boolean canWin = true;
 
-            // Initialize state.
+            // Initialize state, resuming after any bids kept from
+            // the last trial.
             // The call to addToTotals() puts bids in this list.
-            myBidsBudgeted.clear();
+            int start = myTrialDepth;
+            if (start == 0)
+            {
+                myBidsBudgeted.clear();
+            }
 
             // For all the bids in this combo, find possible winners.
             // Note iterator must pick the linchpin bid first!
-            for (IndxBid ib : this.myBids)
+            int k;
+            for (k = start; k < myBids.size(); k++)
             {
+                IndxBid ib = myBids.get(k);
                 AuctionObjectShadow aos = ib.bid;
+
+                // Remember where to unroll to if this bid loses.
+                myTrialSavepoints[k] = auctioneer.conditionalSavepoint();
+                myTrialBudgeted[k] = myBidsBudgeted.size();
+                myTrialBids[k] = ib;
+                myTrialDepth = k + 1;
+
                 if (aos == linchpin)
                 {
 
@@ -1562,16 +1804,58 @@ public class SegmentSet
                 }
             }
 
-            // Unroll everything we applied in addToTotals()
-            for (AuctionObjectShadow aos : myBidsBudgeted)
-            {
-                unrollTotals(auctioneer, aos, myComboType);
-            }
+            // Roll back everything we applied in addToTotals(),
+            // except the bids before the loser if we keep them.
+            rollbackTrial(auctioneer, (canWin || !keepTrial) ? 0 : k);
 
             // Return our result.
             return canWin;
         }
 
+        /**
+         * Unroll the totals kept from the last trial that the next trial
+         * can't reuse: all of them if this Combo is not going to be tried
+         * next, otherwise those from the first bid that has been replaced.
+         * @param auctioneer Auctioneer parent.
+         * @param isNext true if this Combo is the next to be tried.
+         */
+        public void retainTrial(Auctioneer auctioneer, boolean isNext)
+        {
+            int depth = 0;
+            if (isNext && myIsValid)
+            {
+                while (depth < myTrialDepth &&
+                        myBids.get(depth) == myTrialBids[depth])
+                {
+                    depth++;
+                }
+            }
+            rollbackTrial(auctioneer, depth);
+        }
+
+        /**
+         * Unroll the totals applied for bids from a position on.
+         * @param auctioneer Auctioneer parent.
+         * @param depth Number of leading bids whose totals are kept.
+         */
+        private void rollbackTrial(Auctioneer auctioneer, int depth)
+        {
+            if (depth >= myTrialDepth)
+            {
+                return;
+            }
+            int mark = myTrialBudgeted[depth];
+            for (int i = myBidsBudgeted.size() - 1; i >= mark; i--)
+            {
+                myBidsBudgeted.remove(i);
+            }
+            // Every conditional win since the savepoint was added by
+            // addToTotals(), so this removes what it added to the budget.
+            myUnrolledBudget -=
+                auctioneer.rollbackConditionalTotals(myTrialSavepoints[depth]);
+            myTrialDepth = depth;
+        }
+
 
         /** Determine if this non-linchpin IndxBid & its mirror
          *  can be won by the buy associated with this IndxBid.
@@ -1609,7 +1893,7 @@ public class SegmentSet
                 // Add the bid to myBidsBudgeted
                 addToTotals(auctioneer, aos, myComboType, myBidsBudgeted);
 
-                if (myDoDebug || theDebugOnTheFly) // DEBUG-Start
+                if (myDoDebug || myDebugOnTheFly) // DEBUG-Start
                 {
                     debugMonitor(myComboType, ib,
                             SegmentSetAction.CAN_BE_WINNER,
@@ -1743,6 +2027,30 @@ public class SegmentSet
             return true;
         }
 
+        /**
+         * Replace this Combo's bids with the given ones, to be checked
+         * in the order given (so any linchpin must be first).
+         * @param bids Bids, one per bin of this Combo.
+         */
+        private void setBids(IndxBid[] bids)
+        {
+            myBids.clear();
+            for (IndxBid ib : bids)
+            {
+                myBids.add(ib);
+            }
+            myIsValid = (myBids.size() == myRequiredSize);
+            setRankAndCost();
+        }
+
+        /**
+         * @return position in this Combo's bids of the last losing bid.
+         */
+        private int lastLosingPosition()
+        {
+            return myBids.indexOf(myLastLosingBid);
+        }
+
         /**
          * Replace the last losing bid with the next ranked one
          * in its original list.  Has side effect of recalculating
@@ -2066,6 +2374,14 @@ public class SegmentSet
         /** List used to track temp budget spending. */
         private List<AuctionObjectShadow> myBidsBudgeted =
                 new ArrayList<AuctionObjectShadow>();
+        /** Number of leading bids whose totals are applied by a trial. */
+        private int myTrialDepth = 0;
+        /** Per position: conditional totals savepoint before the bid. */
+        private final int[] myTrialSavepoints;
+        /** Per position: size of myBidsBudgeted before the bid. */
+        private final int[] myTrialBudgeted;
+        /** Per position: bid whose totals were applied. */
+        private final IndxBid[] myTrialBids;
 
     } // END Combo class
 
@@ -2324,6 +2640,20 @@ public class SegmentSet
             return (topRanked != INVALID_DEFAULT_COMBO);
         }
 
+        /**
+         * Unroll the totals kept from the last trial that the next trial
+         * can't reuse.
+         * @param auctioneer Auctioneer parent.
+         * @param nextCombo Combo to be tried next, or null if none.
+         */
+        public void retainTrials(Auctioneer auctioneer, Combo nextCombo)
+        {
+            for (Combo c : combos)
+            {
+                c.retainTrial(auctioneer, (c == nextCombo));
+            }
+        }
+
         /**
          * Assign 'topRanked' to the Combo with the
          * highest sum of ranks.
@@ -2349,7 +2679,7 @@ public class SegmentSet
             if (mySegmentStats != null)
                 mySegmentStats.RankEvalCount++;
 
-            if (myDoDebug || theDebugOnTheFly) // DEBUG-Start
+            if (myDoDebug || myDebugOnTheFly) // DEBUG-Start
             {
                 if (topRanked == INVALID_DEFAULT_COMBO)
                 {
@@ -2378,11 +2708,243 @@ public class SegmentSet
 
     } // END ComboSet class
 
+    /************************************************************
+     * ComboSearch
+     * Branch-and-bound search for the winnable Combo with the
+     * highest sum of ranks.  For each kind of Combo, each bin's
+     * ranked list is walked in order, depth first.  A partial
+     * Combo is dropped once its rank sum plus the best ranks still
+     * available to its remaining bins can't beat the best Combo
+     * found.  When a full Combo can't win, its losing bid and the
+     * bids before it can't win together whatever fills the later
+     * bins, so the search moves on from the loser.  Totals applied
+     * for the leading bids are kept from one Combo to the next
+     * (see Combo.retainTrial()).
+     *************************************************************/
+    public class ComboSearch
+    {
+        /**
+         * Constructor.
+         * @param auctioneer Auctioneer parent.
+         * @param pass Auction Pass we're in.
+         * @param linchpin Linchpin bid, or null.
+         */
+        public ComboSearch(Auctioneer auctioneer, AuctionPass pass,
+                AuctionObjectShadow linchpin)
+        {
+            myAuctioneer = auctioneer;
+            myPass = pass;
+            myLinchpin = linchpin;
+            myLinchpinBid = findIndxBid(linchpin);
+        }
+
+        /**
+         * Search all kinds of Combo.
+         * @return the best winnable Combo, holding its bids, or null
+         * if no Combo can win.
+         */
+        public Combo findBest()
+        {
+            ComboRoot root = new ComboRoot(myLinchpinBid);
+            search(root, myRankedBidsRoot);
+
+            ComboPair pair = new ComboPair(myLinchpinBid);
+            if (myLinchpinBid != null &&
+                    myLinchpinBid.origList == myRankedBidsPair_1)
+            {
+                search(pair, myRankedBidsPair_1, myRankedBidsPair_0);
+            }
+            else
+            {
+                search(pair, myRankedBidsPair_0, myRankedBidsPair_1);
+            }
+
+            ComboTrio trio = new ComboTrio(myLinchpinBid);
+            if (myLinchpinBid != null &&
+                    myLinchpinBid.origList == myRankedBidsQuad_0)
+            {
+                search(trio, myRankedBidsQuad_0, myRankedBidsQuad_1,
+                        myRankedBidsPair_1);
+            }
+            else if (myLinchpinBid != null &&
+                    myLinchpinBid.origList == myRankedBidsQuad_1)
+            {
+                search(trio, myRankedBidsQuad_1, myRankedBidsQuad_0,
+                        myRankedBidsPair_1);
+            }
+            else
+            {
+                search(trio, myRankedBidsPair_1, myRankedBidsQuad_0,
+                        myRankedBidsQuad_1);
+            }
+
+            if (myBestCombo == null)
+            {
+                return null;
+            }
+            myBestCombo.setBids(myBestBids);
+            return myBestCombo;
+        }
+
+        /**
+         * Search one kind of Combo.
+         * @param combo Combo to hold the bids being checked.
+         * @param lists Ranked list of each bin, linchpin's first. The
+         * array is kept in myLists for the search, but it is only read
+         * and never stored into or passed outside this ComboSearch,
+         * so it is safe.
+         */
+        @SafeVarargs
+        private void search(Combo combo, List<IndxBid>... lists)
+        {
+            myCombo = combo;
+            myLists = lists;
+            myBids = new IndxBid[lists.length];
+
+            // Best rank available to each list from each position on,
+            // and to all bins from each bin on.
+            mySuffixMax = new double[lists.length][];
+            myRestMax = new double[lists.length + 1];
+            for (int d = 0; d < lists.length; d++)
+            {
+                List<IndxBid> list = lists[d];
+                double[] max = new double[list.size() + 1];
+                max[list.size()] = Double.NEGATIVE_INFINITY;
+                for (int i = list.size() - 1; i >= 0; i--)
+                {
+                    IndxBid ib = list.get(i);
+                    max[i] = (isEligible(ib) ?
+                            Math.max(max[i + 1], ib.bid.auctionObj.rank()) :
+                            max[i + 1]);
+                }
+                if (max[0] == Double.NEGATIVE_INFINITY)
+                {
+                    // A bin can't be filled.
+                    return;
+                }
+                mySuffixMax[d] = max;
+            }
+            for (int d = lists.length - 1; d >= 0; d--)
+            {
+                myRestMax[d] = myRestMax[d + 1] + mySuffixMax[d][0];
+            }
+
+            searchBin(0, 0, 0);
+
+            // Unroll totals kept from the last Combo checked.
+            combo.retainTrial(myAuctioneer, false);
+        }
+
+        /**
+         * Try each bid of a bin with the bids chosen for the bins
+         * before it.
+         * @param d Bin.
+         * @param rankSum Rank sum of the bids of bins before d.
+         * @param costSum Cost sum of the bids of bins before d.
+         * @return Bin of a losing bid to move on from, if before d;
+         * otherwise -1.
+         */
+        private int searchBin(int d, double rankSum, long costSum)
+        {
+            List<IndxBid> list = myLists[d];
+            for (int i = 0; i < list.size(); i++)
+            {
+                if (rankSum + mySuffixMax[d][i] + myRestMax[d + 1] <
+                        myBestRank)
+                {
+                    // Nothing from here on can beat the best found.
+                    break;
+                }
+                IndxBid ib = list.get(i);
+                if (!isEligible(ib))
+                {
+                    continue;
+                }
+                myBids[d] = ib;
+                double rank = rankSum + ib.bid.auctionObj.rank();
+                long cost = costSum + ib.bid.auctionCost().valueInCents();
+
+                int lost;
+                if (d + 1 < myLists.length)
+                {
+                    lost = searchBin(d + 1, rank, cost);
+                }
+                else if (rank > myBestRank ||
+                        (rank == myBestRank && cost > myBestCost))
+                {
+                    lost = tryBids();
+                    if (lost < 0)
+                    {
+                        myBestRank = rank;
+                        myBestCost = cost;
+                        myBestCombo = myCombo;
+                        myBestBids = myBids.clone();
+                    }
+                }
+                else
+                {
+                    lost = -1;
+                }
+                if (lost >= 0 && lost < d)
+                {
+                    return lost;
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * Check whether the chosen bids can all win.
+         * @return Bin of the losing bid, or -1 if all can win.
+         */
+        private int tryBids()
+        {
+            myCombo.setBids(myBids);
+            myCombo.retainTrial(myAuctioneer, true);
+            boolean ok = myCombo.canAllWin(myAuctioneer, myPass, myLinchpin,
+                    true);
+
+            if (mySegmentStats != null)
+                mySegmentStats.ComboEvalCount++;
+
+            return (ok ? -1 : myCombo.lastLosingPosition());
+        }
+
+        /**
+         * @return true if a bid may be part of a winning Combo.
+         */
+        private boolean isEligible(IndxBid ib)
+        {
+            return (ib == myLinchpinBid ||
+                    ib.bid.auctionState == AuctionStatus.IN_PLAY);
+        }
+
+        /********** OBJECT MEMBERS ********/
+        private final Auctioneer myAuctioneer;
+        private final AuctionPass myPass;
+        private final AuctionObjectShadow myLinchpin;
+        private final IndxBid myLinchpinBid;
+
+        /** Kind of Combo being searched. */
+        private Combo myCombo;
+        private List<IndxBid>[] myLists;
+        private double[][] mySuffixMax;
+        private double[] myRestMax;
+        /** Bid chosen for each bin so far. */
+        private IndxBid[] myBids;
+
+        private double myBestRank = Double.NEGATIVE_INFINITY;
+        private long myBestCost = 0;
+        private Combo myBestCombo = null;
+        private IndxBid[] myBestBids = null;
+
+    } // END ComboSearch class
+
     /*********************** SEGMENT SET DEBUG SECTION ***********************/
 
     /**
      * Set whether we will turn on/off dumping out the segment set
-     * debug information on-the-fly.  If true, we'll print the
+     * debug information on-the-fly by default.  If true, we'll print the
      * debug info as we go, otherwise we'll store the debug info
      * and dump it out via a call to dumpDebugActions().
      * @param val the value
@@ -2431,19 +2993,41 @@ public class SegmentSet
             "\n=======================================================================\n";
 
     /**
-     * Store the SegmentSet actions for debugging.  Or dump them out to sysout
-     * if theDebugOnTheFly is true.
+     * Store a SegmentSet action for debugging.  Or dump it out to sysout
+     * if myDebugOnTheFly is true.  Stored actions are only formatted
+     * when dumped.
+     * @param costCents Cost to show, or SegmentDebugRing.NO_COST to
+     * show the rank sum.
      */
-    private void setDebugAction(DebugAction da)
+    private void setDebugAction(ActionCtxt ctxt, IndxBid ib,
+            SegmentSetAction ssa, double rankSum, long costCents,
+            int index, Collection<Integer> crids)
     {
-        if (theDebugOnTheFly)
+        long tstamp = (mySegmentStats == null ?
+                myAuctionContext.nextTstamp() : mySegmentStats.Tstamp++);
+
+        if (myDebugOnTheFly)
         {
+            int[] cridArray = null;
+            if (crids != null)
+            {
+                cridArray = new int[crids.size()];
+                int i = 0;
+                for (Integer crid : crids)
+                {
+                    cridArray[i++] = crid;
+                }
+            }
+            DebugAction da = new DebugAction(tstamp, ctxt, ib, ssa,
+                    (ib == null ? null : ib.bid.auctionState),
+                    rankSum, costCents, index, cridArray);
             System.out.println(da.toString());
         }
 
-        if (myDebugActions != null)
+        if (myDebugRing != null)
         {
-            myDebugActions.add(da);
+            myDebugRing.addAction(this, tstamp, ctxt, ib, ssa, rankSum,
+                    costCents, index, crids);
         }
     }
 
@@ -2568,29 +3152,32 @@ public class SegmentSet
     }
 
     /**
-     *  Add a msg to the list of debug actions.
-     *  @param msg the msg to add to the given actions list.
-     *  @param actions the list of debug actions to which we're
-     *  adding this msg.
+     *  Add a msg to the debug actions, if this SegmentSet is debugging.
+     *  @param msg the msg to add.
      */
-    public void addDebugAction(String msg,
-            List<SegmentSet.DebugAction> actions)
+    public void addDebugAction(String msg)
     {
-        if (actions != null)
+        if (myDebugRing != null)
         {
-            actions.add(new DebugAction(msg));
+            myDebugRing.addMessage(this, msg);
         }
     }
 
     private static final int NO_INDEX = -1;
     private static final int NO_DURATION = -1;
+    /** Most repriced bids in a list to fix up by insertion, not a full sort */
+    private static final int INSERTION_SORT_LIMIT = 8;
 
     /** Debug with string arg */
     private boolean debugMonitor(String msg)
     {
-        if (myDoDebug || theDebugOnTheFly)
+        if (myDebugOnTheFly)
         {
-            setDebugAction(new DebugAction(msg));
+            System.out.println(new DebugAction(msg).toString());
+        }
+        if (myDebugRing != null)
+        {
+            myDebugRing.addMessage(this, msg);
         }
         return true;
     }
@@ -2600,11 +3187,10 @@ public class SegmentSet
             SegmentSetAction ssa, Money cost, int index,
             Collection<Integer> crids)
     {
-        if (myDoDebug || theDebugOnTheFly)
+        if (myDoDebug || myDebugOnTheFly)
         {
-            DebugAction da = new DebugAction(ctxt, ib, ssa, mySegmentStats,
-                    cost.toString(), index, crids);
-            setDebugAction(da);
+            setDebugAction(ctxt, ib, ssa, 0, cost.valueInCents(), index,
+                    crids);
         }
         return true;
     }
@@ -2633,11 +3219,10 @@ public class SegmentSet
             int index,
             Collection<Integer> crids)
     {
-        if (myDoDebug || theDebugOnTheFly)
+        if (myDoDebug || myDebugOnTheFly)
         {
-            DebugAction da = new DebugAction(ctxt, ib, ssa, mySegmentStats,
-                    rankFmt(rankSum), index, crids);
-            setDebugAction(da);
+            setDebugAction(ctxt, ib, ssa, rankSum, SegmentDebugRing.NO_COST,
+                    index, crids);
         }
         return true;
     }
@@ -2655,57 +3240,34 @@ public class SegmentSet
      */
     class DebugAction
     {
-        /**
-         * Constructor with PlacementAttributes.
-         * @param ctxt
-         * @param ib
-         * @param ssa
-         * @param stats
-         * @param rankSumCost
-         * @param crids
-         */
-        public DebugAction(ActionCtxt ctxt, IndxBid ib,
-                SegmentSetAction ssa,
-                SegmentStats stats,
-                String rankSumCost,
-                Collection<Integer> crids)
-        {
-            this(ctxt, ib, ssa, stats, rankSumCost, NO_INDEX, crids);
-        }
-
         /**
          * Standard constructor.
+         * @param tstamp
          * @param ctxt
          * @param ib
          * @param ssa
-         * @param stats
-         * @param rankSumCost
+         * @param state State of the bid when the action happened.
+         * @param rankSum
+         * @param costCents Cost to show, or SegmentDebugRing.NO_COST
+         * to show the rank sum.
          * @param index
+         * @param crids Unpruned creative IDs, or null.  A last ID of
+         * SegmentDebugRing.TRUNCATED_CRID shows the list was cut short.
          */
-        public DebugAction(ActionCtxt ctxt, IndxBid ib, SegmentSetAction ssa,
-                SegmentStats stats, String rankSumCost, int index,
-                Collection<Integer> crids)
+        DebugAction(long tstamp, ActionCtxt ctxt, IndxBid ib,
+                SegmentSetAction ssa, AuctionStatus state, double rankSum,
+                long costCents, int index, int[] crids)
         {
             myIb = ib;
             mySsa = ssa;
-            myTstamp = (stats == null ? theTstamp++ : stats.Tstamp++);
-            myRankSumCost = rankSumCost;
+            myTstamp = tstamp;
+            myRankSum = rankSum;
+            myCostCents = costCents;
             myIndex = index;
             myContext = ctxt;
-            myState = (myIb == null ? null : myIb.bid.auctionState);
+            myState = state;
             myDebugStr = null;
-
-            if (crids != null)
-            {
-                StringBuilder sb = new StringBuilder();
-                sb.append("(");
-                for (Integer crid : crids)
-                {
-                    sb.append(crid).append(",");
-                }
-                sb.append(")");
-                myUnprunedCrids = sb.toString();
-            }
+            myUnprunedCrids = crids;
         }
 
         /**
@@ -2800,6 +3362,26 @@ public class SegmentSet
             String actionStr = mySsa.toString() + myContext.name();
             String allowStr = " ";
             String crids = "";
+            String rankSumCost = (myCostCents == SegmentDebugRing.NO_COST ?
+                    rankFmt(myRankSum) :
+                    Money.newFromPennies(myCostCents).toString());
+            String unprunedCrids = "";
+            if (myUnprunedCrids != null)
+            {
+                StringBuilder sb = new StringBuilder();
+                sb.append("(");
+                for (int crid : myUnprunedCrids)
+                {
+                    if (crid == SegmentDebugRing.TRUNCATED_CRID)
+                    {
+                        sb.append("...");
+                        break;
+                    }
+                    sb.append(crid).append(",");
+                }
+                sb.append(")");
+                unprunedCrids = sb.toString();
+            }
 
             if (myIb != null)
             {
@@ -2853,9 +3435,9 @@ public class SegmentSet
             return String.format("%08d %07d %07d %05d %02d %2d%s %-16s %14.2f %14s %04d %-22s %-21s %s %s",
                     myTstamp, rootId, availId, buyId,
                     dur, offset, allowStr, crids,
-                    rank, myRankSumCost, index,
+                    rank, rankSumCost, index,
                     actionStr, state, endState,
-                    (myUnprunedCrids==null?"":myUnprunedCrids);
+                    unprunedCrids;
         }
 
         public SegmentSetAction ssa()
@@ -2867,11 +3449,12 @@ public class SegmentSet
         private IndxBid myIb;
         private SegmentSetAction mySsa;
         private long myTstamp;
-        private String myRankSumCost;
+        private double myRankSum;
+        private long myCostCents;
         private int myIndex;
         private AuctionStatus myState;
         private final String myDebugStr;
-        private String myUnprunedCrids = null;
+        private int[] myUnprunedCrids = null;
     } // END DebugAction class
 
     /** Attributes we have accumulated per creative ID */
@@ -0,0 +1,71 @@
+/**
+ * Part of a source code package originally written for the AdAuctionApp project.
+ * Intended for use as a programming work sample file only.  Not for distribution.
+ **/
+package AdAuctionApp.Auction;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import AdAuctionApp.Auction.SegmentSet.WinMethod;
+
+/**
+ * Settings and debug state shared by the SegmentSets of a single auction.
+ * An Auctioneer creates a new context for each auction it runs, so auctions
+ * in the same JVM may use different settings, and debug time stamps restart
+ * with each auction.
+ *
+ * The settings never change once created. Time stamps come from an atomic
+ * counter: the component auctions of an auction share its context, and may
+ * run concurrently while SegmentSet actions are printed on-the-fly.
+ *
+ * This class is thread safe.
+ */
+final class SegmentSetContext
+{
+   /**
+    * Constructor.
+    *
+    * @param winAlgorithm Algorithm used to determine a SegmentSet winner.
+    * @param reuseComboTrials See SegmentSet.setReuseComboTrials().
+    * @param debugOnTheFly See SegmentSet.setDebugOnTheFly().
+    * @param tstamps Counter of debug action time stamps; may be shared with
+    *        other contexts.
+    */
+   SegmentSetContext(WinMethod winAlgorithm, boolean reuseComboTrials,
+      boolean debugOnTheFly, AtomicLong tstamps)
+   {
+      myWinAlgorithm = winAlgorithm;
+      myReuseComboTrials = reuseComboTrials;
+      myDebugOnTheFly = debugOnTheFly;
+      myTstamps = tstamps;
+   }
+
+   WinMethod winAlgorithm()
+   {
+      return myWinAlgorithm;
+   }
+
+   boolean reuseComboTrials()
+   {
+      return myReuseComboTrials;
+   }
+
+   boolean debugOnTheFly()
+   {
+      return myDebugOnTheFly;
+   }
+
+   /**
+    * @return Next debug action time stamp; the first is 1.
+    */
+   long nextTstamp()
+   {
+      return myTstamps.getAndIncrement();
+   }
+
+   /******************** Instance members **************************/
+   private final WinMethod myWinAlgorithm;
+   private final boolean myReuseComboTrials;
+   private final boolean myDebugOnTheFly;
+   private final AtomicLong myTstamps;
+}
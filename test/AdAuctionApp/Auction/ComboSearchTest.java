@@ -0,0 +1,419 @@
+/**
+ * Part of a source code package originally written for the AdAuctionApp project.
+ * Intended for use as a programming work sample file only.  Not for distribution.
+ **/
+package AdAuctionApp.Auction;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.anyInt;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import AdAuctionApp.Auction.AuctionConstants.WinType;
+import AdAuctionApp.Auction.SegmentSet.WinMethod;
+import AdAuctionApp.Cache.Central.CampaignBuyAuctionInfo;
+import AdAuctionApp.Cache.Central.Spot;
+
+/**
+ * Checks the OPTIMAL segment algorithm's branch-and-bound search against an
+ * exhaustive enumeration of the Combos of small SegmentSets, and against the
+ * greedy COMPLEX algorithm.
+ *
+ * Bids conflict the way bids on one break do: a buy can win only one segment
+ * of the set. Ranks are distinct powers of two, so no two sets of bids have
+ * the same rank sum and the best Combo is unique.
+ */
+public class ComboSearchTest
+{
+   @Test
+   public void optimalMatchesExhaustiveSearch()
+   {
+      for (long seed = 1; seed <= SEEDS; seed++)
+      {
+         Case c = new Case(seed);
+         if (c.linchpin == null)
+         {
+            continue;
+         }
+         List<AuctionObjectShadow> expected = c.bestWinners();
+         FakeAuctioneer fake = run(c, WinMethod.OPTIMAL);
+
+         assertEquals("Seed " + seed, identitySet(expected),
+            identitySet(fake.winners));
+      }
+   }
+
+   @Test
+   public void optimalRanksAtLeastAsHighAsComplex()
+   {
+      for (long seed = 1; seed <= SEEDS; seed++)
+      {
+         if (new Case(seed).linchpin == null)
+         {
+            continue;
+         }
+         FakeAuctioneer optimal = run(new Case(seed), WinMethod.OPTIMAL);
+         FakeAuctioneer complex = run(new Case(seed), WinMethod.COMPLEX);
+         if (!optimal.winners.isEmpty() && !complex.winners.isEmpty())
+         {
+            assertTrue("Seed " + seed,
+               rankSum(optimal.winners) >= rankSum(complex.winners));
+         }
+      }
+   }
+
+   @Test
+   public void optimalFindsComboComplexSkips()
+   {
+      // COMPLEX tries L + Q0a + Q1a; Q1a loses (buy X already won Q0a), so
+      // only Q1a is replaced, by Q1b. OPTIMAL also tries replacing Q0a.
+      for (WinMethod method : new WinMethod[] {WinMethod.OPTIMAL, WinMethod.COMPLEX})
+      {
+         Case c = new Case();
+         AuctionObjectShadow l = c.add(c.pair1, BUY_L, 9f, 300L);
+         AuctionObjectShadow q0a = c.add(c.quad0, BUY_X, 5f, 100L);
+         AuctionObjectShadow q0b = c.add(c.quad0, BUY_Y, 4f, 100L);
+         AuctionObjectShadow q1a = c.add(c.quad1, BUY_X, 5f, 100L);
+         AuctionObjectShadow q1b = c.add(c.quad1, BUY_W, 1f, 100L);
+         c.linchpin = l;
+         FakeAuctioneer fake = run(c, method);
+
+         List<AuctionObjectShadow> expected = (method == WinMethod.OPTIMAL
+            ? list(l, q0b, q1a) : list(l, q0a, q1b));
+         assertEquals(method.toString(), identitySet(expected),
+            identitySet(fake.winners));
+      }
+   }
+
+   /**
+    * Run a SegmentSet's algorithm with the Case's linchpin, and check that
+    * it unrolled all the conditional totals it applied.
+    */
+   private static FakeAuctioneer run(Case c, WinMethod method)
+   {
+      FakeAuctioneer fake = new FakeAuctioneer(c.blocked);
+      c.segmentSet(method).handleSegmentedWinner(fake.auctioneer, c.linchpin, PASS);
+      assertTrue(fake.applied.isEmpty());
+      return fake;
+   }
+
+   private static double rankSum(List<AuctionObjectShadow> bids)
+   {
+      double sum = 0;
+      for (AuctionObjectShadow bid : bids)
+      {
+         sum += bid.auctionObj.rank();
+      }
+      return sum;
+   }
+
+   private static List<AuctionObjectShadow> list(AuctionObjectShadow... bids)
+   {
+      List<AuctionObjectShadow> rtnList = new ArrayList<AuctionObjectShadow>();
+      Collections.addAll(rtnList, bids);
+      return rtnList;
+   }
+
+   private static Set<AuctionObjectShadow> identitySet(List<AuctionObjectShadow> bids)
+   {
+      Set<AuctionObjectShadow> rtnSet = Collections.newSetFromMap(
+         new IdentityHashMap<AuctionObjectShadow, Boolean>());
+      rtnSet.addAll(bids);
+      return rtnSet;
+   }
+
+   /**
+    * The bids of one 60-second segmented avail.
+    */
+   private static final class Case
+   {
+      /**
+       * Empty case.
+       */
+      Case()
+      {
+      }
+
+      /**
+       * Random case: up to three bids on each segment, by four buys.
+       * The linchpin is the top-ranked bid that can win alone.
+       */
+      Case(long seed)
+      {
+         Random random = new Random(seed);
+         List<List<AuctionObjectShadow>> bins = bins();
+         List<Integer> exponents = new ArrayList<Integer>();
+         for (int e = 0; e < bins.size() * MAX_BIDS_PER_BIN; e++)
+         {
+            exponents.add(e);
+         }
+         Collections.shuffle(exponents, random);
+         int next = 0;
+         for (List<AuctionObjectShadow> bin : bins)
+         {
+            int count = random.nextInt(MAX_BIDS_PER_BIN + 1);
+            for (int i = 0; i < count; i++)
+            {
+               AuctionObjectShadow bid = add(bin, BUY_L + random.nextInt(4),
+                  (float) (1 << exponents.get(next++)), 100L + random.nextInt(900));
+               if (random.nextInt(100) < BLOCKED_PERCENT)
+               {
+                  blocked.add(bid);
+               }
+            }
+         }
+         for (List<AuctionObjectShadow> bin : bins)
+         {
+            for (AuctionObjectShadow bid : bin)
+            {
+               if (!blocked.contains(bid) && (linchpin == null
+                  || bid.auctionObj.rank() > linchpin.auctionObj.rank()))
+               {
+                  linchpin = bid;
+               }
+            }
+         }
+      }
+
+      /**
+       * Add a bid to a segment.
+       */
+      AuctionObjectShadow add(List<AuctionObjectShadow> bin, int buyID,
+         float rank, long costCents)
+      {
+         Spot spot = (bin == rootBids ? rootSpot : (bin == pair0 ? pair0Spot
+            : (bin == pair1 ? pair1Spot : (bin == quad0 ? quad0Spot : quad1Spot))));
+         CampaignBuyAuctionInfo buy = TestBids.buy(buyID);
+         AuctionObjectShadow bid = TestBids.bid(spot, buy, rank, 0f, costCents, 1f);
+         bid.auctionSpot = new AuctionSpot(spot);
+         bid.auctionState = AuctionStatus.IN_PLAY;
+         bin.add(bid);
+         return bid;
+      }
+
+      /**
+       * @return New SegmentSet of the bids, using an algorithm.
+       */
+      SegmentSet segmentSet(WinMethod method)
+      {
+         SegmentSet set = new SegmentSet(rootSpot, null, null,
+            SegmentSet.newContext(method, false, false));
+         for (List<AuctionObjectShadow> bin : bins())
+         {
+            for (AuctionObjectShadow bid : bin)
+            {
+               set.addBid(bid);
+            }
+         }
+         set.optimizeArrays();
+         set.sortSegment();
+         return set;
+      }
+
+      /**
+       * Enumerate every Combo: a 60, two 30s, or the second 30 and two 15s.
+       * @return Bids of the best winnable Combo if it holds the linchpin,
+       *         otherwise none.
+       */
+      List<AuctionObjectShadow> bestWinners()
+      {
+         List<List<AuctionObjectShadow>> combos =
+            new ArrayList<List<AuctionObjectShadow>>();
+         for (AuctionObjectShadow r : rootBids)
+         {
+            combos.add(list(r));
+         }
+         for (AuctionObjectShadow p0 : pair0)
+         {
+            for (AuctionObjectShadow p1 : pair1)
+            {
+               combos.add(list(p0, p1));
+            }
+         }
+         for (AuctionObjectShadow p1 : pair1)
+         {
+            for (AuctionObjectShadow q0 : quad0)
+            {
+               for (AuctionObjectShadow q1 : quad1)
+               {
+                  combos.add(list(p1, q0, q1));
+               }
+            }
+         }
+         List<AuctionObjectShadow> best = null;
+         for (List<AuctionObjectShadow> combo : combos)
+         {
+            if (canAllWin(combo)
+               && (best == null || rankSum(combo) > rankSum(best)))
+            {
+               best = combo;
+            }
+         }
+         if (best == null || !identitySet(best).contains(linchpin))
+         {
+            return Collections.emptyList();
+         }
+         return best;
+      }
+
+      private boolean canAllWin(List<AuctionObjectShadow> combo)
+      {
+         Set<Integer> buys = new HashSet<Integer>();
+         for (AuctionObjectShadow bid : combo)
+         {
+            if (blocked.contains(bid)
+               || !buys.add(bid.auctionObj.campaignBuy.campaignBuyID))
+            {
+               return false;
+            }
+         }
+         return true;
+      }
+
+      private List<List<AuctionObjectShadow>> bins()
+      {
+         List<List<AuctionObjectShadow>> bins =
+            new ArrayList<List<AuctionObjectShadow>>();
+         Collections.addAll(bins, rootBids, pair0, pair1, quad0, quad1);
+         return bins;
+      }
+
+      private static Spot segment(int duration, int offset)
+      {
+         Spot spot = TestBids.spot(SPOT_ID + duration + offset, 0, SPOT_ID, offset);
+         spot.duration = duration;
+         return spot;
+      }
+
+      final Spot rootSpot = segment(60, 0);
+      final Spot pair0Spot = segment(30, 0);
+      final Spot pair1Spot = segment(30, 1);
+      final Spot quad0Spot = segment(15, 0);
+      final Spot quad1Spot = segment(15, 1);
+      final List<AuctionObjectShadow> rootBids = new ArrayList<AuctionObjectShadow>();
+      final List<AuctionObjectShadow> pair0 = new ArrayList<AuctionObjectShadow>();
+      final List<AuctionObjectShadow> pair1 = new ArrayList<AuctionObjectShadow>();
+      final List<AuctionObjectShadow> quad0 = new ArrayList<AuctionObjectShadow>();
+      final List<AuctionObjectShadow> quad1 = new ArrayList<AuctionObjectShadow>();
+      // Bids that can never win.
+      final Set<AuctionObjectShadow> blocked = Collections.newSetFromMap(
+         new IdentityHashMap<AuctionObjectShadow, Boolean>());
+      AuctionObjectShadow linchpin = null;
+   }
+
+   /**
+    * Mocked Auctioneer whose conditional totals are a stack of bids: a bid
+    * can win unless it is blocked or its buy has a win applied.
+    */
+   private static final class FakeAuctioneer
+   {
+      FakeAuctioneer(final Set<AuctionObjectShadow> blocked)
+      {
+         doAnswer(new Answer<Boolean>()
+         {
+            public Boolean answer(InvocationOnMock invocation)
+            {
+               AuctionObjectShadow bid = (AuctionObjectShadow) invocation.getArguments()[0];
+               if (blocked.contains(bid))
+               {
+                  return false;
+               }
+               int buyID = bid.auctionObj.campaignBuy.campaignBuyID;
+               for (AuctionObjectShadow win : applied)
+               {
+                  if (win.auctionObj.campaignBuy.campaignBuyID == buyID)
+                  {
+                     return false;
+                  }
+               }
+               return true;
+            }
+         }).when(auctioneer).canBeWinner(any(AuctionObjectShadow.class), any(AuctionPass.class));
+         doAnswer(new Answer<Long>()
+         {
+            public Long answer(InvocationOnMock invocation)
+            {
+               AuctionObjectShadow bid = (AuctionObjectShadow) invocation.getArguments()[0];
+               applied.add(bid);
+               return bid.auctionCost().valueInCents();
+            }
+         }).when(auctioneer).addToConditionalTotals(any(AuctionObjectShadow.class));
+         doAnswer(new Answer<Long>()
+         {
+            public Long answer(InvocationOnMock invocation)
+            {
+               AuctionObjectShadow bid = (AuctionObjectShadow) invocation.getArguments()[0];
+               for (int k = applied.size() - 1; k >= 0; k--)
+               {
+                  if (applied.get(k) == bid)
+                  {
+                     applied.remove(k);
+                     break;
+                  }
+               }
+               return bid.auctionCost().valueInCents();
+            }
+         }).when(auctioneer).unrollConditionalTotals(any(AuctionObjectShadow.class));
+         doAnswer(new Answer<Integer>()
+         {
+            public Integer answer(InvocationOnMock invocation)
+            {
+               return applied.size();
+            }
+         }).when(auctioneer).conditionalSavepoint();
+         doAnswer(new Answer<Long>()
+         {
+            public Long answer(InvocationOnMock invocation)
+            {
+               int savepoint = (Integer) invocation.getArguments()[0];
+               long cents = 0L;
+               while (applied.size() > savepoint)
+               {
+                  cents += applied.remove(applied.size() - 1).auctionCost().valueInCents();
+               }
+               return cents;
+            }
+         }).when(auctioneer).rollbackConditionalTotals(anyInt());
+         doAnswer(new Answer<Void>()
+         {
+            public Void answer(InvocationOnMock invocation)
+            {
+               AuctionObjectShadow bid = (AuctionObjectShadow) invocation.getArguments()[0];
+               bid.auctionState = AuctionStatus.WINNER;
+               winners.add(bid);
+               return null;
+            }
+         }).when(auctioneer).setAsWinner(any(AuctionObjectShadow.class),
+            any(AuctionPass.class), any(WinType.class));
+      }
+
+      final Auctioneer auctioneer = mock(Auctioneer.class);
+      // Bids with conditional totals applied, oldest first.
+      final List<AuctionObjectShadow> applied = new ArrayList<AuctionObjectShadow>();
+      final List<AuctionObjectShadow> winners = new ArrayList<AuctionObjectShadow>();
+   }
+
+   private static final AuctionPass PASS = mock(AuctionPass.class);
+   private static final int SEEDS = 500;
+   private static final int MAX_BIDS_PER_BIN = 3;
+   private static final int BLOCKED_PERCENT = 15;
+   private static final int SPOT_ID = 5000;
+   private static final int BUY_L = 10;
+   private static final int BUY_W = 11;
+   private static final int BUY_X = 12;
+   private static final int BUY_Y = 13;
+}
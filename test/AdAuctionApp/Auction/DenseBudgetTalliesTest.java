@@ -0,0 +1,180 @@
+/**
+ * Part of a source code package originally written for the AdAuctionApp project.
+ * Intended for use as a programming work sample file only.  Not for distribution.
+ **/
+package AdAuctionApp.Auction;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import AdAuctionApp.AdBuyGrid.Auction.AuctionViewToggles;
+import AdAuctionApp.AdvertisingAccount.AdvertisingAccountConstants.MediaBuyType;
+import AdAuctionApp.Cache.CacheConstants.DemographicQualityType;
+import AdAuctionApp.Cache.Central.BreakView;
+import AdAuctionApp.Cache.Central.CampaignBuyAuctionInfo;
+import AdAuctionApp.Cache.Central.Spot;
+import AdAuctionApp.Core.Money;
+
+/**
+ * Checks that an AuctionBudget keeping its totals in dense tallies (the
+ * default) accepts and rejects the same bids, and reports the same spending,
+ * as one keeping them in the tally objects.
+ */
+public class DenseBudgetTalliesTest
+{
+   @Before
+   public void setUp()
+   {
+      // Four buys of two campaigns, with limits tight enough to be reached,
+      // bidding on avails over two weeks.
+      myBuys = new ArrayList<CampaignBuyAuctionInfo>();
+      for (int b = 0; b < 4; b++)
+      {
+         myBuys.add(buy(BUY_ID + b, CAMPAIGN_ID + b / 2));
+      }
+      List<AuctionObjectShadow> bids = new ArrayList<AuctionObjectShadow>();
+      for (int s = 0; s < 14; s++)
+      {
+         Spot spot = spot(SPOT_ID + s, s / 7, s % 7);
+         for (int b = 0; b < myBuys.size(); b++)
+         {
+            bids.add(TestBids.bid(spot, myBuys.get(b), 10f - s, 0f,
+               100L + 37L * ((s + b) % 5), 5f));
+         }
+      }
+      myBids = bids.toArray(new AuctionObjectShadow[bids.size()]);
+   }
+
+   @Test
+   public void denseTalliesMatchTallyObjects()
+   {
+      AuctionBudget dense = new AuctionBudget(CLIENT_BUY_ID);
+      AuctionBudget tallied = new AuctionBudget(CLIENT_BUY_ID);
+      tallied.setDenseTallies(false);
+      dense.initBudget(myBids);
+      tallied.initBudget(myBids);
+
+      Random random = new Random(SEED);
+      List<AuctionObjectShadow> winners = new ArrayList<AuctionObjectShadow>();
+      List<AuctionObjectShadow> conditional = new ArrayList<AuctionObjectShadow>();
+      for (int step = 0; step < STEPS; step++)
+      {
+         AuctionObjectShadow bid = myBids[random.nextInt(myBids.length)];
+         boolean passes = limitsPass(dense, tallied, bid);
+         int action = random.nextInt(6);
+         if (passes && action < 2)
+         {
+            dense.addToWinnerBudgetTotals(bid);
+            tallied.addToWinnerBudgetTotals(bid);
+            winners.add(bid);
+         }
+         else if (passes && action < 4)
+         {
+            // The debug string shows the buy's tally, so must match too.
+            assertEquals(tallied.addToConditionalTotals(bid, true),
+               dense.addToConditionalTotals(bid, true));
+            conditional.add(bid);
+         }
+         else if (action == 4 && !conditional.isEmpty())
+         {
+            AuctionObjectShadow unrolled = conditional.remove(conditional.size() - 1);
+            dense.unrollConditionalTotals(unrolled, false);
+            tallied.unrollConditionalTotals(unrolled, false);
+         }
+         else if (action == 5 && !winners.isEmpty())
+         {
+            AuctionObjectShadow unrolled = winners.remove(random.nextInt(winners.size()));
+            dense.unrollWinnerBudgetTotals(unrolled);
+            tallied.unrollWinnerBudgetTotals(unrolled);
+         }
+         for (CampaignBuyAuctionInfo cbai : myBuys)
+         {
+            assertEquals(
+               tallied.buyExhaustedStatus(cbai, MIN_COST, 0L, AuctionViewToggles.NO_CONSTRAINTS),
+               dense.buyExhaustedStatus(cbai, MIN_COST, 0L, AuctionViewToggles.NO_CONSTRAINTS));
+         }
+      }
+      for (AuctionObjectShadow bid : myBids)
+      {
+         limitsPass(dense, tallied, bid);
+      }
+      assertEquals(tallied.dumpSpending(), dense.dumpSpending());
+   }
+
+   /**
+    * Check a bid against both budgets, and that they agree.
+    *
+    * @return Whether the bid is within the budgets' spending limits.
+    */
+   private static boolean limitsPass(AuctionBudget dense, AuctionBudget tallied,
+      AuctionObjectShadow bid)
+   {
+      bid.auctionState = null;
+      boolean talliedPasses =
+         tallied.spendingLimitsPass(bid, AuctionViewToggles.NO_CONSTRAINTS);
+      AuctionStatus talliedState = bid.auctionState;
+      bid.auctionState = null;
+      boolean densePasses =
+         dense.spendingLimitsPass(bid, AuctionViewToggles.NO_CONSTRAINTS);
+      assertEquals(talliedPasses, densePasses);
+      assertEquals(talliedState, bid.auctionState);
+      return densePasses;
+   }
+
+   /**
+    * @return New (mocked) avail of a rated break, in the first daypart.
+    */
+   private static Spot spot(int spotID, int week, int day)
+   {
+      Spot spot = TestBids.spot(spotID, week, spotID, 0);
+      BreakView bk = mock(BreakView.class);
+      bk.id = spotID;
+      bk.channelId = CHANNEL_ID + spotID % 2;
+      spot.breakView = bk;
+      spot.budgetDayOfWeek = day;
+      spot.daypartID = DAYPART_ID;
+      spot.totalADViews = 1000L + spotID % 3;
+      spot.isFuture = (week > 0);
+      when(spot.qualityType()).thenReturn(DemographicQualityType.RATED);
+      return spot;
+   }
+
+   /**
+    * @return New spending limited buy info, with campaign, buy, weekly and
+    *         daily limits that a handful of wins reach.
+    */
+   private static CampaignBuyAuctionInfo buy(int campaignBuyID, int campaignID)
+   {
+      CampaignBuyAuctionInfo info = TestBids.buy(campaignBuyID);
+      info.campaignID = campaignID;
+      info.auctionPriority = 1;
+      info.mediaBuyType = MediaBuyType.SPENDING_LIMITED;
+      info.effectiveCampaignSpendingLimit = Money.newFromPennies(2500L);
+      info.effectiveSpendingLimit = Money.newFromPennies(1600L);
+      info.effectiveDailyRemainingSpendingLimit = Money.newFromPennies(400L);
+      info.effectiveWeeklyRemainingSpendingLimits.put(0, Money.newFromPennies(900L));
+      info.effectiveWeeklyRemainingSpendingLimits.put(1, Money.newFromPennies(1100L));
+      return info;
+   }
+
+   private static final long SEED = 20100104L;
+   private static final int STEPS = 2000;
+   private static final int CLIENT_BUY_ID = 1;
+   private static final int CAMPAIGN_ID = 10;
+   private static final int BUY_ID = 100;
+   private static final int SPOT_ID = 1000;
+   private static final int CHANNEL_ID = 7;
+   private static final int DAYPART_ID = 3;
+   private static final Money MIN_COST = Money.newFromPennies(100L);
+
+   private List<CampaignBuyAuctionInfo> myBuys;
+   private AuctionObjectShadow[] myBids;
+}
@@ -0,0 +1,214 @@
+/**
+ * Part of a source code package originally written for the AdAuctionApp project.
+ * Intended for use as a programming work sample file only.  Not for distribution.
+ **/
+package AdAuctionApp.Auction;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeSet;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import AdAuctionApp.AdBuyGrid.AuctionClient;
+import AdAuctionApp.AdBuyGrid.SpotShadow;
+import AdAuctionApp.AdBuyGrid.Auction.AuctionViewToggles;
+import AdAuctionApp.AdvertisingAccount.AdvertisingAccountConstants.MediaBuyType;
+import AdAuctionApp.Auction.Auctioneer.AuctionType;
+import AdAuctionApp.Cache.Central.AuctionObject;
+import AdAuctionApp.Cache.Central.CampaignBuyAuctionInfo;
+import AdAuctionApp.Cache.Central.PreassignedWinner;
+import AdAuctionApp.Cache.Central.Spot;
+import AdAuctionApp.Core.DateRange;
+import AdAuctionApp.Core.Money;
+
+/**
+ * Checks that a BASELINE auction reusing the data of the GREENFIELD auction
+ * just run picks the same winners as one that rebuilds its data, and that
+ * any change to the pool or the client's buy makes it rebuild.
+ */
+public class GreenfieldReuseTest
+{
+   @Before
+   public void setUp()
+   {
+      Calendar start = Calendar.getInstance();
+      start.clear();
+      start.set(2010, Calendar.JANUARY, 4);
+      Calendar end = (Calendar) start.clone();
+      end.add(Calendar.DAY_OF_YEAR, 6);
+      myRange = new DateRange(start, end);
+
+      AuctionSettings settings = mock(AuctionSettings.class);
+      AuctionPass pass = mock(AuctionPass.class);
+      when(pass.priority()).thenReturn(1);
+      myPool = mock(AuctionPoolProvider.class);
+      when(myPool.getAuctionSettings()).thenReturn(settings);
+      when(myPool.getAuctionPassList())
+         .thenReturn(Collections.singletonList(pass));
+      when(myPool.getPreassignedWinners())
+         .thenReturn(Collections.<PreassignedWinner> emptyList());
+
+      // Three competing buys over six avails; each buy bids on four.
+      List<CampaignBuyAuctionInfo> buys = new ArrayList<CampaignBuyAuctionInfo>();
+      for (int b = 0; b < 3; b++)
+      {
+         buys.add(buy(COMPETITOR_BUY_ID + b));
+      }
+      myBidders = new ArrayList<AuctionObject>();
+      for (int s = 0; s < 6; s++)
+      {
+         Spot spot = TestBids.spot(SPOT_ID + s, 0, SPOT_ID + s, 0);
+         when(myPool.getSpotEntryById(SPOT_ID + s)).thenReturn(spot);
+         for (int b = 0; b < 3; b++)
+         {
+            if ((s + b) % 3 != 0)
+            {
+               AuctionObject ao = mock(AuctionObject.class);
+               ao.spot = spot;
+               ao.campaignBuy = buys.get(b);
+               when(ao.rank()).thenReturn(10f - s - b * 0.5f);
+               when(ao.derivedCPM()).thenReturn(5f + b);
+               when(ao.isInProgram()).thenReturn(true);
+               myBidders.add(ao);
+            }
+         }
+      }
+      when(myPool.getAuctionBidders(start, end)).thenReturn(myBidders);
+      when(myPool.getAllActiveCampaignBuys()).thenReturn(buys);
+
+      myClient = mock(AuctionClient.class);
+      when(myClient.adBuyId()).thenReturn(CLIENT_BUY_ID);
+      when(myClient.auctionDateRange()).thenReturn(myRange);
+      when(myClient.auctionConstraints())
+         .thenReturn(AuctionViewToggles.NO_CONSTRAINTS);
+      when(myClient.getSpotMap())
+         .thenReturn(Collections.<Integer, SpotShadow> emptyMap());
+      when(myClient.auctionInfo()).thenAnswer(new Answer<CampaignBuyAuctionInfo>()
+      {
+         public CampaignBuyAuctionInfo answer(InvocationOnMock invocation)
+         {
+            CampaignBuyAuctionInfo info = buy(CLIENT_BUY_ID);
+            info.baselineEfficiency = myBaselineEfficiency;
+            return info;
+         }
+      });
+   }
+
+   @Test
+   public void reusedBaselineMatchesRebuiltBaseline()
+   {
+      Auctioneer reusing = new Auctioneer(myPool, myClient, false);
+      reusing.runAuction(AuctionType.GREENFIELD);
+      AuctionObjectShadow[] greenfieldBids = reusing.lastAuctionBids().clone();
+      myBaselineEfficiency = 40f;
+      reusing.runAuction(AuctionType.BASELINE);
+
+      myBaselineEfficiency = 100f;
+      Auctioneer rebuilding = new Auctioneer(myPool, myClient, false);
+      rebuilding.runAuction(AuctionType.GREENFIELD);
+      rebuilding.discardGreenfieldData();
+      myBaselineEfficiency = 40f;
+      rebuilding.runAuction(AuctionType.BASELINE);
+
+      // The reusing Auctioneer auctioned the very same bids again.
+      AuctionObjectShadow[] reusedBids = reusing.lastAuctionBids();
+      assertEquals(greenfieldBids.length, reusedBids.length);
+      for (int i = 0; i < reusedBids.length; i++)
+      {
+         assertSame(greenfieldBids[i], reusedBids[i]);
+      }
+      assertEquals(myBidders.size(), rebuilding.lastAuctionBids().length);
+      assertFalse(reusing.lastAuctionWinners().isEmpty());
+      assertEquals(winners(rebuilding), winners(reusing));
+      assertEquals(rebuilding.lastAuctionCost(), reusing.lastAuctionCost());
+   }
+
+   @Test
+   public void changedPoolIsRebuilt()
+   {
+      Auctioneer auctioneer = new Auctioneer(myPool, myClient, false);
+      auctioneer.runAuction(AuctionType.GREENFIELD);
+      AuctionObjectShadow[] greenfieldBids = auctioneer.lastAuctionBids().clone();
+      List<AuctionObject> changed = new ArrayList<AuctionObject>(myBidders);
+      changed.remove(0);
+      when(myPool.getAuctionBidders(myRange.startDate(), myRange.endDate()))
+         .thenReturn(changed);
+      auctioneer.runAuction(AuctionType.BASELINE);
+
+      assertEquals(changed.size(), auctioneer.lastAuctionBids().length);
+      assertNotSame(greenfieldBids[1], auctioneer.lastAuctionBids()[0]);
+   }
+
+   @Test
+   public void changedBuyIsRebuilt()
+   {
+      Auctioneer auctioneer = new Auctioneer(myPool, myClient, false);
+      auctioneer.runAuction(AuctionType.GREENFIELD);
+      AuctionObjectShadow[] greenfieldBids = auctioneer.lastAuctionBids().clone();
+      when(myClient.auctionInfo()).thenAnswer(new Answer<CampaignBuyAuctionInfo>()
+      {
+         public CampaignBuyAuctionInfo answer(InvocationOnMock invocation)
+         {
+            CampaignBuyAuctionInfo info = buy(CLIENT_BUY_ID);
+            info.effectiveSpendingLimit = Money.newFromPennies(1000L);
+            return info;
+         }
+      });
+      auctioneer.runAuction(AuctionType.BASELINE);
+
+      assertNotSame(greenfieldBids[0], auctioneer.lastAuctionBids()[0]);
+   }
+
+   /**
+    * @return Winners of the last auction, as "avail/buy" strings.
+    */
+   private static TreeSet<String> winners(Auctioneer auctioneer)
+   {
+      TreeSet<String> rtnSet = new TreeSet<String>();
+      for (AuctionObjectShadow winner : auctioneer.lastAuctionWinners())
+      {
+         rtnSet.add(winner.auctionObj.spot.id + "/"
+            + winner.auctionObj.campaignBuy.campaignBuyID);
+      }
+      return rtnSet;
+   }
+
+   /**
+    * @return New spending limited buy info with ample limits.
+    */
+   private static CampaignBuyAuctionInfo buy(int campaignBuyID)
+   {
+      CampaignBuyAuctionInfo info = TestBids.buy(campaignBuyID);
+      info.campaignID = campaignBuyID;
+      info.auctionPriority = 1;
+      info.mediaBuyType = MediaBuyType.SPENDING_LIMITED;
+      info.effectiveDailyRemainingSpendingLimit = AMPLE;
+      info.effectiveSpendingLimit = AMPLE;
+      info.effectiveCampaignSpendingLimit = AMPLE;
+      return info;
+   }
+
+   private static final int CLIENT_BUY_ID = 1;
+   private static final int COMPETITOR_BUY_ID = 100;
+   private static final int SPOT_ID = 1000;
+   private static final Money AMPLE = Money.newFromPennies(100000000L);
+
+   private DateRange myRange;
+   private AuctionPoolProvider myPool;
+   private AuctionClient myClient;
+   private List<AuctionObject> myBidders;
+   private float myBaselineEfficiency = 100f;
+}
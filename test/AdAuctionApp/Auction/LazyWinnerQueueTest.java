@@ -0,0 +1,205 @@
+/**
+ * Part of a source code package originally written for the AdAuctionApp project.
+ * Intended for use as a programming work sample file only.  Not for distribution.
+ **/
+package AdAuctionApp.Auction;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.List;
+
+import org.junit.Test;
+
+import AdAuctionApp.AdBuyGrid.Auction.AuctionViewToggles;
+import AdAuctionApp.Cache.Central.CampaignBuyAuctionInfo;
+import AdAuctionApp.Core.Money;
+
+/**
+ * Checks that lazy winner selection hands out the same candidates, in the
+ * same order, as eager ranking, including when a channel bundling lookahead
+ * pulls the next week's bids while its conditional wins are applied.
+ */
+public class LazyWinnerQueueTest
+{
+   @Test
+   public void bundlingLookaheadMatchesEagerOrder()
+   {
+      // The lookahead's conditional wins exhaust buy B, but they are
+      // unrolled before any of B's bids come up in the winner loop.
+      TestBudget budget = new TestBudget();
+      budget.conditionallyExhaustedBuy = myBuyB;
+      AuctionObjectShadow[] bids = createBids();
+      BidColumns cols = new BidColumns(bids);
+      LazyWinnerQueue queue = new LazyWinnerQueue(cols, budget);
+      queue.load(allColumns(bids.length), bids.length, null);
+      List<AuctionObjectShadow> lazyList = queue.asList();
+
+      // Bundling lookahead for the first candidate: scan the rest of the
+      // ranked list with its conditional win applied.
+      lazyList.get(0);
+      budget.conditionalWins = 1;
+      for (int k = 1; k < lazyList.size(); k++)
+      {
+         lazyList.get(k);
+      }
+      budget.conditionalWins = 0;
+
+      int[] eager = allColumns(bids.length);
+      cols.rankWinnerDescending(eager, eager.length);
+      assertEquals(bids.length, lazyList.size());
+      for (int k = 0; k < eager.length; k++)
+      {
+         AuctionObjectShadow bid = cols.bid(eager[k]);
+         assertSame("Position " + k, bid, lazyList.get(k));
+         assertEquals(AuctionStatus.IN_PLAY, bid.auctionState);
+      }
+   }
+
+   @Test
+   public void exhaustedBuyIsDroppedOnceLookaheadIsUnrolled()
+   {
+      // Buy B is exhausted whether or not conditional totals are applied.
+      TestBudget budget = new TestBudget();
+      budget.exhaustedBuy = myBuyB;
+      AuctionObjectShadow[] bids = createBids();
+      BidColumns cols = new BidColumns(bids);
+      LazyWinnerQueue queue = new LazyWinnerQueue(cols, budget);
+      queue.load(allColumns(bids.length), bids.length, null);
+      List<AuctionObjectShadow> lazyList = queue.asList();
+
+      // Pull into week 1 under a lookahead: nothing of B is dropped yet.
+      lazyList.get(0);
+      budget.conditionalWins = 1;
+      lazyList.get(WEEK0_BIDS);
+      budget.conditionalWins = 0;
+      for (AuctionObjectShadow bid : bids)
+      {
+         assertEquals(AuctionStatus.IN_PLAY, bid.auctionState);
+      }
+
+      // Once unrolled, B's remaining week 1 bids are dropped.
+      int handedOut = 0;
+      for (int k = 0; k < lazyList.size(); k++)
+      {
+         lazyList.get(k);
+         handedOut++;
+      }
+      int dropped = 0;
+      for (AuctionObjectShadow bid : bids)
+      {
+         if (bid.auctionState == AuctionStatus.EXCEED_BUY_BUDGET)
+         {
+            assertSame(myBuyB, bid.auctionObj.campaignBuy);
+            dropped++;
+         }
+      }
+      assertEquals(bids.length, handedOut + dropped);
+   }
+
+   @Test
+   public void dropKeepsStatusOfDecidedBids()
+   {
+      TestBudget budget = new TestBudget();
+      budget.exhaustedBuy = myBuyB;
+      AuctionObjectShadow[] bids = createBids();
+      // B's first week 1 bid won as a mirror partner, its second lost.
+      AuctionObjectShadow won = bids[WEEK0_BIDS];
+      AuctionObjectShadow lost = bids[WEEK0_BIDS + 2];
+      won.auctionState = AuctionStatus.WINNER;
+      lost.auctionState = AuctionStatus.MIRRORED_SIBLING_BID_LOST;
+      BidColumns cols = new BidColumns(bids);
+      LazyWinnerQueue queue = new LazyWinnerQueue(cols, budget);
+      queue.load(allColumns(bids.length), bids.length, null);
+      List<AuctionObjectShadow> lazyList = queue.asList();
+      for (int k = 0; k < lazyList.size(); k++)
+      {
+         lazyList.get(k);
+      }
+      assertEquals(AuctionStatus.WINNER, won.auctionState);
+      assertEquals(AuctionStatus.MIRRORED_SIBLING_BID_LOST, lost.auctionState);
+      for (int k = WEEK0_BIDS + 3; k < bids.length; k++)
+      {
+         if (bids[k].auctionObj.campaignBuy == myBuyB)
+         {
+            assertEquals(AuctionStatus.EXCEED_BUY_BUDGET, bids[k].auctionState);
+         }
+      }
+   }
+
+   /**
+    * Week 0: bids of buy A. Week 1: bids of buys B and A, alternating, B
+    * first.
+    */
+   private AuctionObjectShadow[] createBids()
+   {
+      AuctionObjectShadow[] bids = new AuctionObjectShadow[WEEK0_BIDS + WEEK1_BIDS];
+      for (int k = 0; k < WEEK0_BIDS; k++)
+      {
+         bids[k] = TestBids.bid(TestBids.spot(100 + k, 0, 100 + k, 0), myBuyA,
+            10f - k, 0f, 1000L, 1f);
+      }
+      for (int k = 0; k < WEEK1_BIDS; k++)
+      {
+         CampaignBuyAuctionInfo buy = (k % 2 == 0 ? myBuyB : myBuyA);
+         bids[WEEK0_BIDS + k] = TestBids.bid(TestBids.spot(200 + k, 1, 200 + k, 0),
+            buy, 10f - k, 0f, 1000L, 1f);
+      }
+      return bids;
+   }
+
+   private static int[] allColumns(int n)
+   {
+      int[] rtn = new int[n];
+      for (int i = 0; i < n; i++)
+      {
+         rtn[i] = i;
+      }
+      return rtn;
+   }
+
+   /**
+    * Budget whose exhausted buys are set by the test, and whose conditional
+    * totals are only counted.
+    */
+   private static final class TestBudget extends AuctionBudget
+   {
+      TestBudget()
+      {
+         super(0);
+      }
+
+      @Override
+      public int conditionalSavepoint()
+      {
+         return conditionalWins;
+      }
+
+      @Override
+      public AuctionStatus buyExhaustedStatus(
+         CampaignBuyAuctionInfo cbai,
+         Money minCost,
+         long minImpressions,
+         AuctionViewToggles curToggles)
+      {
+         if (cbai == exhaustedBuy
+            || (conditionalWins > 0 && cbai == conditionallyExhaustedBuy))
+         {
+            return AuctionStatus.EXCEED_BUY_BUDGET;
+         }
+         return null;
+      }
+
+      int conditionalWins = 0;
+      CampaignBuyAuctionInfo exhaustedBuy = null;
+      CampaignBuyAuctionInfo conditionallyExhaustedBuy = null;
+   }
+
+   /******************** Class members **************************/
+   private static final int WEEK0_BIDS = 4;
+   private static final int WEEK1_BIDS = 6;
+
+   /******************** Instance members **************************/
+   private final CampaignBuyAuctionInfo myBuyA = TestBids.buy(1);
+   private final CampaignBuyAuctionInfo myBuyB = TestBids.buy(2);
+}
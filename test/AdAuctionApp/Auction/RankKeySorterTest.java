@@ -0,0 +1,247 @@
+/**
+ * Part of a source code package originally written for the AdAuctionApp project.
+ * Intended for use as a programming work sample file only.  Not for distribution.
+ **/
+package AdAuctionApp.Auction;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import AdAuctionApp.Cache.Central.CampaignBuyAuctionInfo;
+import AdAuctionApp.Cache.Central.Spot;
+
+/**
+ * Checks that ranking over BidColumns gives exactly the order of sorting the
+ * bid array with Auctioneer.RANK_WINNER_DESC_COMPARATOR, as the auction did
+ * before bids were ranked by packed key. Bids are drawn from few distinct
+ * values, so most of them tie on several rank fields, and several buys (and
+ * sometimes the same buy twice) bid on each avail.
+ */
+public class RankKeySorterTest
+{
+   @Test
+   public void mergeSortMatchesComparator()
+   {
+      checkDescending(500, 1L);
+   }
+
+   @Test
+   public void radixSortMatchesComparator()
+   {
+      checkDescending(10000, 2L);
+   }
+
+   @Test
+   public void ascendingMatchesComparator()
+   {
+      AuctionObjectShadow[] bids = createBids(500, 3L);
+      BidColumns cols = new BidColumns(bids);
+      for (int spotID = FIRST_SPOT_ID; spotID < FIRST_SPOT_ID + SPOTS; spotID++)
+      {
+         List<Integer> spotCols = new ArrayList<Integer>();
+         List<AuctionObjectShadow> expected = new ArrayList<AuctionObjectShadow>();
+         for (int i = 0; i < bids.length; i++)
+         {
+            if (bids[i].auctionObj.spot.id == spotID)
+            {
+               spotCols.add(i);
+               expected.add(bids[i]);
+            }
+         }
+         Collections.sort(expected,
+            Collections.reverseOrder(Auctioneer.RANK_WINNER_DESC_COMPARATOR));
+         int[] order = toArray(spotCols);
+         cols.rankAscending(order);
+         assertOrder(expected, cols, order, order.length);
+      }
+   }
+
+   @Test
+   public void mergeOfChangedBidsMatchesComparator()
+   {
+      Random rnd = new Random(4L);
+      AuctionObjectShadow[] bids = createBids(2000, 4L);
+      BidColumns cols = new BidColumns(bids);
+      InPlayBids inPlay = new InPlayBids(cols);
+      inPlay.reset();
+      inPlay.rank();
+      for (int pass = 0; pass < 3; pass++)
+      {
+         for (int k = 0; k < bids.length / 10; k++)
+         {
+            TestBids.setCost(bids[rnd.nextInt(bids.length)], COSTS[rnd.nextInt(COSTS.length)]);
+         }
+         inPlay.refresh();
+         inPlay.rank();
+         int count = inPlay.createPassOrder(false);
+         assertOrder(sortedByComparator(bids), cols, inPlay.passOrder(), count);
+      }
+   }
+
+   /**
+    * Pins the order of bids that tie on every rank field but the avail/buy
+    * hash: ascending (avail ID ^ buy ID), whatever their order in the bid
+    * array. Before the order was made total, the same ties came out in an
+    * order that depended on the input order and on the sort (e.g. buys 4
+    * and 3 on avail 1000 came out as given).
+    */
+   @Test
+   public void equalRankBuysOnAnAvailOrderByAvailBuyHash()
+   {
+      Spot spot = TestBids.spot(1000, 0, 1000, 0);
+      // Hashes: 1000^4 = 1004, 1000^3 = 1003, 1000^5 = 1005, 1000^2 = 1002.
+      int[] buyIDs = { 4, 3, 5, 2 };
+      AuctionObjectShadow[] bids = new AuctionObjectShadow[buyIDs.length];
+      for (int k = 0; k < bids.length; k++)
+      {
+         bids[k] = TestBids.bid(spot, TestBids.buy(buyIDs[k]), 2f, 0f, 500L, 1f);
+      }
+      List<AuctionObjectShadow> expected =
+         Arrays.asList(bids[3], bids[1], bids[0], bids[2]);
+      checkTieOrder(bids, expected);
+
+      // Reversed input, same result.
+      AuctionObjectShadow[] reversed = new AuctionObjectShadow[bids.length];
+      for (int k = 0; k < bids.length; k++)
+      {
+         reversed[k] = bids[bids.length - 1 - k];
+      }
+      checkTieOrder(reversed, expected);
+   }
+
+   /**
+    * Pins the order of two bids of the same buy on the same avail, which tie
+    * on every rank field: that of the bid array.
+    */
+   @Test
+   public void equalRankBidsOfABuyKeepBidArrayOrder()
+   {
+      Spot spot = TestBids.spot(1000, 0, 1000, 0);
+      CampaignBuyAuctionInfo buy = TestBids.buy(3);
+      AuctionObjectShadow first = TestBids.bid(spot, buy, 2f, 0f, 500L, 1f);
+      AuctionObjectShadow second = TestBids.bid(spot, buy, 2f, 0f, 500L, 1f);
+      checkTieOrder(new AuctionObjectShadow[] { first, second },
+         Arrays.asList(first, second));
+      checkTieOrder(new AuctionObjectShadow[] { second, first },
+         Arrays.asList(second, first));
+   }
+
+   /**
+    * Check the comparator, full ranking and incremental ranking all order
+    * 'bids' as 'expected'.
+    */
+   private static void checkTieOrder(AuctionObjectShadow[] bids,
+      List<AuctionObjectShadow> expected)
+   {
+      assertEquals(expected, sortedByComparator(bids));
+
+      BidColumns cols = new BidColumns(bids);
+      int[] order = new int[bids.length];
+      for (int k = 0; k < order.length; k++)
+      {
+         order[order.length - 1 - k] = k;
+      }
+      cols.rankWinnerDescending(order, order.length);
+      assertOrder(expected, cols, order, order.length);
+
+      InPlayBids inPlay = new InPlayBids(cols);
+      inPlay.reset();
+      inPlay.rank();
+      int count = inPlay.createPassOrder(false);
+      assertOrder(expected, cols, inPlay.passOrder(), count);
+   }
+
+   private void checkDescending(int n, long seed)
+   {
+      AuctionObjectShadow[] bids = createBids(n, seed);
+      BidColumns cols = new BidColumns(bids);
+      // Rank from a shuffled order: the result must not depend on it.
+      List<Integer> shuffled = new ArrayList<Integer>();
+      for (int i = 0; i < n; i++)
+      {
+         shuffled.add(i);
+      }
+      Collections.shuffle(shuffled, new Random(seed));
+      int[] order = toArray(shuffled);
+      cols.rankWinnerDescending(order, n);
+      assertOrder(sortedByComparator(bids), cols, order, n);
+   }
+
+   /**
+    * @return The bids sorted as the auction used to: the bid array, sorted
+    *         with the comparator.
+    */
+   private static List<AuctionObjectShadow> sortedByComparator(
+      AuctionObjectShadow[] bids)
+   {
+      List<AuctionObjectShadow> rtnList =
+         new ArrayList<AuctionObjectShadow>(Arrays.asList(bids));
+      Collections.sort(rtnList, Auctioneer.RANK_WINNER_DESC_COMPARATOR);
+      return rtnList;
+   }
+
+   private static void assertOrder(List<AuctionObjectShadow> expected,
+      BidColumns cols, int[] order, int count)
+   {
+      assertEquals(expected.size(), count);
+      for (int k = 0; k < count; k++)
+      {
+         assertSame("Position " + k, expected.get(k), cols.bid(order[k]));
+      }
+   }
+
+   private static AuctionObjectShadow[] createBids(int n, long seed)
+   {
+      Random rnd = new Random(seed);
+      Spot[] spots = new Spot[SPOTS];
+      for (int s = 0; s < SPOTS; s++)
+      {
+         int spotID = FIRST_SPOT_ID + s;
+         spots[s] = TestBids.spot(spotID, s % 3, spotID - (s % 2), (s % 2) * 30);
+      }
+      CampaignBuyAuctionInfo[] buys = new CampaignBuyAuctionInfo[BUYS];
+      for (int b = 0; b < BUYS; b++)
+      {
+         buys[b] = TestBids.buy(FIRST_BUY_ID + b);
+      }
+      AuctionObjectShadow[] bids = new AuctionObjectShadow[n];
+      for (int i = 0; i < n; i++)
+      {
+         bids[i] = TestBids.bid(
+            spots[rnd.nextInt(SPOTS)],
+            buys[rnd.nextInt(BUYS)],
+            RANKS[rnd.nextInt(RANKS.length)],
+            RANKS[rnd.nextInt(RANKS.length)],
+            COSTS[rnd.nextInt(COSTS.length)],
+            CPMS[rnd.nextInt(CPMS.length)]);
+      }
+      return bids;
+   }
+
+   private static int[] toArray(List<Integer> list)
+   {
+      int[] rtn = new int[list.size()];
+      for (int k = 0; k < rtn.length; k++)
+      {
+         rtn[k] = list.get(k);
+      }
+      return rtn;
+   }
+
+   /******************** Class members **************************/
+   private static final int SPOTS = 24;
+   private static final int FIRST_SPOT_ID = 7000;
+   private static final int BUYS = 6;
+   private static final int FIRST_BUY_ID = 301;
+   private static final float[] RANKS = { -2.5f, -1f, 0f, 1.5f, 3f };
+   private static final long[] COSTS = { 0L, 500L, 1250L };
+   private static final float[] CPMS = { 1f, 2.25f };
+}
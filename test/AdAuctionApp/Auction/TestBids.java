@@ -0,0 +1,91 @@
+/**
+ * Part of a source code package originally written for the AdAuctionApp project.
+ * Intended for use as a programming work sample file only.  Not for distribution.
+ **/
+package AdAuctionApp.Auction;
+
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.when;
+
+import AdAuctionApp.Cache.Central.AuctionObject;
+import AdAuctionApp.Cache.Central.CampaignBuyAuctionInfo;
+import AdAuctionApp.Cache.Central.Spot;
+import AdAuctionApp.Core.Money;
+
+/**
+ * Builds bids for the auction unit tests: AuctionObjectShadows over mocked
+ * pool AuctionObjects and Spots, with the values the ranking reads.
+ */
+final class TestBids
+{
+   private TestBids()
+   {
+   }
+
+   /**
+    * @param campaignBuyID Buy ID.
+    * @return New buy info with the given ID.
+    */
+   static CampaignBuyAuctionInfo buy(int campaignBuyID)
+   {
+      CampaignBuyAuctionInfo cbai = new CampaignBuyAuctionInfo();
+      cbai.campaignBuyID = campaignBuyID;
+      return cbai;
+   }
+
+   /**
+    * @param spotID Avail ID.
+    * @param week Budget week index.
+    * @param segmentRootID Segment root avail ID.
+    * @param segmentOffset Segment offset.
+    * @return New (mocked) avail.
+    */
+   static Spot spot(int spotID, int week, int segmentRootID, int segmentOffset)
+   {
+      Spot spot = mock(Spot.class);
+      spot.id = spotID;
+      spot.budgetWeekIndex = week;
+      spot.segmentRootID = segmentRootID;
+      spot.segmentOffset = segmentOffset;
+      return spot;
+   }
+
+   /**
+    * Create an in-program bid.
+    *
+    * @param spot Avail of the bid.
+    * @param buy Buy of the bid.
+    * @param rank Rank of the bid.
+    * @param alternateRank Alternate rank of the bid.
+    * @param costCents Auction cost of the bid, in cents.
+    * @param derivedCpm Derived CPM of the bid's buy.
+    * @return New bid.
+    */
+   static AuctionObjectShadow bid(Spot spot, CampaignBuyAuctionInfo buy,
+      float rank, float alternateRank, long costCents, float derivedCpm)
+   {
+      AuctionObject ao = mock(AuctionObject.class);
+      ao.spot = spot;
+      ao.campaignBuy = buy;
+      when(ao.rank()).thenReturn(rank);
+      when(ao.derivedCPM()).thenReturn(derivedCpm);
+      when(ao.isInProgram()).thenReturn(true);
+      AuctionObjectShadow aos = spy(new AuctionObjectShadow(ao, 0));
+      aos.alternateRank = alternateRank;
+      setCost(aos, costCents);
+      return aos;
+   }
+
+   /**
+    * Change the auction cost of a bid.
+    *
+    * @param aos Bid from bid().
+    * @param costCents New auction cost, in cents.
+    */
+   static void setCost(AuctionObjectShadow aos, long costCents)
+   {
+      doReturn(Money.newFromPennies(costCents)).when(aos).auctionCost();
+   }
+}